@@ -0,0 +1,89 @@
+package cz.mzk.osdd.merlin.jmh;
+
+import cz.mzk.osdd.merlin.models.Foxml;
+import cz.mzk.osdd.merlin.models.Utils;
+import cz.mzk.osdd.merlin.models.XmlFactories;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+
+/**
+ * Compares datastream lookups of page processing done by scanning the document with lookups through Foxml index
+ *
+ * Page datastreams are placed after the other datastreams, as in large FOXMLs whose datastreams have many versions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatastreamLookupBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int otherVersions;
+
+    private Document doc;
+    private List<String> lookups;
+
+    @Setup
+    public void setUp() throws Exception {
+        StringBuilder foxml = new StringBuilder("<digitalObject VERSION=\"1.1\" PID=\"uuid:00000000-0000-0000-0000-000000000000\">\n");
+
+        for (int i = 0; i < otherVersions; i++) {
+            appendDatastream(foxml, "OTHER_" + (i % 10), i / 10);
+        }
+
+        for (String datastream : Foxml.PAGE_DATASTREAMS) {
+            appendDatastream(foxml, datastream.substring(0, datastream.indexOf('.')), 0);
+        }
+
+        foxml.append("</digitalObject>\n");
+
+        doc = XmlFactories.getDocumentBuilder().parse(new ByteArrayInputStream(foxml.toString().getBytes(StandardCharsets.UTF_8)));
+
+        //every datastream is looked up by processDatastream and once again by processing of its kind
+        lookups = new ArrayList<>();
+        lookups.addAll(Foxml.PAGE_DATASTREAMS);
+        lookups.addAll(Foxml.PAGE_DATASTREAMS);
+    }
+
+    @Benchmark
+    public void documentScan(Blackhole bh) {
+        for (String id : lookups) {
+            bh.consume(Utils.filterDatastreamFromDocument(doc, id));
+        }
+    }
+
+    @Benchmark
+    public void foxmlIndex(Blackhole bh) {
+        Foxml foxml = new Foxml(doc, "000000001", "mzk01", "00000000-0000-0000-0000-000000000000");
+
+        for (String id : lookups) {
+            bh.consume(foxml.getDatastreamVersion(id));
+        }
+    }
+
+    private static void appendDatastream(StringBuilder foxml, String id, int version) {
+        foxml.append("  <datastream ID=\"").append(id).append("\" CONTROL_GROUP=\"X\" STATE=\"A\" VERSIONABLE=\"false\">\n")
+                .append("    <datastreamVersion ID=\"").append(id).append('.').append(version).append("\" LABEL=\"").append(id).append("\" MIMETYPE=\"text/xml\">\n")
+                .append("      <xmlContent><content>").append(id).append("</content></xmlContent>\n")
+                .append("    </datastreamVersion>\n")
+                .append("  </datastream>\n");
+    }
+}
@@ -0,0 +1,149 @@
+package cz.mzk.osdd.merlin.jmh;
+
+import cz.mzk.osdd.merlin.models.ExportPack;
+import cz.mzk.osdd.merlin.models.ExportPackRegistry;
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares ExportPackRegistry with map of ExportPack objects formerly used by Title on titles with many pages
+ *
+ * Build benchmarks register FOXML and image of each page the way Title does, allocation per title is reported
+ * as gc.alloc.rate.norm by gc profiler enabled in build.gradle. Lookup benchmarks look up every page by UUID
+ * and read its flags, scan benchmarks read FOXML path of every page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportPackRegistryBenchmark {
+    private static final String FOXML_SUFFIX = ".xml";
+    private static final String IMAGE_SUFFIX = ".jp2";
+
+    @Param({"1000", "10000", "50000"})
+    public int pages;
+
+    private File[] files;
+    private String[] uuids;
+    private Map<String, ExportPack> map;
+    private ExportPackRegistry registry;
+
+    @Setup
+    public void setUp() {
+        Path dir = Paths.get("/data/export/k4_" + UUID.randomUUID());
+        Random random = new Random(42);
+
+        files = new File[pages * 2];
+        uuids = new String[pages];
+
+        for (int i = 0; i < pages; i++) {
+            uuids[i] = new UUID(random.nextLong(), random.nextLong()).toString();
+
+            files[i * 2] = dir.resolve(uuids[i] + FOXML_SUFFIX).toFile();
+            files[i * 2 + 1] = dir.resolve(uuids[i] + IMAGE_SUFFIX).toFile();
+        }
+
+        map = buildMap();
+        registry = buildRegistry();
+    }
+
+    @Benchmark
+    public Map<String, ExportPack> buildMap() {
+        Map<String, ExportPack> packs = new HashMap<>();
+
+        for (File f : files) {
+            boolean image = f.getName().endsWith(IMAGE_SUFFIX);
+            String suffix = image ? IMAGE_SUFFIX : FOXML_SUFFIX;
+            String uuid = f.getName().substring(0, f.getName().length() - suffix.length());
+            ExportPack pack = packs.computeIfAbsent(uuid, ExportPack::new);
+
+            if (image) {
+                pack.setHasImageExport(f.getPath());
+            } else {
+                pack.setHasKrameriusExport(f.getPath());
+            }
+        }
+
+        return packs;
+    }
+
+    @Benchmark
+    public ExportPackRegistry buildRegistry() {
+        ExportPackRegistry packs = new ExportPackRegistry(FOXML_SUFFIX, IMAGE_SUFFIX);
+
+        for (File f : files) {
+            if (f.getName().endsWith(IMAGE_SUFFIX)) {
+                packs.addImageExport(f);
+            } else {
+                packs.addKrameriusExport(f);
+            }
+        }
+
+        return packs;
+    }
+
+    @Benchmark
+    public int lookupMap() {
+        int valid = 0;
+
+        for (String uuid : uuids) {
+            if (map.get(uuid).isValid()) valid++;
+        }
+
+        return valid;
+    }
+
+    @Benchmark
+    public int lookupRegistry() {
+        int valid = 0;
+
+        for (String uuid : uuids) {
+            int index = registry.indexOf(uuid);
+
+            if (registry.hasKrameriusExport(index) && registry.hasImageExport(index)) valid++;
+        }
+
+        return valid;
+    }
+
+    @Benchmark
+    public int scanMap() {
+        int hash = 0;
+
+        for (ExportPack pack : map.values()) {
+            hash += pack.getKrameriusExportPath().hashCode();
+        }
+
+        return hash;
+    }
+
+    @Benchmark
+    public int scanRegistry() {
+        int hash = 0;
+
+        for (int i = 0; i < registry.size(); i++) {
+            hash += registry.getKrameriusExportPath(i).hashCode();
+        }
+
+        return hash;
+    }
+}
@@ -0,0 +1,126 @@
+package cz.mzk.osdd.merlin.jmh;
+
+import cz.mzk.osdd.merlin.models.ExportPack;
+import cz.mzk.osdd.merlin.models.Foxml;
+import cz.mzk.osdd.merlin.models.Title;
+import cz.mzk.osdd.merlin.models.Utils;
+import cz.mzk.osdd.merlin.tools.FoxmlCorpus;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Measures per FOXML cost of processing hot path on generated page and non page FOXMLs of different sizes
+ *
+ * Throughput and sampled time with percentiles are reported for each benchmark, allocation rate is reported
+ * by gc profiler enabled in build.gradle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FoxmlProcessingBenchmark {
+    private static final String SYSNO = "000000001";
+    private static final String BASE = "MZK01";
+    private static final int TITLE_PAGES = 200;
+    private static final int IMAGE_BYTES = 64;
+
+    @Param({"page", "nonpage"})
+    public String kind;
+
+    /**
+     * Size of ALTO content of page, size of MODS of non page
+     */
+    @Param({"4096", "65536", "1048576"})
+    public int contentBytes;
+
+    private Path dir;
+    private Path out;
+    private ExportPack pack;
+    private List<String> datastreams;
+    private boolean page;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("merlin-jmh-");
+        out = Files.createDirectories(dir.resolve("out"));
+
+        FoxmlCorpus corpus = new FoxmlCorpus(42, IMAGE_BYTES, contentBytes, contentBytes / 10);
+        String uuid = UUID.randomUUID().toString();
+        Path foxml;
+
+        page = kind.equals("page");
+
+        if (page) {
+            foxml = corpus.writePage(dir, uuid, 1);
+            datastreams = Foxml.PAGE_DATASTREAMS;
+        } else {
+            List<String> pages = new ArrayList<>();
+
+            for (int i = 0; i < TITLE_PAGES; i++) {
+                pages.add(UUID.randomUUID().toString());
+            }
+
+            foxml = corpus.writeNonPage(dir, uuid, "monograph", pages, Collections.emptyList(), contentBytes);
+            datastreams = Foxml.NON_PAGE_DATASTREAMS;
+        }
+
+        pack = new ExportPack(uuid);
+        pack.setHasKrameriusExport(foxml.toString());
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir.toFile());
+    }
+
+    @Benchmark
+    public Document getDocumentFromFile() throws Exception {
+        return Utils.getDocumentFromFile(pack.getKrameriusExportPath().toFile());
+    }
+
+    /**
+     * Processes FOXML the same way as Title does when streaming rewrite is disabled
+     */
+    @Benchmark
+    public void processFoxml() throws Exception {
+        Foxml f = new Foxml(Utils.getDocumentFromFile(pack.getKrameriusExportPath().toFile()), SYSNO, BASE, pack.uuid);
+
+        f.removeFedoraURIFromRoot();
+
+        for (String datastream : datastreams) {
+            f.processDatastream(datastream);
+        }
+
+        if (page) {
+            f.processRDF();
+        }
+
+        f.save(out);
+    }
+
+    @Benchmark
+    public boolean isPage() throws Exception {
+        return Title.isPage(pack);
+    }
+}
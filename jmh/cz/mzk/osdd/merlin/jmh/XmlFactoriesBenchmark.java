@@ -0,0 +1,93 @@
+package cz.mzk.osdd.merlin.jmh;
+
+import cz.mzk.osdd.merlin.models.XmlFactories;
+import cz.mzk.osdd.merlin.tools.FoxmlCorpus;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+
+/**
+ * Compares per FOXML overhead of XML factories created for each file with factories shared through XmlFactories
+ *
+ * Each file is scanned by StAX, parsed into DOM and serialized by Transformer, as by classification and DOM processing.
+ * FOXML is held in memory, so the difference is the cost of factory lookup and creation of parsers and serializers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlFactoriesBenchmark {
+    private static final int IMAGE_BYTES = 64;
+
+    /**
+     * Size of ALTO content of page
+     */
+    @Param({"1024", "65536"})
+    public int contentBytes;
+
+    private byte[] foxml;
+
+    @Setup
+    public void setUp() throws Exception {
+        Path dir = Files.createTempDirectory("merlin-jmh-");
+
+        try {
+            foxml = Files.readAllBytes(new FoxmlCorpus(42, IMAGE_BYTES, contentBytes, contentBytes / 10).writePage(dir, UUID.randomUUID().toString(), 1));
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    @Benchmark
+    public void factoriesPerFile(Blackhole bh) throws Exception {
+        process(bh, XMLInputFactory.newInstance(), DocumentBuilderFactory.newInstance().newDocumentBuilder(), TransformerFactory.newInstance().newTransformer());
+    }
+
+    @Benchmark
+    public void sharedFactories(Blackhole bh) throws Exception {
+        process(bh, XmlFactories.getInputFactory(), XmlFactories.getDocumentBuilder(), XmlFactories.getTransformer());
+    }
+
+    private void process(Blackhole bh, XMLInputFactory inputFactory, DocumentBuilder builder, Transformer transformer) throws Exception {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(new ByteArrayInputStream(foxml));
+
+        try {
+            while (reader.hasNext()) {
+                bh.consume(reader.next());
+            }
+        } finally {
+            reader.close();
+        }
+
+        Document doc = builder.parse(new ByteArrayInputStream(foxml));
+
+        transformer.transform(new DOMSource(doc), new StreamResult(NullOutputStream.NULL_OUTPUT_STREAM));
+    }
+}
@@ -1,11 +1,23 @@
 package cz.mzk.osdd.merlin;
 
+import cz.mzk.osdd.merlin.models.AlephCache;
+import cz.mzk.osdd.merlin.models.AlephClient;
+import cz.mzk.osdd.merlin.models.ContentFetcher;
+import cz.mzk.osdd.merlin.models.ImageTransfer;
+import cz.mzk.osdd.merlin.models.KrameriusImportQueue;
+import cz.mzk.osdd.merlin.models.KrameriusProcessPoller;
+import cz.mzk.osdd.merlin.models.ProcessingContext;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -23,6 +35,37 @@ public class AppConfig {
     private String krameriusCredentials = null;
     private File alephDir = null;
     private File configFile = null;
+    private File watchDirectory = null;
+    private File batchDirectory = null;
+    private int watchSettle = ExportDaemon.DEFAULT_SETTLE_SECONDS;
+    private int titleThreads = ProcessingContext.DEFAULT_TITLE_THREADS;
+    private int pageThreads = ProcessingContext.DEFAULT_PAGE_THREADS;
+    private int imageThreads = ProcessingContext.DEFAULT_IMAGE_THREADS;
+    private boolean domRewrite = false;
+    private boolean incremental = false;
+    private ImageTransfer.Mode imageTransferMode = ImageTransfer.Mode.AUTO;
+    private String alephAddress = AlephClient.DEFAULT_ADDRESS;
+    private int alephRequests = AlephClient.DEFAULT_MAX_REQUESTS;
+    private int alephTimeout = AlephClient.DEFAULT_TIMEOUT_SECONDS;
+    private int alephRate = ProcessingContext.DEFAULT_ALEPH_RATE;
+    private File alephCacheFile = null;
+    private File journalFile = null;
+    private File krameriusPendingFile = null;
+    private int krameriusRequests = KrameriusImportQueue.DEFAULT_MAX_REQUESTS;
+    private int krameriusTimeout = KrameriusImportQueue.DEFAULT_TIMEOUT_SECONDS;
+    private int krameriusWindow = 0;
+    private boolean krameriusTracking = false;
+    private int krameriusMaxRunning = KrameriusProcessPoller.DEFAULT_MAX_RUNNING;
+    private File contentCacheDirectory = null;
+    private int contentRequests = ContentFetcher.DEFAULT_MAX_REQUESTS;
+    private int contentTimeout = ContentFetcher.DEFAULT_TIMEOUT_SECONDS;
+    private Map<String, Path> contentMappings = Collections.emptyMap();
+    private long alephCacheTtl = AlephCache.DEFAULT_TTL_HOURS;
+    private long alephCacheNegativeTtl = AlephCache.DEFAULT_NEGATIVE_TTL_HOURS;
+    private File metricsFile = null;
+    private int metricsInterval = 0;
+    private int metricsPort = 0;
+    private String metricsHost = null;
 
     public AppConfig(String[] args) {
         processArgs(args);
@@ -36,6 +79,21 @@ public class AppConfig {
 
         int pos = 0;
 
+        //batch processing - input directory and optional output directory precede options
+        if (args.length > 0 && !args[0].startsWith("-")) {
+            batchDirectory = new File(args[0]);
+
+            if (!batchDirectory.exists() || batchDirectory.isFile()) throw new IllegalArgumentException("Batch input directory does not exist.");
+
+            if (args.length > 1 && !args[1].startsWith("-")) {
+                output = new File(args[1]);
+                pos = 2;
+            } else {
+                output = batchDirectory;
+                pos = 1;
+            }
+        }
+
         while (pos < args.length) {
 
             switch (args[pos]) {
@@ -110,6 +168,62 @@ public class AppConfig {
                     pos = pos + 2;
                     break;
 
+                case CMDAttribute.THREADS:
+                    titleThreads = parseThreadCount(args[pos + 1]);
+
+                    pos = pos + 2;
+                    break;
+
+                case CMDAttribute.PAGE_THREADS:
+                    pageThreads = parseThreadCount(args[pos + 1]);
+
+                    pos = pos + 2;
+                    break;
+
+                case CMDAttribute.IMAGE_THREADS:
+                    imageThreads = parseThreadCount(args[pos + 1]);
+
+                    pos = pos + 2;
+                    break;
+
+                case CMDAttribute.DOM_REWRITE:
+                    domRewrite = true;
+
+                    pos = pos + 1;
+                    break;
+
+                case CMDAttribute.INCREMENTAL:
+                    incremental = true;
+
+                    pos = pos + 1;
+                    break;
+
+                case CMDAttribute.IMAGE_TRANSFER:
+                    imageTransferMode = ImageTransfer.Mode.parse(args[pos + 1]);
+
+                    pos = pos + 2;
+                    break;
+
+                case CMDAttribute.WATCH:
+                    watchDirectory = new File(args[pos + 1]);
+
+                    if (!watchDirectory.exists() || watchDirectory.isFile()) throw new IllegalArgumentException("Watched directory does not exist.");
+
+                    pos = pos + 2;
+                    break;
+
+                case CMDAttribute.JOURNAL:
+                    journalFile = new File(args[pos + 1]);
+
+                    pos = pos + 2;
+                    break;
+
+                case CMDAttribute.ALEPH_CACHE:
+                    alephCacheFile = new File(args[pos + 1]);
+
+                    pos = pos + 2;
+                    break;
+
                 default:
                     throw new IllegalArgumentException("Invalid argument type: " + args[pos]);
             }
@@ -123,8 +237,16 @@ public class AppConfig {
             }
         }
 
-        if (inputImage == null) throw new IllegalArgumentException("inputImage not set");
-        if (inputK4 == null) throw new IllegalArgumentException("inputK4 not set");
+        if (batchDirectory != null) {
+            if (watchDirectory != null) throw new IllegalArgumentException("batch input directory cannot be watched, use: " + CMDAttribute.WATCH + " only");
+            if (directOutput) throw new IllegalArgumentException("direct output is not supported in batch processing");
+        }
+
+        //inputs of watched exports are found by daemon, inputs of batch are found in batch directory
+        if (watchDirectory == null && batchDirectory == null) {
+            if (inputImage == null) throw new IllegalArgumentException("inputImage not set");
+            if (inputK4 == null) throw new IllegalArgumentException("inputK4 not set");
+        }
         if (output == null && !directOutput) throw new IllegalArgumentException("output not set, use: " + CMDAttribute.OUTPUT + " or " + CMDAttribute.DIRECT_OUTPUT);
 
         if (alephDir != null && (!alephDir.exists() || !alephDir.isDirectory())) {
@@ -186,6 +308,138 @@ public class AppConfig {
         krameriusPath = loadFileProperty(prop, "kramerius.directory", krameriusPath);
         krameriusAddress = loadStringProperty(prop, "kramerius.address", krameriusAddress);
         krameriusCredentials = loadStringProperty(prop, "kramerius.credentials", krameriusCredentials);
+        krameriusPendingFile = loadFileProperty(prop, "kramerius.pending", krameriusPendingFile);
+        krameriusRequests = loadPositiveIntProperty(prop, "kramerius.requests", krameriusRequests);
+        krameriusTimeout = loadPositiveIntProperty(prop, "kramerius.timeout", krameriusTimeout);
+        krameriusWindow = loadRateProperty(prop, "kramerius.window", krameriusWindow);
+        krameriusTracking = loadBooleanProperty(prop, "kramerius.track", krameriusTracking);
+        krameriusMaxRunning = loadPositiveIntProperty(prop, "kramerius.maxRunning", krameriusMaxRunning);
+
+        titleThreads = loadThreadCountProperty(prop, "processing.threads", titleThreads);
+        pageThreads = loadThreadCountProperty(prop, "processing.page.threads", pageThreads);
+        imageThreads = loadThreadCountProperty(prop, "processing.image.threads", imageThreads);
+
+        domRewrite = loadBooleanProperty(prop, "foxml.dom", domRewrite);
+        incremental = loadBooleanProperty(prop, "processing.incremental", incremental);
+
+        String transferMode = prop.getProperty("image.transfer");
+
+        if (transferMode != null) {
+            imageTransferMode = ImageTransfer.Mode.parse(transferMode);
+        }
+
+        alephAddress = loadStringProperty(prop, "aleph.address", alephAddress);
+        alephRequests = loadPositiveIntProperty(prop, "aleph.requests", alephRequests);
+        alephTimeout = loadPositiveIntProperty(prop, "aleph.timeout", alephTimeout);
+        alephRate = loadRateProperty(prop, "aleph.rate", alephRate);
+
+        journalFile = loadFileProperty(prop, "journal.file", journalFile);
+
+        contentCacheDirectory = loadFileProperty(prop, "content.cache", contentCacheDirectory);
+        contentRequests = loadPositiveIntProperty(prop, "content.requests", contentRequests);
+        contentTimeout = loadPositiveIntProperty(prop, "content.timeout", contentTimeout);
+        contentMappings = loadMappingsProperty(prop, "content.local", contentMappings);
+
+        watchSettle = loadPositiveIntProperty(prop, "watch.settle", watchSettle);
+
+        metricsFile = loadFileProperty(prop, "metrics.file", metricsFile);
+        metricsInterval = loadRateProperty(prop, "metrics.interval", metricsInterval);
+        metricsPort = loadRateProperty(prop, "metrics.port", metricsPort);
+        metricsHost = loadStringProperty(prop, "metrics.host", metricsHost);
+
+        if (metricsPort > 65535) throw new IllegalArgumentException("metrics.port must be valid port number: " + metricsPort);
+
+        alephCacheFile = loadFileProperty(prop, "aleph.cache.file", alephCacheFile);
+        alephCacheTtl = loadHoursProperty(prop, "aleph.cache.ttl", alephCacheTtl);
+        alephCacheNegativeTtl = loadHoursProperty(prop, "aleph.cache.negativeTtl", alephCacheNegativeTtl);
+    }
+
+    private long loadHoursProperty(Properties prop, String propertyName, long prevVal) {
+        String val = prop.getProperty(propertyName);
+
+        if (val == null) return prevVal;
+
+        long hours;
+
+        try {
+            hours = Long.parseLong(val.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(propertyName + " must be a number of hours: " + val);
+        }
+
+        if (hours < 0) throw new IllegalArgumentException(propertyName + " cannot be negative: " + val);
+
+        return hours;
+    }
+
+    private boolean loadBooleanProperty(Properties prop, String propertyName, boolean prevVal) {
+        String val = prop.getProperty(propertyName);
+
+        if (val != null) {
+            return Boolean.parseBoolean(val.trim());
+        } else {
+            return prevVal;
+        }
+    }
+
+    private int loadThreadCountProperty(Properties prop, String propertyName, int prevVal) {
+        String val = prop.getProperty(propertyName);
+
+        if (val != null) {
+            return parseThreadCount(val);
+        } else {
+            return prevVal;
+        }
+    }
+
+    private int loadRateProperty(Properties prop, String propertyName, int prevVal) {
+        String val = prop.getProperty(propertyName);
+
+        if (val == null) return prevVal;
+
+        int rate;
+
+        try {
+            rate = Integer.parseInt(val.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(propertyName + " must be a number: " + val);
+        }
+
+        if (rate < 0) throw new IllegalArgumentException(propertyName + " cannot be negative: " + val);
+
+        return rate;
+    }
+
+    private int loadPositiveIntProperty(Properties prop, String propertyName, int prevVal) {
+        String val = prop.getProperty(propertyName);
+
+        if (val == null) return prevVal;
+
+        int number;
+
+        try {
+            number = Integer.parseInt(val.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(propertyName + " must be a number: " + val);
+        }
+
+        if (number < 1) throw new IllegalArgumentException(propertyName + " must be positive number: " + val);
+
+        return number;
+    }
+
+    private int parseThreadCount(String val) {
+        int count;
+
+        try {
+            count = Integer.parseInt(val.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Thread count must be a number: " + val);
+        }
+
+        if (count < 1) throw new IllegalArgumentException("Thread count must be positive number: " + val);
+
+        return count;
     }
 
     private String loadStringProperty(Properties prop, String propertyName, String prevVal) {
@@ -208,6 +462,31 @@ public class AppConfig {
         }
     }
 
+    /**
+     * Loads mappings in format prefix=path;prefix=path, prefix ends at the first '='
+     */
+    private Map<String, Path> loadMappingsProperty(Properties prop, String propertyName, Map<String, Path> prevVal) {
+        String val = prop.getProperty(propertyName);
+
+        if (val == null) return prevVal;
+
+        Map<String, Path> mappings = new LinkedHashMap<>();
+
+        for (String mapping : val.split(";")) {
+            if (mapping.trim().isEmpty()) continue;
+
+            int separator = mapping.indexOf('=');
+
+            if (separator < 1 || separator == mapping.length() - 1) {
+                throw new IllegalArgumentException(propertyName + " must contain mappings in format prefix=path: " + mapping);
+            }
+
+            mappings.put(mapping.substring(0, separator).trim(), Paths.get(mapping.substring(separator + 1).trim()));
+        }
+
+        return mappings;
+    }
+
     public File getInputImage() {
         return inputImage;
     }
@@ -243,4 +522,149 @@ public class AppConfig {
     public File getAlephDir() {
         return alephDir;
     }
+
+    public int getTitleThreads() {
+        return titleThreads;
+    }
+
+    public int getPageThreads() {
+        return pageThreads;
+    }
+
+    public int getImageThreads() {
+        return imageThreads;
+    }
+
+    public boolean isDomRewrite() {
+        return domRewrite;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public ImageTransfer.Mode getImageTransferMode() {
+        return imageTransferMode;
+    }
+
+    public String getAlephAddress() {
+        return alephAddress;
+    }
+
+    public int getAlephRequests() {
+        return alephRequests;
+    }
+
+    public int getAlephTimeout() {
+        return alephTimeout;
+    }
+
+    public int getAlephRate() {
+        return alephRate;
+    }
+
+    public File getKrameriusPendingFile() {
+        return krameriusPendingFile;
+    }
+
+    public int getKrameriusRequests() {
+        return krameriusRequests;
+    }
+
+    public int getKrameriusTimeout() {
+        return krameriusTimeout;
+    }
+
+    /**
+     * @return seconds for which Kramerius imports are collected before dispatch
+     */
+    public int getKrameriusWindow() {
+        return krameriusWindow;
+    }
+
+    public boolean isKrameriusTracking() {
+        return krameriusTracking;
+    }
+
+    public int getKrameriusMaxRunning() {
+        return krameriusMaxRunning;
+    }
+
+    public File getWatchDirectory() {
+        return watchDirectory;
+    }
+
+    public File getBatchDirectory() {
+        return batchDirectory;
+    }
+
+    public int getWatchSettle() {
+        return watchSettle;
+    }
+
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * @return directory caching OCR content between runs or null when content is cached only during run
+     */
+    public File getContentCacheDirectory() {
+        return contentCacheDirectory;
+    }
+
+    public int getContentRequests() {
+        return contentRequests;
+    }
+
+    public int getContentTimeout() {
+        return contentTimeout;
+    }
+
+    /**
+     * @return URL prefixes of OCR content with local directories mirroring it
+     */
+    public Map<String, Path> getContentMappings() {
+        return contentMappings;
+    }
+
+    public File getAlephCacheFile() {
+        return alephCacheFile;
+    }
+
+    public long getAlephCacheTtl() {
+        return alephCacheTtl;
+    }
+
+    public long getAlephCacheNegativeTtl() {
+        return alephCacheNegativeTtl;
+    }
+
+    /**
+     * @return file receiving JSON summary of stage metrics or null when it is not written
+     */
+    public File getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * @return seconds between snapshots written into metrics file, 0 when only final summary is written
+     */
+    public int getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    /**
+     * @return port of Prometheus metrics endpoint, 0 when endpoint is not started
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * @return address metrics endpoint listens on or null when it listens on all interfaces
+     */
+    public String getMetricsHost() {
+        return metricsHost;
+    }
 }
@@ -16,4 +16,13 @@ public class CMDAttribute {
     public static final String OUTPUT_KRAMERIUS = "-oK";
     public static final String OUTPUT_IMAGESERVER = "-oI";
     public static final String CONFIG = "-c";
+    public static final String THREADS = "-t";
+    public static final String PAGE_THREADS = "-tP";
+    public static final String IMAGE_THREADS = "-tI";
+    public static final String DOM_REWRITE = "-fD";
+    public static final String IMAGE_TRANSFER = "-iT";
+    public static final String ALEPH_CACHE = "-aC";
+    public static final String JOURNAL = "-j";
+    public static final String INCREMENTAL = "-u";
+    public static final String WATCH = "-w";
 }
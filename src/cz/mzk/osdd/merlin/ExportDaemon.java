@@ -0,0 +1,356 @@
+package cz.mzk.osdd.merlin;
+
+import cz.mzk.osdd.merlin.models.AlephResolver;
+import cz.mzk.osdd.merlin.models.ProcessingContext;
+import cz.mzk.osdd.merlin.models.ProcessingJournal;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Watches input directory for ProArc exports and processes each complete export as a single title
+ *
+ * Export of title uuid consists of kramerius directory k4_uuid and image directory uuid or uuid.NDK_USER.
+ * Export is complete when its kramerius directory contains proarc_export_status.log and nothing changed
+ * in the export for settle period. Export is processed again only when its status log is rewritten, work recorded
+ * for its previous export is discarded first.
+ */
+public class ExportDaemon {
+    public static final int DEFAULT_SETTLE_SECONDS = 30;
+    public static final String STATUS_FILE = "proarc_export_status.log";
+
+    private static final String K4_PREFIX = "k4_";
+    private static final String NDK_SUFFIX = ".NDK_USER";
+
+    private static final long MAX_POLL_MILLIS = 1000;
+
+    /**
+     * Processes single complete export
+     */
+    public interface TitleHandler {
+        /**
+         * @return false when title was not processed
+         */
+        boolean process(Path imageDirectory, Path krameriusDirectory) throws Exception;
+
+        /**
+         * Called before export processed earlier is processed again, so work recorded for previous export is not reused
+         *
+         * @param title UUID of title
+         */
+        default void discard(String title) throws IOException {}
+
+        /**
+         * Called once after daemon stops and all titles finish
+         */
+        default void close() throws IOException {}
+    }
+
+    private final Path root;
+    private final long settleMillis;
+    private final int threads;
+    private final TitleHandler handler;
+
+    //accessed only by watching thread
+    private final Map<String, Long> changes = new HashMap<>();
+
+    private final Map<String, Long> processed = new ConcurrentHashMap<>();
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger processedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+
+    private volatile boolean stopped = false;
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    /**
+     * @param root watched input directory containing ProArc exports
+     * @param settleMillis time without change after which export is considered complete
+     * @param threads count of titles processed concurrently
+     */
+    public ExportDaemon(Path root, long settleMillis, int threads, TitleHandler handler) {
+        if (handler == null) throw new NullPointerException("Title handler cannot be null");
+        if (!Files.isDirectory(root)) throw new IllegalArgumentException("Watched directory does not exist: " + root);
+        if (settleMillis < 0) throw new IllegalArgumentException("Settle period cannot be negative");
+        if (threads < 1) throw new IllegalArgumentException("Thread count must be positive number");
+
+        this.root = root;
+        this.settleMillis = settleMillis;
+        this.threads = threads;
+        this.handler = handler;
+    }
+
+    /**
+     * Creates daemon processing exports by single title processors configured by config,
+     * processors share one processing context, so its worker pools, Aleph connections and caches stay warm
+     */
+    public static ExportDaemon create(AppConfig config) {
+        ProcessingContext context = ExportProcessor.createContext(config);
+
+        return new ExportDaemon(
+                config.getWatchDirectory().toPath(),
+                TimeUnit.SECONDS.toMillis(config.getWatchSettle()),
+                config.getTitleThreads(),
+                new TitleHandler() {
+                    @Override
+                    public boolean process(Path imageDirectory, Path krameriusDirectory) {
+                        ExportProcessor processor = ExportProcessor.createExportProcessor(config, imageDirectory.toFile(), krameriusDirectory.toFile());
+                        processor.setSharedContext(context);
+
+                        try {
+                            return processor.runSingle() == 0;
+                        } finally {
+                            //results of shared resolver are not kept for the whole daemon lifetime
+                            AlephResolver alephResolver = context.getAlephResolverIfCreated();
+
+                            if (alephResolver != null) alephResolver.clearCompleted();
+                        }
+                    }
+
+                    @Override
+                    public void discard(String title) throws IOException {
+                        ProcessingJournal journal = context.getJournal();
+
+                        if (journal != null) journal.discardTitle(title);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        context.close();
+
+                        //run is left unfinished, so titles finished from unchanged input are skipped after restart
+                        ProcessingJournal journal = context.getJournal();
+
+                        if (journal != null) journal.close();
+                    }
+                });
+    }
+
+    /**
+     * Watches input directory until stopped, titles being processed are finished before return
+     *
+     * @return 0 when all titles were processed, 1 otherwise
+     */
+    public int run() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try (WatchService watcher = root.getFileSystem().newWatchService()) {
+            register(watcher, root);
+            scan(watcher);
+
+            System.out.println("Watching " + root + " for ProArc exports.");
+
+            long pollMillis = Math.max(1, Math.min(settleMillis, MAX_POLL_MILLIS));
+
+            while (!stopped) {
+                WatchKey key;
+
+                try {
+                    key = watcher.poll(pollMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+
+                if (key != null && !handle(watcher, key)) {
+                    System.err.println("Watched directory " + root + " is no longer accessible, stopping.");
+                    break;
+                }
+
+                submitReady(executor);
+            }
+        } finally {
+            executor.shutdown();
+
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    System.out.println("Waiting for " + running.size() + " titles to finish.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            try {
+                handler.close();
+            } finally {
+                System.out.println("Watching stopped: " + processedCount.get() + " titles processed, " + failedCount.get() + " failed.");
+
+                terminated.countDown();
+            }
+        }
+
+        return failedCount.get() == 0 ? 0 : 1;
+    }
+
+    /**
+     * Stops watching and waits until titles being processed finish, may be called from shutdown hook
+     */
+    public void stop() {
+        stopped = true;
+
+        try {
+            terminated.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return false when watched directory cannot be watched anymore
+     */
+    private boolean handle(WatchService watcher, WatchKey key) throws IOException {
+        Path directory = (Path) key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                scan(watcher);
+                continue;
+            }
+
+            Path entry = directory.resolve((Path) event.context());
+
+            if (directory.equals(root)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(entry)) {
+                    register(watcher, entry);
+                }
+
+                changed(entry);
+            } else {
+                changed(directory);
+            }
+        }
+
+        return key.reset() || !directory.equals(root);
+    }
+
+    /**
+     * Registers all exports present in input directory, they are submitted after settle period
+     */
+    private void scan(WatchService watcher) throws IOException {
+        try (Stream<Path> entries = Files.list(root)) {
+            for (Path entry : (Iterable<Path>) entries::iterator) {
+                if (!Files.isDirectory(entry)) continue;
+
+                register(watcher, entry);
+                changed(entry);
+            }
+        }
+    }
+
+    private static void register(WatchService watcher, Path directory) throws IOException {
+        try {
+            directory.register(
+                    watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            //directory removed before it was registered, root failure is reported by the caller
+            if (Files.exists(directory)) throw e;
+        }
+    }
+
+    private void changed(Path exportDirectory) {
+        changes.put(getTitleName(exportDirectory.getFileName().toString()), System.currentTimeMillis());
+    }
+
+    /**
+     * Submits titles which settled and are complete, incomplete titles are submitted after their next change
+     */
+    private void submitReady(ExecutorService executor) throws IOException {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> it = changes.entrySet().iterator();
+
+        while (it.hasNext()) {
+            Map.Entry<String, Long> change = it.next();
+            String title = change.getKey();
+
+            //changes caused by processing itself are ignored below once the title finishes
+            if (now - change.getValue() < settleMillis || running.contains(title)) continue;
+
+            it.remove();
+
+            Path krameriusDirectory = root.resolve(K4_PREFIX + title);
+            Path imageDirectory = getImageDirectory(title);
+            Path status = krameriusDirectory.resolve(STATUS_FILE);
+
+            if (imageDirectory == null || !Files.isRegularFile(status)) continue;
+
+            long exported;
+
+            try {
+                exported = Files.getLastModifiedTime(status).toMillis();
+            } catch (IOException e) {
+                //removed meanwhile
+                continue;
+            }
+
+            if (Long.valueOf(exported).equals(processed.get(title))) continue;
+
+            running.add(title);
+            executor.submit(() -> process(title, imageDirectory, krameriusDirectory, exported));
+        }
+    }
+
+    private void process(String title, Path imageDirectory, Path krameriusDirectory, long exported) {
+        System.out.println("Processing export " + title + ".");
+
+        boolean succeeded;
+
+        try {
+            if (processed.containsKey(title)) handler.discard(title);
+
+            succeeded = handler.process(imageDirectory, krameriusDirectory);
+        } catch (Exception e) {
+            e.printStackTrace();
+            succeeded = false;
+        }
+
+        if (succeeded) {
+            processedCount.incrementAndGet();
+        } else {
+            failedCount.incrementAndGet();
+            System.err.println("Export " + title + " failed, it is processed again when exported again.");
+        }
+
+        processed.put(title, exported);
+        running.remove(title);
+    }
+
+    private Path getImageDirectory(String title) {
+        for (Path candidate : new Path[] {root.resolve(title), root.resolve(title + NDK_SUFFIX)}) {
+            if (Files.isDirectory(candidate)) return candidate;
+        }
+
+        return null;
+    }
+
+    private static String getTitleName(String directoryName) {
+        if (directoryName.startsWith(K4_PREFIX)) return directoryName.substring(K4_PREFIX.length());
+        if (directoryName.endsWith(NDK_SUFFIX)) return directoryName.substring(0, directoryName.length() - NDK_SUFFIX.length());
+
+        return directoryName;
+    }
+}
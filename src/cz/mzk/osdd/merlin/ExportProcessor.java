@@ -1,16 +1,45 @@
 package cz.mzk.osdd.merlin;
 
+import cz.mzk.osdd.merlin.models.AlephCache;
+import cz.mzk.osdd.merlin.models.AlephClient;
+import cz.mzk.osdd.merlin.models.AlephResolver;
 import cz.mzk.osdd.merlin.models.AppState;
+import cz.mzk.osdd.merlin.models.ContentFetcher;
+import cz.mzk.osdd.merlin.models.ContentResolver;
+import cz.mzk.osdd.merlin.models.FoxmlStreamRewriter;
+import cz.mzk.osdd.merlin.models.ImageTransfer;
+import cz.mzk.osdd.merlin.models.KrameriusImportQueue;
+import cz.mzk.osdd.merlin.models.KrameriusProcessPoller;
+import cz.mzk.osdd.merlin.models.LocalContentResolver;
+import cz.mzk.osdd.merlin.models.Metrics;
+import cz.mzk.osdd.merlin.models.MetricsEndpoint;
+import cz.mzk.osdd.merlin.models.Pair;
+import cz.mzk.osdd.merlin.models.ProcessingContext;
+import cz.mzk.osdd.merlin.models.ProcessingJournal;
 import cz.mzk.osdd.merlin.models.Title;
 import cz.mzk.osdd.merlin.models.Utils;
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import javax.print.attribute.standard.Severity;
 import javax.xml.parsers.ParserConfigurationException;
 import org.xml.sax.SAXException;
@@ -38,9 +67,14 @@ public class ExportProcessor {
 
     private String outputPackPath = "proarcExport_" + ((new SimpleDateFormat("yyyy.MM.dd_HH:mm:ss")).format(new Date()));
     private static final boolean DETAILED_OUTPUT = true;
+    private static final String BATCH_METRICS_FILE = "merlin-metrics.json";
+    private static final int DISCOVERY_AHEAD = 32;
 
     private final List<Title> titles = new LinkedList<>();
 
+    private ProcessingContext context = new ProcessingContext();
+    private boolean sharedContext = false;
+
     public ExportProcessor(String path) {
         this(path, path);
     }
@@ -110,10 +144,35 @@ public class ExportProcessor {
     }
 
     public static ExportProcessor createExportProcessor(AppConfig config) {
+        ExportProcessor processor = createExportProcessor(config, config.getInputImage(), config.getInputK4());
+
+        processor.setContext(createContext(config));
+
+        return processor;
+    }
+
+    /**
+     * Creates batch processor of exports in config's batch directory using context created from config
+     */
+    public static ExportProcessor createBatchProcessor(AppConfig config) {
+        ExportProcessor processor = new ExportProcessor(
+                config.getBatchDirectory().getAbsolutePath(),
+                config.getOutput().getAbsolutePath()
+        );
+
+        processor.setContext(createContext(config));
+
+        return processor;
+    }
+
+    /**
+     * Creates single title processor with inputs other than those set in config, processing context is not created
+     */
+    static ExportProcessor createExportProcessor(AppConfig config, File inputImage, File inputK4) {
         if (config.isDirectOutput()) {
             return new ExportProcessor(
-                    config.getInputImage().getAbsolutePath(),
-                    config.getInputK4().getAbsolutePath(),
+                    inputImage.getAbsolutePath(),
+                    inputK4.getAbsolutePath(),
                     config.isDirectOutput(),
                     config.getImageserverPath().getAbsolutePath(),
                     config.getKrameriusPath().getAbsolutePath(),
@@ -123,44 +182,150 @@ public class ExportProcessor {
             );
         } else {
             return new ExportProcessor(
-                    config.getInputImage().getAbsolutePath(),
-                    config.getInputK4().getAbsolutePath(),
+                    inputImage.getAbsolutePath(),
+                    inputK4.getAbsolutePath(),
                     config.getOutput().getAbsolutePath(),
                     config.getAlephDir()
             );
         }
     }
 
+    static ProcessingContext createContext(AppConfig config) {
+        ProcessingContext context = new ProcessingContext();
+        context.setTitleThreads(config.getTitleThreads());
+        context.setPageThreads(config.getPageThreads());
+        context.setImageThreads(config.getImageThreads());
+        context.setStreamingRewrite(!config.isDomRewrite());
+        context.setIncremental(config.isIncremental());
+        context.setImageTransfer(new ImageTransfer(config.getImageTransferMode()));
+
+        context.setContentCache(config.getContentCacheDirectory() == null ? null : config.getContentCacheDirectory().toPath());
+        context.setContentRequests(config.getContentRequests());
+        context.setContentTimeout(config.getContentTimeout());
+        context.setContentMappings(config.getContentMappings());
+
+        context.setAlephClient(new AlephClient(config.getAlephAddress(), config.getAlephRequests(), config.getAlephTimeout()));
+        context.setAlephThreads(config.getAlephRequests());
+        context.setAlephRate(config.getAlephRate());
+
+        if (config.getMetricsFile() != null) {
+            context.getMetrics().report(config.getMetricsFile().toPath(), config.getMetricsInterval());
+        }
+
+        if (config.getMetricsPort() > 0) {
+            InetSocketAddress address = config.getMetricsHost() == null ?
+                    new InetSocketAddress(config.getMetricsPort()) :
+                    new InetSocketAddress(config.getMetricsHost(), config.getMetricsPort());
+
+            try {
+                context.setMetricsEndpoint(new MetricsEndpoint(address, context));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not start metrics endpoint on port: " + config.getMetricsPort());
+            }
+        }
+
+        if (config.getJournalFile() != null) {
+            try {
+                context.setJournal(ProcessingJournal.open(config.getJournalFile().toPath()));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not open journal file at: " + config.getJournalFile().getAbsolutePath());
+            }
+        }
+
+        if (config.getKrameriusAddress() != null) {
+            try {
+                context.setImportQueue(new KrameriusImportQueue(
+                        config.getKrameriusAddress(),
+                        config.getKrameriusCredentials(),
+                        config.getKrameriusPendingFile() == null ? null : config.getKrameriusPendingFile().toPath(),
+                        config.getKrameriusRequests(),
+                        config.getKrameriusTimeout(),
+                        TimeUnit.SECONDS.toMillis(config.getKrameriusWindow())));
+
+                if (config.isKrameriusTracking()) {
+                    context.getImportQueue().setProcessPoller(new KrameriusProcessPoller(
+                            config.getKrameriusAddress(),
+                            config.getKrameriusCredentials(),
+                            config.getKrameriusTimeout(),
+                            config.getKrameriusMaxRunning()));
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not read pending Kramerius imports at: " + config.getKrameriusPendingFile().getAbsolutePath());
+            }
+        }
+
+        if (config.getAlephCacheFile() != null) {
+            try {
+                context.setAlephCache(new AlephCache(config.getAlephCacheFile(), config.getAlephCacheTtl(), config.getAlephCacheNegativeTtl()));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not read aleph cache file at: " + config.getAlephCacheFile().getAbsolutePath());
+            }
+        }
+
+        return context;
+    }
+
+    public ProcessingContext getContext() {
+        return context;
+    }
+
+    public void setContext(ProcessingContext context) {
+        if (context == null) throw new NullPointerException("Context cannot be null");
+
+        this.context = context;
+        this.sharedContext = false;
+    }
+
+    /**
+     * Sets context shared with other processors, its worker pools and journal are not closed after processing
+     */
+    public void setSharedContext(ProcessingContext context) {
+        setContext(context);
+
+        this.sharedContext = true;
+    }
+
     public int runBatch() {
         if (IN_PATH == null || OUT_PATH == null) {
             System.err.println("Wrong EP usage");
             return -1;
         }
 
+        int failedTitles;
+        Path discoveryDirectory = null;
+
         try {
             switch (checkDirectories()) {
                 case CREATED_DIRECTORIES:
                     System.out.println(Severity.REPORT.getName() + " Created mandatory IO directories. Rerun app to start processing.");
                     break;
                 case FINE:
+                    if (context.getMetrics().getReportFile() == null) {
+                        context.getMetrics().report(OUT_PATH.resolve(BATCH_METRICS_FILE), 0);
+                    }
+
                     mergeImageAndKrameriusDirectories();
-                    processDirectory();
+
+                    startJournalRun(getBatchInputFingerprint(IN_PATH));
+
+                    discoveryDirectory = IN_PATH;
                     break;
             }
 
             System.out.println("Preparing export pack into: " + outputPackPath);
 
-            processTitles(
+            failedTitles = processTitles(
+                    discoveryDirectory,
                     DIRECT_OUTPUT ? KRAMERIUS_PATH : null,
                     DIRECT_OUTPUT ? IMAGESERVER_PATH : null
             );
 
-        } catch (IllegalArgumentException | ParserConfigurationException | SAXException | IOException e) {
+        } catch (IllegalArgumentException | IOException e) {
             e.printStackTrace();
             return -1;
         }
 
-        return 0;
+        return failedTitles == 0 ? 0 : 1;
     }
 
     public int runSingle() {
@@ -169,11 +334,16 @@ public class ExportProcessor {
             return -1;
         }
 
+        int failedTitles;
+
         try {
             Utils.mergeTwoDirectories(IN_FOXML.toFile(), IN_IMG.toFile());
 
-            processDirectory(IN_FOXML);
-            processTitles(
+            //input of single title is checked by its title records
+            startJournalRun(null);
+
+            failedTitles = processTitles(
+                    IN_FOXML,
                     DIRECT_OUTPUT ? KRAMERIUS_PATH : null,
                     DIRECT_OUTPUT ? IMAGESERVER_PATH : null
                     );
@@ -182,7 +352,7 @@ public class ExportProcessor {
             return 1;
         }
 
-        return 0;
+        return failedTitles == 0 ? 0 : 1;
     }
 
     private void mergeImageAndKrameriusDirectories() {
@@ -207,6 +377,9 @@ public class ExportProcessor {
         }
     }
 
+    /**
+     * @return titles discovered by processing or by processDirectoryDebug, collected only in debug mode
+     */
     public List<Title> getTitlesDebug() throws IllegalAccessException {
         if (DEBUG_MODE) return titles;
         else reportAccessingProtectedMethod();
@@ -219,9 +392,347 @@ public class ExportProcessor {
         else reportAccessingProtectedMethod();
     }
 
-    private void processTitles(Path krameriusPath, Path imageserverPath) throws ParserConfigurationException, SAXException, IOException, IllegalArgumentException {
-        for (Title title : titles) {
-            title.processTitle(OUT_PATH, krameriusPath, imageserverPath, ALEPH_DIRECTORY, KRAMERIUS_CREDENTIALS, KRAMERIUS_ADDRESS);
+    /**
+     * Discovers titles of directory and processes them using pool of context.getTitleThreads() workers
+     *
+     * Titles are discovered by separate thread and each title is submitted as soon as its files are checked,
+     * so processing starts before the whole directory is scanned. Discovery runs at most DISCOVERY_AHEAD titles
+     * (or twice the title thread count) ahead of processing, so metadata of waiting titles stays bounded.
+     * Failure of single title does not stop processing of the others, summary is printed when all titles finish.
+     * Discovery failure, e.g. malformed directory structure, stops discovery and is reported as failure of the run.
+     * Titles of shared context are processed on the calling thread, whose pool already bounds titles processed
+     * concurrently, so title pools are not nested.
+     *
+     * @param directory directory containing titles, each title is stored in separate directory, null when there is nothing to process
+     * @param krameriusPath used on direct export - stores foxml into kramerius drive
+     * @param imageserverPath used on direct export - stores jp2 into imageserver drive
+     * @return count of titles which were not processed
+     */
+    private int processTitles(Path directory, Path krameriusPath, Path imageserverPath) {
+        int titleThreads = context.getTitleThreads();
+        ExecutorService executor = sharedContext ? null : Executors.newFixedThreadPool(titleThreads);
+
+        //titles wait in discovery queue instead of executor queue, so discovery is held back by processing
+        Semaphore running = new Semaphore(titleThreads);
+        BlockingQueue<DiscoveredTitle> discovered = new ArrayBlockingQueue<>(Math.max(DISCOVERY_AHEAD, titleThreads * 2));
+        Thread discovery = startDiscovery(directory, discovered);
+
+        List<Pair<String, Future<Boolean>>> results = new LinkedList<>();
+        Throwable discoveryFailure = null;
+
+        try {
+            for (DiscoveredTitle next = discovered.take(); next != DiscoveredTitle.END; next = discovered.take()) {
+                if (next.failure != null) {
+                    discoveryFailure = next.failure;
+                    break;
+                }
+
+                Title title = next.title;
+
+                //processed titles are otherwise not retained, so memory is bounded by titles waiting for processing
+                if (DEBUG_MODE) titles.add(title);
+
+                running.acquire();
+                results.add(Pair.create(title.getUUID(), submitTitle(executor, () -> processTitle(title, krameriusPath, imageserverPath, running))));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            discovery.interrupt();
+
+            if (executor != null) executor.shutdownNow();
+        }
+
+        if (executor != null) executor.shutdown();
+
+        List<String> succeeded = new LinkedList<>();
+        List<Pair<String, String>> failed = new LinkedList<>();
+
+        if (discoveryFailure != null) {
+            System.err.println("Discovery of titles in " + directory + " failed:");
+            discoveryFailure.printStackTrace();
+
+            failed.add(Pair.create(directory.toString(), "discovery stopped: " + discoveryFailure));
+        }
+
+        for (Pair<String, Future<Boolean>> result : results) {
+            String uuid = result.first;
+
+            try {
+                if (result.second.get()) {
+                    succeeded.add(uuid);
+                } else {
+                    failed.add(Pair.create(uuid, "processing terminated, see error output"));
+                }
+            } catch (ExecutionException e) {
+                System.err.println("Title " + uuid + " failed:");
+                e.getCause().printStackTrace();
+
+                failed.add(Pair.create(uuid, e.getCause().toString()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                if (executor != null) executor.shutdownNow();
+
+                failed.add(Pair.create(uuid, "interrupted"));
+            }
+        }
+
+        KrameriusImportQueue importQueue = context.getImportQueue();
+
+        //shared queue is drained when the shared context closes
+        if (importQueue != null && !sharedContext) {
+            try {
+                importQueue.awaitCompletion();
+
+                KrameriusProcessPoller poller = importQueue.getProcessPoller();
+
+                if (poller != null && poller.getRunningCount() > 0) {
+                    System.out.println("Waiting for Kramerius to finish " + poller.getRunningCount() + " imports.");
+                    poller.awaitCompletion();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        reportSummary(succeeded, failed);
+
+        if (!sharedContext) {
+            context.close();
+
+            finishJournalRun(failed.isEmpty());
+        }
+
+        return failed.size();
+    }
+
+    /**
+     * @param executor pool of title workers, null when title is processed on the calling thread
+     */
+    private static Future<Boolean> submitTitle(ExecutorService executor, Callable<Boolean> task) {
+        if (executor != null) return executor.submit(task);
+
+        FutureTask<Boolean> result = new FutureTask<>(task);
+        result.run();
+
+        return result;
+    }
+
+    /**
+     * Processes single title, metrics are updated when title finishes, so running processing reports finished titles
+     *
+     * @param running permit of title released when title finishes
+     */
+    private boolean processTitle(Title title, Path krameriusPath, Path imageserverPath, Semaphore running) throws Exception {
+        Metrics metrics = context.getMetrics();
+        boolean titleSucceeded = false;
+
+        metrics.titleStarted();
+
+        try {
+            titleSucceeded = title.processTitle(OUT_PATH, krameriusPath, imageserverPath, ALEPH_DIRECTORY, KRAMERIUS_CREDENTIALS, KRAMERIUS_ADDRESS);
+
+            return titleSucceeded;
+        } finally {
+            metrics.titleStopped();
+            metrics.titleFinished(titleSucceeded);
+
+            if (!titleSucceeded) metrics.error(Metrics.ErrorType.TITLE);
+
+            running.release();
+        }
+    }
+
+    /**
+     * Starts thread discovering titles of directory into queue, queue ends by END or by discovery failure
+     *
+     * Aleph lookup of each title is requested once it is discovered, so its latency overlaps with processing of earlier titles.
+     */
+    private Thread startDiscovery(Path directory, BlockingQueue<DiscoveredTitle> queue) {
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+
+            try {
+                if (directory != null) {
+                    discoverTitles(directory, title -> {
+                        title.requestSysnoWithBase();
+                        queue.put(new DiscoveredTitle(title, null));
+                    });
+                }
+
+                queue.put(DiscoveredTitle.END);
+            } catch (InterruptedException e) {
+                //processing was interrupted, no more titles are taken
+            } catch (Throwable e) {
+                try {
+                    queue.put(new DiscoveredTitle(null, e));
+                } catch (InterruptedException ignored) {
+                    //processing was interrupted, no more titles are taken
+                }
+            } finally {
+                context.getMetrics().record(Metrics.Stage.DISCOVERY, start);
+            }
+        }, "merlin-discovery");
+
+        thread.setDaemon(true);
+        thread.start();
+
+        return thread;
+    }
+
+    /**
+     * Resumes unfinished run recorded in journal, so its finished work is reused, or records start of new run
+     *
+     * @param input fingerprint of run input, unfinished run is not resumed when input changed since,
+     *              null when input is checked only by title records
+     */
+    private void startJournalRun(String input) throws IOException {
+        ProcessingJournal journal = context.getJournal();
+
+        if (journal == null) return;
+
+        //processors sharing journal join the same run
+        synchronized (journal) {
+            String unfinished = journal.getUnfinishedRunPackPath();
+
+            if (unfinished != null && journal.isRunResumable(input)) {
+                System.out.println("Resuming unfinished run " + unfinished + " recorded in journal.");
+                outputPackPath = unfinished;
+            } else if (unfinished != null) {
+                System.out.println("Input changed since unfinished run " + unfinished + " recorded in journal, starting new run.");
+            }
+
+            journal.startRun(outputPackPath, input);
+        }
+    }
+
+    /**
+     * @return fingerprint of title directories of merged batch input and of their status logs
+     */
+    private static String getBatchInputFingerprint(Path directory) throws IOException {
+        long fingerprint = 0;
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                Path status = entry.resolve(ExportDaemon.STATUS_FILE);
+
+                fingerprint += Utils.getFileFingerprint(name, 0, Files.getLastModifiedTime(entry).toMillis());
+
+                if (Files.isRegularFile(status)) {
+                    fingerprint += Utils.getFileFingerprint(name + "/" + ExportDaemon.STATUS_FILE, Files.size(status), Files.getLastModifiedTime(status).toMillis());
+                }
+            }
+        }
+
+        return Long.toHexString(fingerprint);
+    }
+
+    /**
+     * @param succeeded when false, run stays unfinished and is resumed next time
+     */
+    private void finishJournalRun(boolean succeeded) {
+        ProcessingJournal journal = context.getJournal();
+
+        if (journal == null) return;
+
+        try {
+            if (succeeded) journal.finishRun();
+
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Could not finish journal: " + e.getMessage());
+        }
+    }
+
+    private void reportSummary(List<String> succeeded, List<Pair<String, String>> failed) {
+        if (succeeded.isEmpty() && failed.isEmpty()) return;
+
+        System.out.println("Processed titles: " + succeeded.size() + " succeeded, " + failed.size() + " failed.");
+
+        for (String uuid : succeeded) {
+            System.out.println("  OK     " + uuid);
+        }
+
+        for (Pair<String, String> title : failed) {
+            System.out.println("  FAILED " + title.first + " : " + title.second);
+        }
+
+        System.out.println(
+                "FOXML reads: " +
+                Utils.getDatastreamScanCount() + " page classification scans (" +
+                Utils.getDatastreamScanMatchCount() + " stopped at IMG_FULL), " +
+                FoxmlStreamRewriter.getRewriteCount() + " streaming rewrites, " +
+                Utils.getDocumentParseCount() + " DOM parses."
+        );
+
+        String imageTransfers = context.getImageTransfer().getSummary();
+
+        if (imageTransfers != null) {
+            System.out.println("Image transfers: " + imageTransfers + ".");
+        }
+
+        ContentFetcher contentFetcher = context.getContentFetcherIfCreated();
+
+        if (contentFetcher != null) {
+            System.out.println(
+                    "OCR content: " +
+                    contentFetcher.getDownloadCount() + " downloaded (" +
+                    contentFetcher.getDownloadedBytes() / 1024 + " kB), " +
+                    contentFetcher.getCacheHitCount() + " cached, " +
+                    contentFetcher.getRetryCount() + " retries."
+            );
+        }
+
+        ContentResolver contentResolver = context.getContentResolverIfCreated();
+
+        if (contentResolver instanceof LocalContentResolver) {
+            LocalContentResolver localResolver = (LocalContentResolver) contentResolver;
+
+            System.out.println(
+                    "OCR content sources: " +
+                    localResolver.getLocalCount() + " local (" +
+                    localResolver.getLocalBytes() / 1024 + " kB), " +
+                    localResolver.getRemoteCount() + " remote."
+            );
+        }
+
+        AlephResolver alephResolver = context.getAlephResolver();
+
+        System.out.println(
+                "Aleph lookups: " +
+                alephResolver.getLookupCount() + " distinct signatures, " +
+                alephResolver.getDeduplicatedCount() + " titles sharing signature."
+        );
+
+        KrameriusImportQueue importQueue = context.getImportQueue();
+
+        if (importQueue != null) {
+            System.out.println(
+                    "Kramerius imports: " +
+                    importQueue.getRequestedCount() + " requested, " +
+                    importQueue.getRetryCount() + " retries, " +
+                    importQueue.getFailedCount() + " failed, " +
+                    importQueue.getCoalescedCount() + " repeated submissions."
+            );
+
+            KrameriusProcessPoller poller = importQueue.getProcessPoller();
+            String processes = poller == null ? null : poller.getSummary();
+
+            if (processes != null) {
+                System.out.println("Kramerius import processes: " + processes + ".");
+            }
+        }
+
+        AlephCache alephCache = context.getAlephCache();
+
+        if (alephCache != null) {
+            System.out.println(
+                    "Aleph cache: " +
+                    alephCache.getHitCount() + " hits, " +
+                    alephCache.getNegativeHitCount() + " not found hits, " +
+                    alephCache.getMissCount() + " misses."
+            );
         }
     }
 
@@ -239,7 +750,7 @@ public class ExportProcessor {
     }
 
     /**
-     * Recursive directory processing
+     * Recursive directory processing, collects all titles
      * @param directory base directory for processing
      * @throws IllegalArgumentException when dir structure is malformed
      * @throws IOException
@@ -247,14 +758,39 @@ public class ExportProcessor {
      * @throws ParserConfigurationException
      */
     private void processDirectory(Path directory) throws IllegalArgumentException, IOException, SAXException, ParserConfigurationException {
-        File[] subdirs = directory.toFile().listFiles(File::isDirectory);
-        File[] files = directory.toFile().listFiles(File::isFile);
+        try {
+            discoverTitles(directory, titles::add);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Recursive directory discovery, each directory is listed once and its title is passed on before the next directory is listed
+     * @param directory base directory for discovery
+     * @param consumer receives each title once its files are checked
+     * @throws IllegalArgumentException when dir structure is malformed
+     * @throws InterruptedException when consumer is interrupted
+     */
+    private void discoverTitles(Path directory, TitleConsumer consumer) throws IllegalArgumentException, IOException, SAXException, ParserConfigurationException, InterruptedException {
+        List<Path> subdirs = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry)) {
+                    subdirs.add(entry);
+                } else if (Files.isRegularFile(entry)) {
+                    files.add(entry.toFile());
+                }
+            }
+        }
 
-        if (files.length > 0 && subdirs.length > 0) throw new IllegalArgumentException("Input datastructure malformed, each title must be stored in separate directory");
+        if (!files.isEmpty() && !subdirs.isEmpty()) throw new IllegalArgumentException("Input datastructure malformed, each title must be stored in separate directory");
 
-        for (File subdir : subdirs) processDirectory(subdir.toPath());
+        for (Path subdir : subdirs) discoverTitles(subdir, consumer);
 
-        if (files.length > 0) titles.add(new Title(directory, files, outputPackPath, DETAILED_OUTPUT));
+        if (!files.isEmpty()) consumer.accept(new Title(directory, files.toArray(new File[0]), outputPackPath, DETAILED_OUTPUT, context));
     }
 
     /**
@@ -286,4 +822,23 @@ public class ExportProcessor {
     private void reportAccessingProtectedMethod() throws IllegalAccessException {
         throw new IllegalAccessException("Application must be run in Debug Mode for disabling direct access protection!");
     }
+
+    private interface TitleConsumer {
+        void accept(Title title) throws InterruptedException;
+    }
+
+    /**
+     * Title passed from discovery to processing, or failure which stopped discovery
+     */
+    private static class DiscoveredTitle {
+        static final DiscoveredTitle END = new DiscoveredTitle(null, null);
+
+        final Title title;
+        final Throwable failure;
+
+        DiscoveredTitle(Title title, Throwable failure) {
+            this.title = title;
+            this.failure = failure;
+        }
+    }
 }
@@ -1,5 +1,7 @@
 package cz.mzk.osdd.merlin;
 
+import java.io.IOException;
+
 /**
  * modifies FOXML produced from ProArc v3.4 to work with MZK Imageserver and Kramerius and prepares images into their respective places at Imageserver
  *
@@ -18,21 +20,34 @@ public class Main {
 
         ExportProcessor processor = null;
 
-        if (args.length < 3) {
-            if (args.length == 1) processor = new ExportProcessor(args[0]);
-            if (args.length == 2) processor = new ExportProcessor(args[0], args[1]);
+        AppConfig config = new AppConfig(args);
+
+        if (config.getBatchDirectory() != null) {
+            processor = ExportProcessor.createBatchProcessor(config);
 
             System.exit(processor.runBatch());
-        } else {
-            processor = processCommandLine(args);
+        }
 
-            System.exit(processor.runSingle());
+        if (config.getWatchDirectory() != null) {
+            System.exit(runDaemon(config));
         }
+
+        processor = ExportProcessor.createExportProcessor(config);
+
+        System.exit(processor.runSingle());
     }
 
-    private static ExportProcessor processCommandLine(String[] args) {
-        AppConfig config = new AppConfig(args);
+    private static int runDaemon(AppConfig config) {
+        ExportDaemon daemon = ExportDaemon.create(config);
 
-        return ExportProcessor.createExportProcessor(config);
+        //SIGTERM or SIGINT stops watching, titles being processed are finished first
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop, "merlin-shutdown"));
+
+        try {
+            return daemon.run();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        }
     }
 }
@@ -14,6 +14,10 @@ public class Messages {
             "* Input:                                                          *" + '\n' +
             "*  -iI path     : image export directory                          *" + '\n' +
             "*  -iK path     : kramerius export directory                      *" + '\n' +
+            "*  -w  path     : watched directory of ProArc exports,            *" + '\n' +
+            "*                 replaces -iI and -iK                            *" + '\n' +
+            "*  path [path]  : batch input and output directories, precede     *" + '\n' +
+            "*                 other options and replace -iI, -iK and -o       *" + '\n' +
             "*                                                                 *" + '\n' +
             "* Output:                                                         *" + '\n' +
             "*  -o path      : output path               (mandatory option A)  *" + '\n' +
@@ -25,7 +29,16 @@ public class Messages {
             "*                                                                 *" + '\n' +
             "* Other:                                                          *" + '\n' +
             "*  -aD path     : aleph update script directory       (optional)  *" + '\n' +
+            "*  -aC path     : aleph sysno cache file              (optional)  *" + '\n' +
             "*  -c  path     : config file path                    (optional)  *" + '\n' +
+            "*  -j  path     : journal for resuming runs           (optional)  *" + '\n' +
+            "*  -u           : skip pages unchanged since last run (optional)  *" + '\n' +
+            "*  -t  count    : titles processed in parallel        (optional)  *" + '\n' +
+            "*  -tP count    : page FOXML rewriting workers        (optional)  *" + '\n' +
+            "*  -tI count    : page image copying workers          (optional)  *" + '\n' +
+            "*  -fD          : rewrite FOXMLs using DOM only       (optional)  *" + '\n' +
+            "*  -iT mode     : image transfer: auto, copy, reflink,            *" + '\n' +
+            "*                 hardlink or move                    (optional)  *" + '\n' +
             "*                                                                 *" + '\n' +
             "*******************************************************************" + '\n' +
             '\n';
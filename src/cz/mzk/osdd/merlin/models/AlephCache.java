@@ -0,0 +1,174 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of sysno and base received from Aleph
+ *
+ * Records are identified by signature and year of issue of the title. Titles not found in Aleph are cached as well,
+ * usually with shorter time to live. Cache is stored as properties file which is rewritten after each new record.
+ */
+public class AlephCache {
+    public static final long DEFAULT_TTL_HOURS = 30 * 24;
+    public static final long DEFAULT_NEGATIVE_TTL_HOURS = 24;
+
+    private static final String SEPARATOR = "|";
+
+    private final File file;
+    private final long ttl;
+    private final long negativeTtl;
+
+    private final Properties records = new Properties();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Lookup performed when record is not cached or is expired
+     */
+    public interface Lookup {
+        /**
+         * @return sysno with base or null when record does not exist
+         * @throws IllegalStateException with Utils.DOC_NOT_FOUND_EXCEPTION_MSG when record does not exist
+         */
+        Pair<String, String> lookup(Mods mods) throws IOException;
+    }
+
+    /**
+     * Creates cache backed by file, existing records are loaded
+     *
+     * @param file cache file, created on first stored record
+     * @param ttlHours time to live of found records
+     * @param negativeTtlHours time to live of records not found in Aleph
+     * @throws IOException when existing cache file cannot be read
+     */
+    public AlephCache(File file, long ttlHours, long negativeTtlHours) throws IOException {
+        if (file == null) throw new NullPointerException("Cache file cannot be null");
+        if (ttlHours < 0 || negativeTtlHours < 0) throw new IllegalArgumentException("Cache TTL cannot be negative");
+
+        this.file = file;
+        this.ttl = TimeUnit.HOURS.toMillis(ttlHours);
+        this.negativeTtl = TimeUnit.HOURS.toMillis(negativeTtlHours);
+
+        if (file.exists()) {
+            try (InputStream is = new FileInputStream(file)) {
+                records.load(is);
+            }
+        }
+    }
+
+    /**
+     * Returns cached sysno with base, performs lookup when record is missing or expired
+     *
+     * @param mods signature and year of title, when null nothing is cached and null is returned
+     * @param lookup used for missing and expired records
+     * @return sysno with base or null when record does not exist in Aleph
+     * @throws IOException when lookup fails, failures are not cached
+     */
+    public Pair<String, String> resolve(Mods mods, Lookup lookup) throws IOException {
+        if (mods == null) return null;
+
+        String key = getKey(mods);
+
+        synchronized (this) {
+            String record = records.getProperty(key);
+
+            if (record != null && !isExpired(record)) {
+                Pair<String, String> value = parseRecord(record);
+
+                if (value == null) {
+                    negativeHits.incrementAndGet();
+                } else {
+                    hits.incrementAndGet();
+                }
+
+                return value;
+            }
+        }
+
+        misses.incrementAndGet();
+
+        Pair<String, String> value;
+
+        try {
+            value = lookup.lookup(mods);
+        } catch (IllegalStateException e) {
+            if (!Utils.DOC_NOT_FOUND_EXCEPTION_MSG.equals(e.getMessage())) throw e;
+
+            value = null;
+        }
+
+        store(key, value);
+
+        return value;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getNegativeHitCount() {
+        return negativeHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private synchronized void store(String key, Pair<String, String> value) throws IOException {
+        String record = System.currentTimeMillis() + SEPARATOR;
+
+        if (value != null) {
+            record += value.first + SEPARATOR + value.second;
+        }
+
+        records.setProperty(key, record);
+
+        save();
+    }
+
+    private void save() throws IOException {
+        Path target = file.toPath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try (OutputStream os = new FileOutputStream(tmp.toFile())) {
+            records.store(os, "Merlin Aleph cache: signature|year = timestamp|sysno|base");
+        }
+
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private boolean isExpired(String record) {
+        long created = Long.parseLong(record.substring(0, record.indexOf(SEPARATOR)));
+        long recordTtl = parseRecord(record) == null ? negativeTtl : ttl;
+
+        return System.currentTimeMillis() - created > recordTtl;
+    }
+
+    /**
+     * @return sysno with base or null for record not found in Aleph
+     */
+    private static Pair<String, String> parseRecord(String record) {
+        String[] parts = record.split("\\" + SEPARATOR, -1);
+
+        if (parts.length != 3) return null;
+
+        return Pair.create(parts[1], parts[2]);
+    }
+
+    private static String getKey(Mods mods) {
+        return mods.getPhysicalLocation() + SEPARATOR + mods.getDateIssued();
+    }
+}
@@ -0,0 +1,260 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Client of Aleph X-Server resolving sysno and base of title
+ *
+ * Find requests for all bases are sent concurrently, bases are still evaluated in order of ALEPH_BASES.
+ * Requests use persistent HTTP connections with connect and read timeouts, count of requests sent
+ * to Aleph at the same time is limited regardless of count of titles being resolved.
+ */
+public class AlephClient {
+    public static final String DEFAULT_ADDRESS = "http://aleph.mzk.cz/X";
+    public static final int DEFAULT_MAX_REQUESTS = 4;
+    public static final int DEFAULT_TIMEOUT_SECONDS = 30;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static AlephClient defaultClient = null;
+
+    private final String address;
+    private final int timeout;
+    private final Semaphore requests;
+    private final ExecutorService fanOut;
+
+    /**
+     * @param address X-Server endpoint, e.g. http://aleph.mzk.cz/X
+     * @param maxRequests count of requests sent to Aleph at the same time, must be positive
+     * @param timeoutSeconds connect and read timeout of single request, must be positive
+     */
+    public AlephClient(String address, int maxRequests, int timeoutSeconds) {
+        if (address == null) throw new NullPointerException("Aleph address cannot be null");
+        if (maxRequests < 1) throw new IllegalArgumentException("Aleph request count must be positive number");
+        if (timeoutSeconds < 1) throw new IllegalArgumentException("Aleph timeout must be positive number");
+
+        this.address = address;
+        this.timeout = (int) TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        this.requests = new Semaphore(maxRequests, true);
+        this.fanOut = Executors.newCachedThreadPool(new DaemonThreadFactory("merlin-aleph-"));
+    }
+
+    /**
+     * @return client of default Aleph address shared by whole JVM
+     */
+    public static synchronized AlephClient getDefault() {
+        if (defaultClient == null) {
+            defaultClient = new AlephClient(DEFAULT_ADDRESS, DEFAULT_MAX_REQUESTS, DEFAULT_TIMEOUT_SECONDS);
+        }
+
+        return defaultClient;
+    }
+
+    /**
+     * request for MARC record from Aleph XServer with retrieval of Sysno and Base
+     *
+     * @param mods signature and year of title
+     * @return sysno with base, null when mods is null or record year does not match
+     * @throws IllegalStateException with Utils.DOC_NOT_FOUND_EXCEPTION_MSG when no base contains signature
+     * @throws IOException when Aleph cannot be reached or responds with invalid document
+     */
+    public Pair<String, String> getSysnoWithBase(Mods mods) throws IOException {
+        if (mods == null) return null;
+
+        List<Future<Document>> finds = new ArrayList<>(Utils.ALEPH_BASES.length);
+
+        for (int i = 1; i < Utils.ALEPH_BASES.length; i++) {
+            String base = Utils.ALEPH_BASES[i];
+
+            finds.add(fanOut.submit(() -> find(base, mods)));
+        }
+
+        boolean found = false;
+
+        try {
+            for (int i = 0; i < Utils.ALEPH_BASES.length; i++) {
+                Document infoDoc = i == 0 ? find(Utils.ALEPH_BASES[0], mods) : await(finds.get(i - 1));
+
+                if (infoDoc == null) continue;
+
+                found = true;
+
+                Pair<String, String> result = present(infoDoc, mods);
+
+                if (result != null) return result;
+            }
+        } finally {
+            for (Future<Document> find : finds) {
+                find.cancel(true);
+            }
+        }
+
+        if (!found) {
+            throw new IllegalStateException(Utils.DOC_NOT_FOUND_EXCEPTION_MSG);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return find response with set_number or null when base does not contain signature
+     */
+    private Document find(String base, Mods mods) throws IOException {
+        Document doc = request("?base=" + base + "&op=find&request=sig=" + mods.getPhysicalLocation());
+
+        if (doc.getElementsByTagName("set_number").getLength() < 1 || doc.getElementsByTagName("no_entries").getLength() < 1) {
+            return null;
+        }
+
+        return doc;
+    }
+
+    private Pair<String, String> present(Document infoDoc, Mods mods) throws IOException {
+        String set_number = infoDoc.getElementsByTagName("set_number").item(0).getTextContent();
+        String no_entries = infoDoc.getElementsByTagName("no_entries").item(0).getTextContent();
+
+        Document doc = request("?op=present&set_no=" + set_number + "&set_entry=" + no_entries + "&format=marc");
+
+        if (doc.getElementsByTagName("doc_number").getLength() < 1) {
+            throw new IOException("Could not get sysno from Aleph.");
+        }
+
+        //getById does not work, therefore we have to do it hard way
+        //= doc.getElementById("008").getTextContent();
+
+        String marc008 = null;
+        NodeList fixFields = doc.getElementsByTagName("fixfield");
+
+        for (int i = 0; i < fixFields.getLength(); i++) {
+            Element fixField = (Element) fixFields.item(i);
+
+            if (fixField.getAttribute("id").equals("008")) {
+                marc008 = fixField.getTextContent();
+            }
+        }
+
+        //check if year matches due to possible year ambiguity
+        if (marc008 == null || !marc008.contains(mods.getDateIssued())) {
+            System.out.println("Could not load year from document: " + mods.getPhysicalLocation());
+            return null;
+        }
+
+        String sysno = doc.getElementsByTagName("doc_number").item(0).getTextContent();
+        String base = null;
+
+        NodeList field = doc.getElementsByTagName("subfield");
+
+        for (int i = 0; i < field.getLength(); i++) {
+            if (((Element) field.item(i)).getAttribute("label").equals("l")) {
+                base = field.item(i).getTextContent();
+            }
+        }
+
+        if (base == null || !base.startsWith("MZK0")) return null;
+
+        return Pair.create(sysno, base);
+    }
+
+    /**
+     * Sends request, failed attempts are repeated up to Utils.RETRY_COUNT times
+     *
+     * @param query query part of X-Server URL
+     * @return parsed response
+     * @throws IOException when all attempts failed
+     */
+    private Document request(String query) throws IOException {
+        IOException failure = null;
+
+        for (int attempt = 0; attempt < Utils.RETRY_COUNT; attempt++) {
+            try {
+                return XmlFactories.getDocumentBuilder().parse(new ByteArrayInputStream(download(address + query)));
+            } catch (IOException | SAXException e) {
+                failure = e instanceof IOException ? (IOException) e : new IOException("Invalid response from Aleph: " + e.getMessage(), e);
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        throw failure;
+    }
+
+    /**
+     * Reads whole response, so the connection is returned to keep-alive cache
+     */
+    private byte[] download(String url) throws IOException {
+        try {
+            requests.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for Aleph", e);
+        }
+
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+
+            int status = conn.getResponseCode();
+
+            if (status != HttpURLConnection.HTTP_OK) {
+                InputStream error = conn.getErrorStream();
+
+                if (error != null) {
+                    readAll(error);
+                }
+
+                throw new IOException("Aleph responded with HTTP " + status + " for " + url);
+            }
+
+            return readAll(conn.getInputStream());
+        } finally {
+            requests.release();
+        }
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        try (InputStream is = stream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+
+            return out.toByteArray();
+        }
+    }
+
+    private static Document await(Future<Document> find) throws IOException {
+        try {
+            return find.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for Aleph", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+
+            throw new IOException(e.getCause());
+        }
+    }
+}
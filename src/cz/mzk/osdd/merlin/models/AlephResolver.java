@@ -0,0 +1,143 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolution stage running Aleph lookups of titles ahead of their processing
+ *
+ * Each distinct signature and year is looked up only once per run, titles sharing them receive the same result.
+ * Failed lookup is not remembered, so next title with the same signature and year looks it up again.
+ * Long running users, e.g. daemon, call clearCompleted after each title, so results are not kept beyond it
+ * and Aleph cache expiration applies to them.
+ * Lookups run in own worker pool, start of lookups is spaced so at most requestsPerSecond lookups start each second.
+ */
+public class AlephResolver implements AutoCloseable {
+
+    private final AlephCache.Lookup lookup;
+    private final long interval;
+    private final ExecutorService workers;
+
+    private final Map<Mods, CompletableFuture<Pair<String, String>>> lookups = new ConcurrentHashMap<>();
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    private long nextStart = System.nanoTime();
+
+    /**
+     * @param lookup lookup of single title, e.g. Aleph client used through cache
+     * @param threads count of concurrent lookups, must be positive
+     * @param requestsPerSecond maximal count of lookups started each second, 0 for no limit
+     */
+    public AlephResolver(AlephCache.Lookup lookup, int threads, int requestsPerSecond) {
+        if (lookup == null) throw new NullPointerException("Aleph lookup cannot be null");
+        if (threads < 1) throw new IllegalArgumentException("Resolver thread count must be positive number");
+        if (requestsPerSecond < 0) throw new IllegalArgumentException("Aleph rate limit cannot be negative");
+
+        this.lookup = lookup;
+        this.interval = requestsPerSecond == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+        this.workers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("merlin-aleph-resolve-"));
+    }
+
+    /**
+     * Schedules lookup of sysno and base, already requested signature and year are not looked up again
+     *
+     * @param mods signature and year of title, null completes immediately with null
+     * @return sysno with base, null when title is not known by Aleph
+     *         completes exceptionally with IOException when Aleph cannot be reached
+     */
+    public CompletableFuture<Pair<String, String>> resolve(Mods mods) {
+        if (mods == null) return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Pair<String, String>> created = new CompletableFuture<>();
+        CompletableFuture<Pair<String, String>> existing = lookups.putIfAbsent(mods, created);
+
+        if (existing != null) {
+            deduplicated.incrementAndGet();
+            return existing;
+        }
+
+        started.incrementAndGet();
+
+        workers.execute(() -> {
+            try {
+                awaitRate();
+
+                created.complete(lookupOrNull(mods));
+            } catch (Throwable e) {
+                //removed before completion, so titles resolving after the failure do not receive it
+                lookups.remove(mods, created);
+                created.completeExceptionally(e);
+            }
+        });
+
+        return created;
+    }
+
+    /**
+     * @return count of titles which reused lookup of another title
+     */
+    public long getDeduplicatedCount() {
+        return deduplicated.get();
+    }
+
+    /**
+     * @return count of lookups started
+     */
+    public long getLookupCount() {
+        return started.get();
+    }
+
+    /**
+     * Forgets finished lookups, titles resolving the same signature and year later look it up again
+     */
+    public void clearCompleted() {
+        lookups.values().removeIf(CompletableFuture::isDone);
+    }
+
+    /**
+     * @return count of lookups waiting for a worker or running
+     */
+    public long getPendingCount() {
+        return lookups.values().stream().filter(lookup -> !lookup.isDone()).count();
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    private Pair<String, String> lookupOrNull(Mods mods) throws IOException {
+        try {
+            return lookup.lookup(mods);
+        } catch (IllegalStateException e) {
+            if (Utils.DOC_NOT_FOUND_EXCEPTION_MSG.equals(e.getMessage())) return null;
+
+            throw e;
+        }
+    }
+
+    private void awaitRate() throws InterruptedException {
+        if (interval == 0) return;
+
+        long wait;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+
+            if (nextStart - now < 0) nextStart = now;
+
+            wait = nextStart - now;
+            nextStart += interval;
+        }
+
+        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+}
@@ -0,0 +1,82 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Checksums of files stored in single directory
+ *
+ * Manifest uses format of sha256sum, therefore directory can be verified by: sha256sum -c manifest-sha256.txt
+ */
+public class ChecksumManifest {
+    public static final String FILE_NAME = "manifest-sha256.txt";
+
+    private final Path file;
+    private final Map<String, String> checksums = new TreeMap<>();
+
+    private ChecksumManifest(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads manifest of directory, missing manifest is treated as empty
+     *
+     * @param directory directory containing listed files
+     */
+    public static ChecksumManifest load(Path directory) throws IOException {
+        ChecksumManifest manifest = new ChecksumManifest(directory.resolve(FILE_NAME));
+
+        if (!Files.exists(manifest.file)) return manifest;
+
+        try (BufferedReader reader = Files.newBufferedReader(manifest.file, StandardCharsets.UTF_8)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf("  ");
+
+                if (separator < 1) continue;
+
+                manifest.checksums.put(line.substring(separator + 2), line.substring(0, separator));
+            }
+        }
+
+        return manifest;
+    }
+
+    /**
+     * @return recorded checksum or null when file is not listed
+     */
+    public synchronized String get(String fileName) {
+        return checksums.get(fileName);
+    }
+
+    public synchronized void put(String fileName, String checksum) {
+        checksums.put(fileName, checksum);
+    }
+
+    public synchronized void remove(String fileName) {
+        checksums.remove(fileName);
+    }
+
+    /**
+     * Replaces manifest file, files are listed in order of their names
+     */
+    public synchronized void save() throws IOException {
+        Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : checksums.entrySet()) {
+                writer.write(entry.getValue() + "  " + entry.getKey() + "\n");
+            }
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
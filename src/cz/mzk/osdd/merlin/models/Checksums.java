@@ -0,0 +1,101 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 checksums of files, computed in the same pass which reads or copies the file
+ */
+public class Checksums {
+    public static final String ALGORITHM = "SHA-256";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private Checksums() {}
+
+    /**
+     * @return hex encoded SHA-256 of file content
+     */
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest = createDigest();
+        ByteBuffer buffer = buffers.get();
+
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return hex encoded SHA-256 of UTF-8 encoded text
+     */
+    public static String sha256(String text) {
+        return toHex(createDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Copies file while computing SHA-256 of copied data, so the source is read only once
+     *
+     * @param target must not exist
+     * @return hex encoded SHA-256 of copied content
+     */
+    public static String copyWithSha256(Path source, Path target) throws IOException {
+        MessageDigest digest = createDigest();
+        ByteBuffer buffer = buffers.get();
+
+        try (
+                FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)
+        ) {
+            buffer.clear();
+
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+
+                //digest consumes the buffer, therefore the same bytes are digested from a duplicate
+                digest.update(buffer.duplicate());
+
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+
+                buffer.clear();
+            }
+        }
+
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is required by every Java platform", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,295 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import org.apache.commons.io.FileUtils;
+import org.xml.sax.SAXException;
+
+/**
+ * Downloads content referenced by contentLocation of ALTO and TEXT_OCR datastreams ahead of FOXML rewriting
+ *
+ * Content of page is prefetched by limited count of workers while previous pages are rewritten. Content is stored
+ * in cache directory named by SHA-256 of its URL. Persistent cache directory is reused by following runs,
+ * temporary cache directory is removed on close and its files are removed once they are opened.
+ * Each URL is downloaded once, page waiting for content being prefetched does not download it again.
+ */
+public class ContentFetcher implements ContentResolver, AutoCloseable {
+    public static final int DEFAULT_MAX_REQUESTS = 8;
+    public static final int DEFAULT_TIMEOUT_SECONDS = 30;
+
+    public static final List<String> OCR_DATASTREAMS = Arrays.asList(Foxml.DATASTREAM_ALTO, Foxml.DATASTREAM_OCR);
+
+    private static final String PART_SUFFIX = ".part";
+    private static final int MAX_TRACKED_FETCHES = 16384;
+
+    private final Path directory;
+    private final boolean temporary;
+    private final int timeout;
+    private final ExecutorService executor;
+
+    //recent fetches are kept after their content is opened, so late prefetch of the same URL does not download it again
+    private final Map<String, CompletableFuture<Path>> fetches = Collections.synchronizedMap(new LinkedHashMap<String, CompletableFuture<Path>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Path>> eldest) {
+            return size() > MAX_TRACKED_FETCHES;
+        }
+    });
+
+    private final AtomicLong downloadCount = new AtomicLong();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private final AtomicLong cacheHitCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+
+    /**
+     * @param cacheDirectory directory storing downloaded content, created when missing,
+     *                       null when content is cached only for the lifetime of fetcher
+     * @param maxRequests count of downloads running at the same time, must be positive
+     * @param timeoutSeconds connect and read timeout of single download, must be positive
+     */
+    public ContentFetcher(Path cacheDirectory, int maxRequests, int timeoutSeconds) throws IOException {
+        if (maxRequests < 1) throw new IllegalArgumentException("Content request count must be positive number");
+        if (timeoutSeconds < 1) throw new IllegalArgumentException("Content timeout must be positive number");
+
+        this.temporary = cacheDirectory == null;
+        this.directory = temporary ? Files.createTempDirectory("merlin-content-") : Files.createDirectories(cacheDirectory);
+        this.timeout = (int) TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        this.executor = Executors.newFixedThreadPool(maxRequests, new DaemonThreadFactory("merlin-content-"));
+    }
+
+    /**
+     * Schedules download of content referenced by OCR datastreams of FOXML
+     *
+     * Failures are not reported, content which could not be prefetched is downloaded again when it is opened.
+     */
+    @Override
+    public void prefetch(Path foxml) {
+        prefetch(foxml, url -> true);
+    }
+
+    /**
+     * @param filter selects URLs to be downloaded, evaluated by prefetching worker
+     */
+    public void prefetch(Path foxml, Predicate<String> filter) {
+        executor.execute(() -> {
+            List<String> refs;
+
+            try {
+                refs = Utils.getContentLocations(foxml.toFile(), OCR_DATASTREAMS);
+            } catch (IOException | SAXException e) {
+                return;
+            }
+
+            for (String ref : refs) {
+                String url = Foxml.getContentLocationURL(ref);
+
+                if (filter.test(url)) fetch(url);
+            }
+        });
+    }
+
+    /**
+     * Opens content of URL, waits while it is being prefetched or downloads it when it was not prefetched
+     */
+    @Override
+    public Content open(String url) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            CompletableFuture<Path> fetch = fetch(url);
+            Path file = await(url, fetch);
+            FileChannel channel;
+
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                //temporary content already consumed, e.g. by rewrite which failed and is repeated using DOM
+                fetches.remove(url, fetch);
+
+                if (attempt > 1) throw e;
+
+                continue;
+            }
+
+            //open channel still reads the content
+            if (temporary) Files.delete(file);
+
+            return new Content(channel.size(), Channels.newInputStream(channel));
+        }
+    }
+
+    public long getDownloadCount() {
+        return downloadCount.get();
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    /**
+     * @return count of contents found in cache directory, e.g. downloaded by previous run
+     */
+    public long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Stops prefetching, temporary cache directory is removed
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+
+        try {
+            executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (temporary) FileUtils.deleteQuietly(directory.toFile());
+    }
+
+    private static Path await(String url, CompletableFuture<Path> fetch) throws IOException {
+        try {
+            return fetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading " + url, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+
+            throw new IOException("Cannot download " + url, e.getCause());
+        }
+    }
+
+    /**
+     * Downloads content unless it is already cached or being downloaded
+     */
+    private CompletableFuture<Path> fetch(String url) {
+        CompletableFuture<Path> created = new CompletableFuture<>();
+        CompletableFuture<Path> existing = fetches.putIfAbsent(url, created);
+
+        if (existing != null) return existing;
+
+        try {
+            created.complete(download(url));
+        } catch (IOException | RuntimeException e) {
+            //failed prefetch is attempted again by the next request of the same content
+            fetches.remove(url, created);
+            created.completeExceptionally(e);
+        }
+
+        return created;
+    }
+
+    private Path download(String url) throws IOException {
+        Path file = directory.resolve(Checksums.sha256(url));
+
+        if (Files.exists(file)) {
+            cacheHitCount.incrementAndGet();
+            return file;
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                long size = download(url, file);
+
+                downloadCount.incrementAndGet();
+                downloadedBytes.addAndGet(size);
+
+                return file;
+            } catch (IOException e) {
+                if (attempt >= Utils.RETRY_COUNT || e instanceof ContentNotAvailableException) throw e;
+
+                retryCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Downloads content into temporary file moved into place once complete, so interrupted download is never cached
+     *
+     * @return size of content
+     */
+    private long download(String url, Path file) throws IOException {
+        URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            int code = http.getResponseCode();
+
+            if (code >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                //error body is consumed, so the connection is kept alive for following downloads
+                InputStream error = http.getErrorStream();
+
+                if (error != null) {
+                    try (InputStream is = error) {
+                        while (is.read() != -1) {
+                            //discard
+                        }
+                    }
+                }
+
+                String message = "HTTP " + code + " when downloading " + url;
+
+                if (code < HttpURLConnection.HTTP_INTERNAL_ERROR && code != HttpURLConnection.HTTP_CLIENT_TIMEOUT) {
+                    throw new ContentNotAvailableException(message);
+                }
+
+                throw new IOException(message);
+            }
+        }
+
+        Path part = Files.createTempFile(directory, file.getFileName().toString(), PART_SUFFIX);
+
+        try {
+            long size;
+
+            try (InputStream is = connection.getInputStream()) {
+                size = Files.copy(is, part, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            return size;
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    /**
+     * Content rejected by server, download is not retried
+     */
+    private static class ContentNotAvailableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ContentNotAvailableException(String message) {
+            super(message);
+        }
+    }
+}
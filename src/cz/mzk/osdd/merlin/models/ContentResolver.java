@@ -0,0 +1,40 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Source of content referenced by contentLocation of OCR datastreams, used by Foxml and FoxmlStreamRewriter
+ */
+public interface ContentResolver {
+
+    /**
+     * Content with its size known before it is read
+     */
+    class Content implements Closeable {
+        public final long size;
+        public final InputStream stream;
+
+        public Content(long size, InputStream stream) {
+            this.size = size;
+            this.stream = stream;
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+
+    /**
+     * @param url URL of content, already rewritten by Foxml.getContentLocationURL
+     */
+    Content open(String url) throws IOException;
+
+    /**
+     * Schedules resolution of content referenced by OCR datastreams of FOXML, so it is ready once the FOXML is rewritten
+     */
+    void prefetch(Path foxml);
+}
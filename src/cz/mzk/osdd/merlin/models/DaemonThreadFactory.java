@@ -0,0 +1,24 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates numbered daemon threads, so worker pools never keep JVM running after processing ends
+ */
+class DaemonThreadFactory implements ThreadFactory {
+    private final String namePrefix;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    DaemonThreadFactory(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, namePrefix + counter.incrementAndGet());
+        thread.setDaemon(true);
+
+        return thread;
+    }
+}
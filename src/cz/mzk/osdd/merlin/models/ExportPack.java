@@ -19,6 +19,14 @@ public class ExportPack {
         this.uuid = uuid;
     }
 
+    ExportPack(String uuid, Path krameriusExportPath, Path imageExportPath) {
+        this.uuid = uuid;
+        this.krameriusExportPath = krameriusExportPath;
+        this.imageExportPath = imageExportPath;
+        this.hasKrameriusExport = krameriusExportPath != null;
+        this.hasImageExport = imageExportPath != null;
+    }
+
     public boolean hasKrameriusExport() {
         return hasKrameriusExport;
     }
@@ -28,11 +36,11 @@ public class ExportPack {
     }
 
     public Path getKrameriusExportPath() {
-        return Paths.get(krameriusExportPath.toString());
+        return krameriusExportPath;
     }
 
     public Path getImageExportPath() {
-        return Paths.get(imageExportPath.toString());
+        return imageExportPath;
     }
 
     public void setHasKrameriusExport(String path) {
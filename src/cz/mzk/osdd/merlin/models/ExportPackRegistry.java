@@ -0,0 +1,431 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact registry of export packs of single title, replacing map of ExportPack objects for titles with many pages
+ *
+ * Pack is addressed by its index in order of registration. UUID is stored as two longs, directories of FOXML
+ * and image are stored as indexes into table of directories shared by all packs, file names are not stored,
+ * as they consist of UUID and suffix. UUIDs which are not in canonical lowercase form are kept as strings.
+ * Accessors of flags, UUID bits and directories and lookup by UUID do not allocate, UUID string, file paths
+ * and ExportPack are created on each call.
+ */
+public class ExportPackRegistry {
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final byte UNCLASSIFIED = 0;
+    private static final byte PAGE = 1;
+    private static final byte NON_PAGE = 2;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+
+        for (int i = 0; i < HEX.length; i++) {
+            HEX_VALUES[HEX[i]] = (byte) i;
+        }
+    }
+
+    private final String krameriusSuffix;
+    private final String imageSuffix;
+
+    private int size = 0;
+    //most and least significant bits of each UUID are adjacent, so lookup compares them within one cache line
+    private long[] uuidBits = new long[INITIAL_CAPACITY * 2];
+    private int[] krameriusDirectory = new int[INITIAL_CAPACITY];
+    private int[] imageDirectory = new int[INITIAL_CAPACITY];
+    private byte[] kind = new byte[INITIAL_CAPACITY];
+
+    //open addressing table of canonical UUIDs, slot holds index + 1, 0 when empty
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    private final List<Path> directories = new ArrayList<>(1);
+    private final Map<String, Integer> directoryIndexes = new HashMap<>();
+
+    //files of title share directory, so the last one is matched without allocation
+    private String lastDirectory = null;
+    private int lastDirectoryIndex = NONE;
+
+    private final Map<String, Integer> irregularIndexes = new HashMap<>();
+    private final Map<Integer, String> irregularUuids = new HashMap<>();
+
+    private int pageCount = 0;
+
+    /**
+     * @param krameriusSuffix suffix of FOXML file names, e.g. .xml
+     * @param imageSuffix suffix of image file names, e.g. .jp2
+     */
+    public ExportPackRegistry(String krameriusSuffix, String imageSuffix) {
+        if (krameriusSuffix == null || imageSuffix == null) throw new NullPointerException("Suffix cannot be null");
+
+        this.krameriusSuffix = krameriusSuffix;
+        this.imageSuffix = imageSuffix;
+    }
+
+    /**
+     * Registers FOXML file, pack is created when its image was not registered yet
+     *
+     * @return index of pack
+     * @throws IllegalArgumentException when file name does not end with FOXML suffix
+     */
+    public int addKrameriusExport(File file) {
+        String path = file.getPath();
+        int nameStart = path.lastIndexOf(File.separatorChar) + 1;
+        int index = register(path, nameStart, krameriusSuffix);
+
+        krameriusDirectory[index] = directoryIndex(path, nameStart);
+
+        return index;
+    }
+
+    /**
+     * Registers image file, pack is created when its FOXML was not registered yet
+     *
+     * @return index of pack
+     * @throws IllegalArgumentException when file name does not end with image suffix
+     */
+    public int addImageExport(File file) {
+        String path = file.getPath();
+        int nameStart = path.lastIndexOf(File.separatorChar) + 1;
+        int index = register(path, nameStart, imageSuffix);
+
+        imageDirectory[index] = directoryIndex(path, nameStart);
+
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return index of pack or -1 when pack is not registered
+     */
+    public int indexOf(String uuid) {
+        if (uuid.length() == 36 && isCanonical(uuid, 0)) return find(parseHigh(uuid, 0), parseLow(uuid, 0));
+
+        Integer index = irregularIndexes.get(uuid);
+
+        return index == null ? NONE : index;
+    }
+
+    public String getUuid(int index) {
+        checkIndex(index);
+
+        String irregular = irregularUuids.isEmpty() ? null : irregularUuids.get(index);
+
+        return irregular != null ? irregular : format(uuidBits[index * 2], uuidBits[index * 2 + 1]);
+    }
+
+    /**
+     * @return most significant bits of UUID, 0 when UUID is not in canonical form
+     */
+    public long getMostSignificantBits(int index) {
+        checkIndex(index);
+
+        return uuidBits[index * 2];
+    }
+
+    /**
+     * @return least significant bits of UUID, 0 when UUID is not in canonical form
+     */
+    public long getLeastSignificantBits(int index) {
+        checkIndex(index);
+
+        return uuidBits[index * 2 + 1];
+    }
+
+    public boolean hasKrameriusExport(int index) {
+        checkIndex(index);
+
+        return krameriusDirectory[index] != NONE;
+    }
+
+    public boolean hasImageExport(int index) {
+        checkIndex(index);
+
+        return imageDirectory[index] != NONE;
+    }
+
+    /**
+     * @return directory containing FOXML of pack or null when FOXML is missing
+     */
+    public Path getKrameriusDirectory(int index) {
+        checkIndex(index);
+
+        return krameriusDirectory[index] == NONE ? null : directories.get(krameriusDirectory[index]);
+    }
+
+    /**
+     * @return directory containing image of pack or null when image is missing
+     */
+    public Path getImageDirectory(int index) {
+        checkIndex(index);
+
+        return imageDirectory[index] == NONE ? null : directories.get(imageDirectory[index]);
+    }
+
+    /**
+     * @return FOXML file of pack or null when FOXML is missing
+     */
+    public Path getKrameriusExportPath(int index) {
+        Path directory = getKrameriusDirectory(index);
+
+        return directory == null ? null : directory.resolve(getUuid(index) + krameriusSuffix);
+    }
+
+    /**
+     * @return image file of pack or null when image is missing
+     */
+    public Path getImageExportPath(int index) {
+        Path directory = getImageDirectory(index);
+
+        return directory == null ? null : directory.resolve(getUuid(index) + imageSuffix);
+    }
+
+    /**
+     * @param page true when FOXML of pack describes page
+     */
+    public void setPage(int index, boolean page) {
+        checkIndex(index);
+
+        if (kind[index] == PAGE) pageCount--;
+        if (page) pageCount++;
+
+        kind[index] = page ? PAGE : NON_PAGE;
+    }
+
+    /**
+     * @return true when pack was classified as page
+     */
+    public boolean isPage(int index) {
+        checkIndex(index);
+
+        return kind[index] == PAGE;
+    }
+
+    /**
+     * @return true when pack was classified as non page object
+     */
+    public boolean isNonPage(int index) {
+        checkIndex(index);
+
+        return kind[index] == NON_PAGE;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Compares UUIDs of packs as strings, canonical UUIDs are compared by their bits without creating strings
+     */
+    public int compareUuids(int first, int second) {
+        checkIndex(first);
+        checkIndex(second);
+
+        if (irregularUuids.isEmpty() || (!irregularUuids.containsKey(first) && !irregularUuids.containsKey(second))) {
+            //lowercase hexadecimal digits sort the same way as unsigned value
+            int high = Long.compareUnsigned(uuidBits[first * 2], uuidBits[second * 2]);
+
+            return high != 0 ? high : Long.compareUnsigned(uuidBits[first * 2 + 1], uuidBits[second * 2 + 1]);
+        }
+
+        return getUuid(first).compareTo(getUuid(second));
+    }
+
+    /**
+     * @return new ExportPack of pack, valid while the registry is not changed
+     */
+    public ExportPack getPack(int index) {
+        return new ExportPack(getUuid(index), getKrameriusExportPath(index), getImageExportPath(index));
+    }
+
+    /**
+     * @param nameStart offset of file name within path
+     */
+    private int register(String path, int nameStart, String suffix) {
+        if (!path.endsWith(suffix)) throw new IllegalArgumentException("File " + path.substring(nameStart) + " does not end with " + suffix);
+
+        int nameLength = path.length() - suffix.length() - nameStart;
+
+        if (nameLength != 36 || !isCanonical(path, nameStart)) {
+            String uuid = path.substring(nameStart, nameStart + nameLength);
+            Integer existing = irregularIndexes.get(uuid);
+
+            if (existing != null) return existing;
+
+            int index = append(0, 0);
+            irregularIndexes.put(uuid, index);
+            irregularUuids.put(index, uuid);
+
+            return index;
+        }
+
+        long high = parseHigh(path, nameStart);
+        long low = parseLow(path, nameStart);
+        int existing = find(high, low);
+
+        if (existing != NONE) return existing;
+
+        int index = append(high, low);
+        insert(index);
+
+        return index;
+    }
+
+    private int append(long high, long low) {
+        if (size == kind.length) grow();
+
+        int index = size++;
+
+        uuidBits[index * 2] = high;
+        uuidBits[index * 2 + 1] = low;
+        krameriusDirectory[index] = NONE;
+        imageDirectory[index] = NONE;
+        kind[index] = UNCLASSIFIED;
+
+        return index;
+    }
+
+    private void grow() {
+        int capacity = kind.length * 2;
+
+        uuidBits = Arrays.copyOf(uuidBits, capacity * 2);
+        krameriusDirectory = Arrays.copyOf(krameriusDirectory, capacity);
+        imageDirectory = Arrays.copyOf(imageDirectory, capacity);
+        kind = Arrays.copyOf(kind, capacity);
+
+        //table is kept at most half full
+        slots = new int[capacity * 2];
+
+        for (int i = 0; i < size; i++) {
+            if (!irregularUuids.containsKey(i)) insert(i);
+        }
+    }
+
+    private int find(long high, long low) {
+        int mask = slots.length - 1;
+
+        for (int slot = hash(high, low) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+
+            if (uuidBits[index * 2] == high && uuidBits[index * 2 + 1] == low) return index;
+        }
+
+        return NONE;
+    }
+
+    private void insert(int index) {
+        int mask = slots.length - 1;
+        int slot = hash(uuidBits[index * 2], uuidBits[index * 2 + 1]) & mask;
+
+        while (slots[slot] != 0) slot = (slot + 1) & mask;
+
+        slots[slot] = index + 1;
+    }
+
+    private int directoryIndex(String path, int nameStart) {
+        //separator preceding the name is not part of directory unless it is the root, file without directory is relative
+        int directoryEnd = nameStart > 1 ? nameStart - 1 : nameStart;
+
+        if (lastDirectory != null && lastDirectory.length() == directoryEnd && path.startsWith(lastDirectory)) return lastDirectoryIndex;
+
+        String directory = path.substring(0, directoryEnd);
+        Integer index = directoryIndexes.get(directory);
+
+        if (index == null) {
+            index = directories.size();
+            directories.add(Paths.get(directory));
+            directoryIndexes.put(directory, index);
+        }
+
+        lastDirectory = directory;
+        lastDirectoryIndex = index;
+
+        return index;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Pack index " + index + " out of 0.." + (size - 1));
+    }
+
+    private static int hash(long high, long low) {
+        long h = high ^ low;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+
+        return (int) h;
+    }
+
+    /**
+     * @return true when 36 characters from offset are formatted as by UUID.toString, so they are restored from UUID bits
+     */
+    private static boolean isCanonical(String s, int offset) {
+        return s.charAt(offset + 8) == '-' && s.charAt(offset + 13) == '-' && s.charAt(offset + 18) == '-' && s.charAt(offset + 23) == '-' &&
+                isHex(s, offset, 8) && isHex(s, offset + 9, 4) && isHex(s, offset + 14, 4) && isHex(s, offset + 19, 4) && isHex(s, offset + 24, 12);
+    }
+
+    private static boolean isHex(String s, int offset, int digits) {
+        for (int i = offset; i < offset + digits; i++) {
+            char c = s.charAt(i);
+
+            if (c >= HEX_VALUES.length || HEX_VALUES[c] < 0) return false;
+        }
+
+        return true;
+    }
+
+    private static long parseHigh(String s, int offset) {
+        return (parseHex(s, offset, 8) << 32) | (parseHex(s, offset + 9, 4) << 16) | parseHex(s, offset + 14, 4);
+    }
+
+    private static long parseLow(String s, int offset) {
+        return (parseHex(s, offset + 19, 4) << 48) | parseHex(s, offset + 24, 12);
+    }
+
+    private static long parseHex(String s, int offset, int digits) {
+        long value = 0;
+
+        for (int i = offset; i < offset + digits; i++) {
+            value = (value << 4) | HEX_VALUES[s.charAt(i)];
+        }
+
+        return value;
+    }
+
+    private static String format(long high, long low) {
+        char[] chars = new char[36];
+
+        formatHex(chars, 0, high >>> 32, 8);
+        chars[8] = '-';
+        formatHex(chars, 9, high >>> 16, 4);
+        chars[13] = '-';
+        formatHex(chars, 14, high, 4);
+        chars[18] = '-';
+        formatHex(chars, 19, low >>> 48, 4);
+        chars[23] = '-';
+        formatHex(chars, 24, low, 12);
+
+        return new String(chars);
+    }
+
+    private static void formatHex(char[] chars, int offset, long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[offset + i] = HEX[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+}
@@ -3,11 +3,17 @@ package cz.mzk.osdd.merlin.models;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import org.w3c.dom.Document;
@@ -37,11 +43,43 @@ public class Foxml {
     public static final String DATASTREAM_DC = "DC.";
     public static final String DATASTREAM_RELS_EXT = "RELS-EXT.";
 
+    /**
+     * Datastreams processed for page objects, processRDF is applied to pages as well
+     */
+    public static final List<String> PAGE_DATASTREAMS = Collections.unmodifiableList(Arrays.asList(
+            DATASTREAM_IMG_FULL,
+            DATASTREAM_IMG_THUMB,
+            DATASTREAM_IMG_PREVIEW,
+            DATASTREAM_ALTO,
+            DATASTREAM_OCR,
+            DATASTREAM_BIBLIO_MODS,
+            DATASTREAM_DC,
+            DATASTREAM_RELS_EXT
+    ));
+
+    /**
+     * Datastreams processed for non page objects (title, volume, issue...)
+     */
+    public static final List<String> NON_PAGE_DATASTREAMS = Collections.unmodifiableList(Arrays.asList(
+            DATASTREAM_BIBLIO_MODS,
+            DATASTREAM_RELS_EXT,
+            DATASTREAM_DC
+    ));
+
+
+    //largest content whose base64 still fits into a String
+    private static final long MAX_INLINED_SIZE = Integer.MAX_VALUE / 4 * 3;
 
     private Document doc;
     private String imagePath;
     private String base;
     private String uuid;
+    private ContentResolver contentResolver = null;
+
+    //edits never add or remove datastreamVersion elements, so index built once stays valid
+    private final Element root;
+    private final Map<String, Element> datastreamVersions = new LinkedHashMap<>();
+    private final Map<String, Element> knownDatastreams = new HashMap<>();
 
     /**
      * Creates foxml wrapper
@@ -59,10 +97,58 @@ public class Foxml {
         this.imagePath = imagePath;
         this.base = base;
         this.uuid = uuid;
+
+        this.root = doc.getDocumentElement() != null && doc.getDocumentElement().getTagName().equals("digitalObject") ?
+                doc.getDocumentElement() :
+                (Element) doc.getElementsByTagName("digitalObject").item(0);
+
+        indexDatastreamVersions();
+    }
+
+    /**
+     * Indexes each datastreamVersion by its exact ID, first element in document order wins, and resolves known
+     * datastreams against them, so lookup returns the same element as Utils.filterDatastreamFromDocument
+     */
+    private void indexDatastreamVersions() {
+        NodeList nl = doc.getElementsByTagName("datastreamVersion");
+
+        for (int i = 0; i < nl.getLength(); i++) {
+            Element version = (Element) nl.item(i);
+
+            datastreamVersions.putIfAbsent(version.getAttribute("ID"), version);
+        }
+
+        //missing datastreams are kept as null, so their lookup does not scan again
+        for (String datastream : PAGE_DATASTREAMS) {
+            knownDatastreams.put(datastream, findDatastreamVersion(datastream));
+        }
+    }
+
+    /**
+     * @param id datastreamVersion ID or its prefix, e.g. IMG_FULL.0 or ALTO.
+     * @return first datastreamVersion whose ID starts with id, null when there is none
+     */
+    public Element getDatastreamVersion(String id) {
+        return knownDatastreams.containsKey(id) ? knownDatastreams.get(id) : findDatastreamVersion(id);
+    }
+
+    private Element findDatastreamVersion(String prefix) {
+        for (Map.Entry<String, Element> entry : datastreamVersions.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) return entry.getValue();
+        }
+
+        return null;
+    }
+
+    /**
+     * @param contentResolver source of OCR content referenced by contentLocation, null when content is downloaded directly
+     */
+    public void setContentResolver(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
     }
 
     public void removeFedoraURIFromRoot() {
-        removeFedoraURI((Element) doc.getElementsByTagName("digitalObject").item(0));
+        removeFedoraURI(root);
     }
 
     private void removeFedoraURI(Element element) {
@@ -81,7 +167,7 @@ public class Foxml {
             throw new IllegalArgumentException("Datastream cannot be null.");
         }
 
-        Element thisElement = Utils.filterDatastreamFromDocument(doc, datastream);
+        Element thisElement = getDatastreamVersion(datastream);
 
         if (thisElement == null) {
             if (!(datastream.equals(DATASTREAM_ALTO) || datastream.equals(DATASTREAM_OCR))) {
@@ -99,17 +185,17 @@ public class Foxml {
                 datastream.equals(DATASTREAM_IMG_PREVIEW) ||
                 datastream.equals(DATASTREAM_IMG_THUMB))
         {
-            processImgDatastream(datastream);
+            processImgDatastream(datastream, thisElement);
         } else if (
                 datastream.equals(DATASTREAM_ALTO) ||
                 datastream.equals(DATASTREAM_OCR))
         {
-            processOcrDatastream(datastream);
+            processOcrDatastream(datastream, thisElement);
         }
 
     }
 
-    private void processImgDatastream(String datastream) {
+    private void processImgDatastream(String datastream, Element img) {
         if (
             !(
                 datastream.equals(DATASTREAM_IMG_FULL) ||
@@ -119,8 +205,6 @@ public class Foxml {
             throw new IllegalArgumentException("Unsupported img datastream: " + datastream + ".");
         }
 
-        Element img = Utils.filterDatastreamFromDocument(doc, datastream);
-
         if (img == null) {
             throw new IllegalArgumentException("missing " + datastream);
         }
@@ -145,7 +229,7 @@ public class Foxml {
         setContentLocation(img, selectedImageType);
     }
 
-    private void processOcrDatastream(String datastream) throws IOException {
+    private void processOcrDatastream(String datastream, Element ocr) throws IOException {
         if (!(
                 datastream.equals(DATASTREAM_ALTO) ||
                 datastream.equals(DATASTREAM_OCR)
@@ -154,8 +238,6 @@ public class Foxml {
             throw new IllegalArgumentException("Unsupported datastream: " + datastream + ".");
         }
 
-        Element ocr = Utils.filterDatastreamFromDocument(doc, datastream);
-
         if (ocr == null) {
             throw new IllegalArgumentException("missing " + datastream);
         }
@@ -213,6 +295,15 @@ public class Foxml {
     }
 
     private String getImagePath() {
+        return getImagePath(base, imagePath);
+    }
+
+    /**
+     * @param base aleph base of record
+     * @param imagePath sysno representing path on imageserver
+     * @return imageserver URL of title directory, ending with slash
+     */
+    static String getImagePath(String base, String imagePath) {
         if (base.equals("mrln"))
             return IMAGESERVER_LOCATION + "/" +
                     base + "/" +
@@ -278,10 +369,7 @@ public class Foxml {
 
         cL.setAttribute("TYPE", "URL");
 
-        String refAttrVal = cL.getAttribute("REF");
-        refAttrVal = refAttrVal.replaceAll("localhost:8080", "proarc.staff.mzk.cz:1993");
-
-        String content = getBase64Encoded(refAttrVal);
+        String content = getBase64Encoded(getContentLocationURL(cL.getAttribute("REF")));
 
         NodeList imgFullChildren = e.getChildNodes();
 
@@ -307,11 +395,33 @@ public class Foxml {
         return content;
     }
 
+    /**
+     * fedora does not have connection to proarc fedora, therefore content is downloaded from proarc directly
+     *
+     * @param ref contentLocation REF attribute value
+     * @return URL from which the content can be downloaded
+     */
+    static String getContentLocationURL(String ref) {
+        return ref.replaceAll("localhost:8080", "proarc.staff.mzk.cz:1993");
+    }
+
     public String getBase64Encoded(String imageURL) throws IOException {
-        java.net.URL url = new java.net.URL(imageURL);
-        InputStream is = url.openStream();
-        byte[] bytes = org.apache.commons.io.IOUtils.toByteArray(is);
-        return Base64.getEncoder().encodeToString(bytes);
+        if (contentResolver == null) {
+            java.net.URL url = new java.net.URL(imageURL);
+            InputStream is = url.openStream();
+            byte[] bytes = org.apache.commons.io.IOUtils.toByteArray(is);
+            return Base64.getEncoder().encodeToString(bytes);
+        }
+
+        try (ContentResolver.Content content = contentResolver.open(imageURL)) {
+            if (content.size > MAX_INLINED_SIZE) throw new IOException("Content of " + imageURL + " is too large to be inlined");
+
+            //size is known, so content is read into buffer of its exact size instead of a growing one
+            byte[] bytes = new byte[(int) content.size];
+            org.apache.commons.io.IOUtils.readFully(content.stream, bytes);
+
+            return new String(Base64.getEncoder().encode(bytes), StandardCharsets.US_ASCII);
+        }
     }
 
     public void save(Path toKramerius) throws TransformerException {
@@ -319,8 +429,7 @@ public class Foxml {
 
         krameriusFoxml.setWritable(true, false);
 
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
+        Transformer transformer = XmlFactories.getTransformer();
         DOMSource source = new DOMSource(doc);
         StreamResult streamResult =  new StreamResult(toKramerius.resolve(uuid + ".xml").toFile());
         transformer.transform(source, streamResult);
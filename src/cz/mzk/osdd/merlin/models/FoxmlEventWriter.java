@@ -0,0 +1,272 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Writes XML events in UTF-8 formatted the same way as DOM document saved by identity Transformer in Foxml.save
+ *
+ * XML declaration contains only version and encoding, namespace declarations are written before attributes,
+ * both sorted by name as in DOM, and elements without content are self-closing. Characters are escaped
+ * as by the Transformer, therefore streamed FOXML is byte for byte equal to the one processed using DOM.
+ * DTD and whitespace outside of root element are not written, as they are not part of DOM document.
+ */
+class FoxmlEventWriter implements XMLEventWriter {
+    private final Writer out;
+
+    private NamespaceContext namespaceContext = null;
+    private boolean startTagOpen = false;
+    private int depth = 0;
+
+    /**
+     * @param out stream the document is written into, it is not closed by close()
+     */
+    FoxmlEventWriter(OutputStream out) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void add(XMLEvent event) throws XMLStreamException {
+        try {
+            write(event);
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    @Override
+    public void add(XMLEventReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            add(reader.nextEvent());
+        }
+    }
+
+    private void write(XMLEvent event) throws IOException {
+        switch (event.getEventType()) {
+            case XMLStreamConstants.START_DOCUMENT:
+                out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+                break;
+
+            case XMLStreamConstants.START_ELEMENT:
+                closeStartTag();
+                writeStartTag(event.asStartElement());
+                startTagOpen = true;
+                depth++;
+                break;
+
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+
+                if (startTagOpen) {
+                    out.write("/>");
+                    startTagOpen = false;
+                } else {
+                    out.write("</");
+                    out.write(getName(event.asEndElement().getName()));
+                    out.write('>');
+                }
+                break;
+
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.CDATA:
+                Characters characters = event.asCharacters();
+
+                if (depth == 0 || (characters.getData().isEmpty() && !characters.isCData())) break;
+
+                closeStartTag();
+
+                if (characters.isCData()) {
+                    out.write("<![CDATA[");
+                    out.write(characters.getData());
+                    out.write("]]>");
+                } else {
+                    writeEscaped(characters.getData(), false);
+                }
+                break;
+
+            case XMLStreamConstants.COMMENT:
+                closeStartTag();
+                out.write("<!--");
+                out.write(((Comment) event).getText());
+                out.write("-->");
+                break;
+
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                ProcessingInstruction instruction = (ProcessingInstruction) event;
+
+                closeStartTag();
+                out.write("<?");
+                out.write(instruction.getTarget());
+
+                if (instruction.getData() != null && !instruction.getData().isEmpty()) {
+                    out.write(' ');
+                    out.write(instruction.getData());
+                }
+
+                out.write("?>");
+                break;
+
+            default:
+                //DTD, entity declarations and end of document are not part of saved DOM document
+                break;
+        }
+    }
+
+    private void writeStartTag(StartElement element) throws IOException {
+        Map<String, String> namespaces = new TreeMap<>();
+        Map<String, String> attributes = new TreeMap<>();
+
+        Iterator<?> it = element.getNamespaces();
+
+        while (it.hasNext()) {
+            Namespace namespace = (Namespace) it.next();
+
+            namespaces.put(namespace.getPrefix().isEmpty() ? "xmlns" : "xmlns:" + namespace.getPrefix(), namespace.getNamespaceURI());
+        }
+
+        it = element.getAttributes();
+
+        while (it.hasNext()) {
+            Attribute attribute = (Attribute) it.next();
+
+            attributes.put(getName(attribute.getName()), attribute.getValue());
+        }
+
+        out.write('<');
+        out.write(getName(element.getName()));
+
+        writeAttributes(namespaces);
+        writeAttributes(attributes);
+    }
+
+    private void writeAttributes(Map<String, String> attributes) throws IOException {
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            out.write(' ');
+            out.write(attribute.getKey());
+            out.write("=\"");
+            writeEscaped(attribute.getValue(), true);
+            out.write('"');
+        }
+    }
+
+    private void closeStartTag() throws IOException {
+        if (!startTagOpen) return;
+
+        out.write('>');
+        startTagOpen = false;
+    }
+
+    /**
+     * Escapes characters the same way as Transformer does for UTF-8 output
+     */
+    private void writeEscaped(String text, boolean attribute) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            switch (c) {
+                case '&':
+                    out.write("&amp;");
+                    continue;
+                case '<':
+                    out.write("&lt;");
+                    continue;
+                case '>':
+                    out.write("&gt;");
+                    continue;
+                case '\r':
+                    out.write("&#13;");
+                    continue;
+                case '"':
+                    out.write(attribute ? "&quot;" : "\"");
+                    continue;
+                case '\n':
+                    out.write(attribute ? "&#10;" : "\n");
+                    continue;
+                case '\t':
+                    out.write(attribute ? "&#9;" : "\t");
+                    continue;
+            }
+
+            if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                writeReference(Character.toCodePoint(c, text.charAt(++i)));
+            } else if (!attribute && c >= 0x7F && c <= 0x9F) {
+                writeReference(c);
+            } else {
+                out.write(c);
+            }
+        }
+    }
+
+    private void writeReference(int codePoint) throws IOException {
+        out.write("&#");
+        out.write(Integer.toString(codePoint));
+        out.write(';');
+    }
+
+    /**
+     * @return element or attribute name including prefix, as seen by non namespace aware DOM used in Foxml
+     */
+    private static String getName(QName name) {
+        return name.getPrefix().isEmpty() ? name.getLocalPart() : name.getPrefix() + ":" + name.getLocalPart();
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        flush();
+    }
+
+    @Override
+    public String getPrefix(String uri) {
+        return namespaceContext == null ? null : namespaceContext.getPrefix(uri);
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) {
+        //namespaces are declared only by written events
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) {
+        //namespaces are declared only by written events
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context) {
+        this.namespaceContext = context;
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return namespaceContext;
+    }
+}
@@ -0,0 +1,659 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Streaming counterpart of Foxml
+ *
+ * Applies the same modifications as Foxml.removeFedoraURIFromRoot, Foxml.processDatastream and Foxml.processRDF
+ * in a single pass from input stream to output stream. Only edited datastreamVersion elements without their
+ * binaryContent and rdf:RDF element are held in memory, so memory usage does not depend on size of the document.
+ *
+ * Output is formatted by FoxmlEventWriter, so it is byte for byte equal to the document saved by Foxml.
+ *
+ * Documents which cannot be rewritten in a single pass (e.g. edited datastream is not the first version
+ * of its datastream) are rejected with IllegalStateException and should be processed by Foxml instead.
+ *
+ * Instance is meant to be used for single document.
+ */
+public class FoxmlStreamRewriter {
+    public static final String KRAMERIUS4_PREFIX = "kramerius4";
+    public static final String KRAMERIUS4_NAMESPACE = "http://www.nsdl.org/ontologies/relationships#";
+
+    //multiple of 3, therefore base64 of each chunk can be simply concatenated
+    private static final int BASE64_CHUNK_SIZE = 3 * 16 * 1024;
+
+    private static final AtomicLong rewriteCount = new AtomicLong();
+
+    private final String uuid;
+    private final String imageLocation;
+    private final List<String> datastreams;
+    private final boolean processRdf;
+
+    private final XMLEventFactory events = XmlFactories.getEventFactory();
+
+    private ContentResolver contentResolver = null;
+
+    private Set<String> pending;
+    private List<XMLEvent> deferredDatastream;
+    private boolean rootProcessed;
+    private int descriptionCount;
+    private int tilesUrlCount;
+
+    /**
+     * @param imagePath sysno representing path on imageserver
+     * @param base aleph base of record
+     * @param uuid uuid of processed record
+     * @param datastreams datastreams to be processed in the same way as by Foxml.processDatastream
+     * @param processRdf whether RELS-EXT should be modified as by Foxml.processRDF
+     */
+    public FoxmlStreamRewriter(String imagePath, String base, String uuid, List<String> datastreams, boolean processRdf) {
+        if (imagePath == null || base == null || uuid == null || datastreams == null)
+            throw new NullPointerException("Paramaters cannot be null.");
+
+        this.uuid = uuid;
+        this.imageLocation = Foxml.getImagePath(base, imagePath);
+        this.datastreams = datastreams;
+        this.processRdf = processRdf;
+    }
+
+    /**
+     * @param contentResolver source of OCR content referenced by contentLocation, null when content is downloaded directly
+     */
+    public void setContentResolver(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * Rewrites source FOXML into toKramerius directory as uuid.xml
+     *
+     * Output is written into temporary file first and moved to its place when whole document is processed.
+     *
+     * @param source FOXML exported from ProArc
+     * @param toKramerius output directory
+     */
+    public void rewrite(Path source, Path toKramerius) throws IOException, XMLStreamException {
+        Path target = toKramerius.resolve(uuid + ".xml");
+        Path part = toKramerius.resolve(uuid + ".xml.part");
+
+        try {
+            try (
+                    InputStream in = new BufferedInputStream(Files.newInputStream(source));
+                    OutputStream out = new BufferedOutputStream(Files.newOutputStream(part))
+            ) {
+                rewrite(in, out);
+            }
+
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+
+        target.toFile().setWritable(true, false);
+    }
+
+    public void rewrite(InputStream in, OutputStream out) throws IOException, XMLStreamException {
+        XMLEventReader reader = XmlFactories.getCDataInputFactory().createXMLEventReader(in);
+        XMLEventWriter writer = new FoxmlEventWriter(out);
+
+        pending = new LinkedHashSet<>(datastreams);
+        deferredDatastream = null;
+        rootProcessed = false;
+        descriptionCount = 0;
+        tilesUrlCount = 0;
+
+        try {
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+
+                if (deferredDatastream != null && event.isCharacters() && event.asCharacters().isWhiteSpace()) {
+                    deferredDatastream.add(event);
+                    continue;
+                }
+
+                if (event.isStartElement()) {
+                    processStartElement(reader, writer, event.asStartElement());
+                    continue;
+                }
+
+                flushDeferredDatastream(writer, null);
+                writer.add(event);
+            }
+
+            writer.flush();
+        } finally {
+            reader.close();
+            writer.close();
+        }
+
+        for (String datastream : pending) {
+            if (!(datastream.equals(Foxml.DATASTREAM_ALTO) || datastream.equals(Foxml.DATASTREAM_OCR))) {
+                throw new IllegalStateException("Missing datastream " + datastream);
+            }
+        }
+
+        if (processRdf && descriptionCount != 1) throw new IllegalArgumentException("not containing single rdf:Description");
+
+        rewriteCount.incrementAndGet();
+    }
+
+    /**
+     * @return count of documents successfully rewritten by streaming
+     */
+    public static long getRewriteCount() {
+        return rewriteCount.get();
+    }
+
+    private void processStartElement(XMLEventReader reader, XMLEventWriter writer, StartElement element) throws IOException, XMLStreamException {
+        String name = getName(element);
+
+        switch (name) {
+            case "digitalObject":
+                if (!rootProcessed) {
+                    rootProcessed = true;
+                    writer.add(setAttributes(element, null, "FEDORA_URI"));
+                    return;
+                }
+                break;
+
+            case "datastream":
+                flushDeferredDatastream(writer, null);
+
+                deferredDatastream = new LinkedList<>();
+                deferredDatastream.add(element);
+                return;
+
+            case "datastreamVersion":
+                processDatastreamVersion(reader, writer, element);
+                return;
+
+            case "rdf:RDF":
+                if (processRdf) {
+                    flushDeferredDatastream(writer, null);
+                    processRdf(reader, writer, element);
+                    return;
+                }
+                break;
+
+            case "rdf:Description":
+            case KRAMERIUS4_PREFIX + ":tiles-url":
+                if (processRdf) {
+                    throw new IllegalStateException(name + " outside of rdf:RDF is not supported by streaming rewrite");
+                }
+                break;
+        }
+
+        flushDeferredDatastream(writer, null);
+        writer.add(element);
+    }
+
+    private void processDatastreamVersion(XMLEventReader reader, XMLEventWriter writer, StartElement version) throws IOException, XMLStreamException {
+        String datastream = null;
+        String id = getAttribute(version, "ID");
+
+        for (String candidate : pending) {
+            if (id != null && id.startsWith(candidate)) {
+                datastream = candidate;
+                break;
+            }
+        }
+
+        if (datastream == null) {
+            flushDeferredDatastream(writer, null);
+            writer.add(version);
+            return;
+        }
+
+        pending.remove(datastream);
+
+        if (deferredDatastream == null) {
+            throw new IllegalStateException("Datastream " + datastream + " is not the first version of its datastream, streaming rewrite is not supported");
+        }
+
+        Map<String, String> parentAttributes = new LinkedHashMap<>();
+
+        if (isImgDatastream(datastream)) {
+            parentAttributes.put("CONTROL_GROUP", "E");
+        }
+
+        flushDeferredDatastream(writer, setAttributes((StartElement) deferredDatastream.get(0), parentAttributes, "FEDORA_URI"));
+
+        if (isImgDatastream(datastream)) {
+            processImgVersion(reader, writer, version, datastream);
+        } else if (datastream.equals(Foxml.DATASTREAM_ALTO) || datastream.equals(Foxml.DATASTREAM_OCR)) {
+            processOcrVersion(reader, writer, version);
+        } else {
+            writer.add(version);
+        }
+    }
+
+    private void processImgVersion(XMLEventReader reader, XMLEventWriter writer, StartElement version, String datastream) throws XMLStreamException {
+        List<XMLEvent> children = new LinkedList<>();
+        int binaryContentCount = 0;
+        int contentLocationCount = 0;
+        int depth = 0;
+
+        Map<String, String> location = new LinkedHashMap<>();
+        location.put("TYPE", "URL");
+        location.put("REF", imageLocation + uuid + "/" + getImageName(datastream));
+
+        while (true) {
+            XMLEvent event = reader.nextEvent();
+
+            if (event.isStartElement()) {
+                String name = getName(event.asStartElement());
+
+                if (depth == 0 && name.equals("binaryContent")) {
+                    binaryContentCount++;
+                    skipElement(reader);
+                    continue;
+                }
+
+                if (name.equals("contentLocation")) {
+                    contentLocationCount++;
+                    event = setAttributes(event.asStartElement(), location);
+                }
+
+                depth++;
+            } else if (event.isEndElement()) {
+                if (depth == 0) break;
+
+                depth--;
+            }
+
+            children.add(event);
+        }
+
+        if (binaryContentCount > 1) throw new IllegalArgumentException("contains multiple binaryContent in datastreamVersion");
+        if (contentLocationCount > 1) throw new IllegalArgumentException("not containing single or none contentLocation in datastreamVersion");
+
+        writer.add(removeBinaryContentSize(version, binaryContentCount));
+
+        for (XMLEvent child : children) {
+            writer.add(child);
+        }
+
+        if (contentLocationCount == 0) {
+            writer.add(events.createStartElement(new QName(version.getName().getNamespaceURI(), "contentLocation"), attributes(location), null));
+            writer.add(events.createEndElement(new QName(version.getName().getNamespaceURI(), "contentLocation"), null));
+        }
+
+        writer.add(events.createEndElement(version.getName(), null));
+    }
+
+    private void processOcrVersion(XMLEventReader reader, XMLEventWriter writer, StartElement version) throws IOException, XMLStreamException {
+        List<XMLEvent> children = new LinkedList<>();
+        boolean streamed = false;
+        int binaryContentCount = 0;
+        int contentLocationCount = 0;
+        String ref = null;
+        int depth = 0;
+
+        while (true) {
+            XMLEvent event = reader.nextEvent();
+
+            if (event.isStartElement()) {
+                String name = getName(event.asStartElement());
+
+                if (name.equals("contentLocation")) {
+                    if (streamed || depth != 0) {
+                        throw new IllegalStateException("contentLocation placement in " + getAttribute(version, "ID") + " is not supported by streaming rewrite");
+                    }
+
+                    contentLocationCount++;
+
+                    if (ref == null) ref = getAttribute(event.asStartElement(), "REF");
+
+                    skipElement(reader);
+                    continue;
+                }
+
+                if (depth == 0 && name.equals("binaryContent")) {
+                    if (ref != null) {
+                        binaryContentCount++;
+                        skipElement(reader);
+                        continue;
+                    }
+
+                    // without preceding contentLocation binaryContent is kept, it is copied through instead of being held
+                    if (!streamed) {
+                        writer.add(version);
+                        for (XMLEvent child : children) writer.add(child);
+
+                        streamed = true;
+                    }
+
+                    writer.add(event);
+                    copyElement(reader, writer);
+                    continue;
+                }
+
+                depth++;
+            } else if (event.isEndElement()) {
+                if (depth == 0) break;
+
+                depth--;
+            }
+
+            if (streamed) {
+                writer.add(event);
+            } else {
+                children.add(event);
+            }
+        }
+
+        if (!streamed && contentLocationCount == 0) {
+            writer.add(version);
+            for (XMLEvent child : children) writer.add(child);
+        }
+
+        if (contentLocationCount > 0) {
+            if (binaryContentCount > 1) throw new IllegalArgumentException("contains multiple binaryContent in datastreamVersion");
+            if (contentLocationCount > 1) throw new IllegalArgumentException("contains multiple contentLocation in datastreamVersion");
+
+            writer.add(removeBinaryContentSize(version, binaryContentCount));
+            for (XMLEvent child : children) writer.add(child);
+
+            QName binaryContent = new QName(version.getName().getNamespaceURI(), "binaryContent");
+
+            writer.add(events.createStartElement(binaryContent, null, null));
+            writeBase64(writer, Foxml.getContentLocationURL(ref));
+            writer.add(events.createEndElement(binaryContent, null));
+        }
+
+        writer.add(events.createEndElement(version.getName(), null));
+    }
+
+    private void processRdf(XMLEventReader reader, XMLEventWriter writer, StartElement rdf) throws XMLStreamException {
+        List<XMLEvent> rdfEvents = new ArrayList<>();
+        rdfEvents.add(rdf);
+
+        int depth = 1;
+        int descriptionStart = -1;
+        int descriptionEnd = -1;
+        int descriptionParent = -1;
+        int tiles = 0;
+
+        LinkedList<Integer> openElements = new LinkedList<>();
+        openElements.push(0);
+
+        while (depth > 0) {
+            XMLEvent event = reader.nextEvent();
+            rdfEvents.add(event);
+
+            if (event.isStartElement()) {
+                String name = getName(event.asStartElement());
+
+                if (name.equals("rdf:Description")) {
+                    descriptionCount++;
+                    descriptionStart = rdfEvents.size() - 1;
+                    descriptionParent = openElements.peek();
+                } else if (name.equals(KRAMERIUS4_PREFIX + ":tiles-url")) {
+                    tiles++;
+                }
+
+                openElements.push(rdfEvents.size() - 1);
+                depth++;
+            } else if (event.isEndElement()) {
+                if (openElements.pop() == descriptionStart) {
+                    descriptionEnd = rdfEvents.size() - 1;
+                }
+
+                depth--;
+            }
+        }
+
+        tilesUrlCount += tiles;
+
+        if (descriptionCount > 1) throw new IllegalArgumentException("not containing single rdf:Description");
+        if (tilesUrlCount > 1) throw new IllegalArgumentException("not containing single or none kramerius4:tiles-url");
+        if (descriptionStart == -1) {
+            if (tiles > 0) throw new IllegalStateException("kramerius4:tiles-url outside of rdf:Description is not supported by streaming rewrite");
+
+            for (XMLEvent event : rdfEvents) writer.add(event);
+            return;
+        }
+
+        int skipDepth = 0;
+        int descriptionDepth = -1;
+        depth = 0;
+
+        for (int i = 0; i < rdfEvents.size(); i++) {
+            XMLEvent event = rdfEvents.get(i);
+
+            if (skipDepth > 0) {
+                if (event.isStartElement()) skipDepth++;
+                if (event.isEndElement()) skipDepth--;
+
+                if (skipDepth == 0) writer.add(event);
+
+                continue;
+            }
+
+            if (event.isStartElement()) {
+                StartElement element = event.asStartElement();
+                String name = getName(element);
+
+                depth++;
+
+                if (i == descriptionStart) {
+                    descriptionDepth = depth;
+                }
+
+                if (i == descriptionParent && tiles == 0) {
+                    element = addKramerius4Namespace(element);
+                }
+
+                if (name.equals("kramerius:file") && i > descriptionStart && i < descriptionEnd && depth == descriptionDepth + 1) {
+                    writer.add(element);
+                    writer.add(events.createCharacters(uuid + ".jp2"));
+                    skipDepth = 1;
+                    continue;
+                }
+
+                if (name.equals(KRAMERIUS4_PREFIX + ":tiles-url")) {
+                    writer.add(element);
+                    writer.add(events.createCharacters(imageLocation + uuid));
+                    skipDepth = 1;
+                    continue;
+                }
+
+                writer.add(element);
+                continue;
+            }
+
+            if (i == descriptionEnd && tiles == 0) {
+                writer.add(events.createStartElement(KRAMERIUS4_PREFIX, KRAMERIUS4_NAMESPACE, "tiles-url"));
+                writer.add(events.createCharacters(imageLocation + uuid));
+                writer.add(events.createEndElement(KRAMERIUS4_PREFIX, KRAMERIUS4_NAMESPACE, "tiles-url"));
+            }
+
+            if (event.isEndElement()) depth--;
+
+            writer.add(event);
+        }
+    }
+
+    private void writeBase64(XMLEventWriter writer, String url) throws IOException, XMLStreamException {
+        Base64.Encoder encoder = Base64.getEncoder();
+        byte[] buffer = new byte[BASE64_CHUNK_SIZE];
+
+        try (InputStream is = contentResolver != null ? contentResolver.open(url).stream : new java.net.URL(url).openStream()) {
+            int read;
+
+            while ((read = IOUtils.read(is, buffer)) > 0) {
+                byte[] chunk = read == buffer.length ? buffer : Arrays.copyOf(buffer, read);
+
+                writer.add(events.createCharacters(encoder.encodeToString(chunk)));
+            }
+        }
+    }
+
+    private void flushDeferredDatastream(XMLEventWriter writer, StartElement replacement) throws XMLStreamException {
+        if (deferredDatastream == null) return;
+
+        if (replacement != null) {
+            deferredDatastream.set(0, replacement);
+        }
+
+        for (XMLEvent event : deferredDatastream) {
+            writer.add(event);
+        }
+
+        deferredDatastream = null;
+    }
+
+    private StartElement removeBinaryContentSize(StartElement version, int binaryContentCount) {
+        if (binaryContentCount == 0) {
+            System.err.println("Warning: Element datastreamVersion does not contain binaryContent element");
+            return version;
+        }
+
+        return setAttributes(version, null, "SIZE");
+    }
+
+    private StartElement addKramerius4Namespace(StartElement element) {
+        List<Namespace> namespaces = new LinkedList<>();
+        Iterator<?> it = element.getNamespaces();
+
+        while (it.hasNext()) {
+            Namespace namespace = (Namespace) it.next();
+
+            if (!namespace.getPrefix().equals(KRAMERIUS4_PREFIX)) namespaces.add(namespace);
+        }
+
+        namespaces.add(events.createNamespace(KRAMERIUS4_PREFIX, KRAMERIUS4_NAMESPACE));
+
+        return events.createStartElement(element.getName(), element.getAttributes(), namespaces.iterator());
+    }
+
+    /**
+     * Creates copy of element with modified attributes
+     *
+     * @param element original element
+     * @param set attributes to be set, existing attributes keep their position and new ones are appended
+     * @param remove names of attributes to be removed
+     */
+    private StartElement setAttributes(StartElement element, Map<String, String> set, String... remove) {
+        Map<String, String> toSet = set == null ? new LinkedHashMap<>() : new LinkedHashMap<>(set);
+        List<Attribute> attributes = new LinkedList<>();
+        Iterator<?> it = element.getAttributes();
+
+        while (it.hasNext()) {
+            Attribute attribute = (Attribute) it.next();
+            String name = getName(attribute.getName());
+
+            if (Arrays.asList(remove).contains(name)) continue;
+
+            if (toSet.containsKey(name)) {
+                attributes.add(events.createAttribute(attribute.getName(), toSet.remove(name)));
+            } else {
+                attributes.add(attribute);
+            }
+        }
+
+        for (Map.Entry<String, String> attribute : toSet.entrySet()) {
+            attributes.add(events.createAttribute(attribute.getKey(), attribute.getValue()));
+        }
+
+        return events.createStartElement(element.getName(), attributes.iterator(), element.getNamespaces());
+    }
+
+    private Iterator<Attribute> attributes(Map<String, String> values) {
+        List<Attribute> attributes = new LinkedList<>();
+
+        for (Map.Entry<String, String> attribute : values.entrySet()) {
+            attributes.add(events.createAttribute(attribute.getKey(), attribute.getValue()));
+        }
+
+        return attributes.iterator();
+    }
+
+    private static void skipElement(XMLEventReader reader) throws XMLStreamException {
+        int depth = 1;
+
+        while (depth > 0) {
+            XMLEvent event = reader.nextEvent();
+
+            if (event.isStartElement()) depth++;
+            if (event.isEndElement()) depth--;
+        }
+    }
+
+    private static void copyElement(XMLEventReader reader, XMLEventWriter writer) throws XMLStreamException {
+        int depth = 1;
+
+        while (depth > 0) {
+            XMLEvent event = reader.nextEvent();
+
+            if (event.isStartElement()) depth++;
+            if (event.isEndElement()) depth--;
+
+            writer.add(event);
+        }
+    }
+
+    private static boolean isImgDatastream(String datastream) {
+        return datastream.equals(Foxml.DATASTREAM_IMG_FULL) ||
+                datastream.equals(Foxml.DATASTREAM_IMG_PREVIEW) ||
+                datastream.equals(Foxml.DATASTREAM_IMG_THUMB);
+    }
+
+    private static String getImageName(String datastream) {
+        switch (datastream) {
+            case Foxml.DATASTREAM_IMG_FULL:
+                return Foxml.DATASTREAM_FILENAME_IMG_FULL;
+            case Foxml.DATASTREAM_IMG_PREVIEW:
+                return Foxml.DATASTREAM_FILENAME_IMG_PREVIEW;
+            case Foxml.DATASTREAM_IMG_THUMB:
+                return Foxml.DATASTREAM_FILENAME_IMG_THUMB;
+            default:
+                throw new IllegalArgumentException("Unsupported img datastream: " + datastream + ".");
+        }
+    }
+
+    private static String getAttribute(StartElement element, String name) {
+        Attribute attribute = element.getAttributeByName(new QName(name));
+
+        return attribute == null ? null : attribute.getValue();
+    }
+
+    /**
+     * @return element name including prefix, as seen by non namespace aware DOM used in Foxml
+     */
+    private static String getName(StartElement element) {
+        return getName(element.getName());
+    }
+
+    private static String getName(QName name) {
+        return name.getPrefix().isEmpty() ? name.getLocalPart() : name.getPrefix() + ":" + name.getLocalPart();
+    }
+}
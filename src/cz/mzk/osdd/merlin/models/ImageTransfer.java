@@ -0,0 +1,253 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transfers page images into imageserver storage using the cheapest available strategy
+ *
+ * In AUTO mode, images on the same filesystem as the target are reflinked (copy-on-write clone), images which cannot
+ * be reflinked are copied. Images smaller than REFLINK_MIN_BYTES are always copied, cloning them costs more. Hardlinks are created only in HARDLINK mode, because hardlinked image shares permissions
+ * with the input image. Input images are kept in all modes except MOVE.
+ * Strategy which fails on a filesystem is not tried again for that filesystem and the next one is used instead.
+ * Reflink is given up only when the filesystem does not support it, other failures copy the single image.
+ *
+ * SHA-256 of each copied image is computed while it is copied. Reflinked, hardlinked or moved images are not read,
+ * their content is the content of the input image.
+ */
+public class ImageTransfer implements Closeable {
+
+    /**
+     * Images smaller than this are copied instead of reflinked
+     */
+    public static final long REFLINK_MIN_BYTES = 1024 * 1024;
+
+    public enum Mode {
+        /** reflink on the same filesystem, copy otherwise */
+        AUTO,
+        /** always copy */
+        COPY,
+        /** reflink on the same filesystem, copy otherwise */
+        REFLINK,
+        /** hardlink on the same filesystem, copy otherwise, input and output share permissions */
+        HARDLINK,
+        /** atomic move on the same filesystem, copy otherwise, input image is consumed */
+        MOVE;
+
+        /**
+         * @param name case insensitive name of mode
+         */
+        public static Mode parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown image transfer mode: " + name + ", use auto, copy, reflink, hardlink or move");
+            }
+        }
+    }
+
+    public enum Strategy {
+        MOVE, REFLINK, HARDLINK, COPY;
+
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Performed transfer of single image
+     */
+    public static class Result {
+        public final Strategy strategy;
+        /** SHA-256 of copied image, null when image was not copied */
+        public final String checksum;
+        public final long bytes;
+        public final long nanos;
+
+        private Result(Strategy strategy, String checksum, long bytes, long nanos) {
+            this.strategy = strategy;
+            this.checksum = checksum;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return strategy.getName() + ", " + formatThroughput(bytes, nanos);
+        }
+    }
+
+    private final Mode mode;
+    private final Reflinker reflinker = new Reflinker();
+
+    private final Map<Path, FileStore> stores = new ConcurrentHashMap<>();
+    private final Set<FileStore> noReflink = ConcurrentHashMap.newKeySet();
+    private final Set<FileStore> noHardlink = ConcurrentHashMap.newKeySet();
+
+    private final Map<Strategy, AtomicLong> counts = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    public ImageTransfer(Mode mode) {
+        if (mode == null) throw new NullPointerException("Transfer mode cannot be null");
+
+        this.mode = mode;
+
+        for (Strategy strategy : Strategy.values()) {
+            counts.put(strategy, new AtomicLong());
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Transfers image into target path
+     *
+     * @param source input image
+     * @param target path of transferred image, its directory must exist
+     * @return strategy used with checksum of copied image, size and duration of the transfer
+     * @throws FileAlreadyExistsException when target already exists
+     */
+    public Result transfer(Path source, Path target) throws IOException {
+        if (Files.exists(target)) throw new FileAlreadyExistsException(target.toString());
+
+        long size = Files.size(source);
+        long start = System.nanoTime();
+
+        Strategy strategy = linkOrMove(source, target, size);
+        String checksum = null;
+
+        if (strategy == null) {
+            strategy = Strategy.COPY;
+            checksum = copy(source, target);
+        }
+
+        long duration = System.nanoTime() - start;
+
+        counts.get(strategy).incrementAndGet();
+        bytes.addAndGet(size);
+        nanos.addAndGet(duration);
+
+        return new Result(strategy, checksum, size, duration);
+    }
+
+    public long getCount(Strategy strategy) {
+        return counts.get(strategy).get();
+    }
+
+    /**
+     * @return summary of strategies used and overall throughput, null when nothing was transferred
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        long total = 0;
+
+        for (Strategy strategy : Strategy.values()) {
+            long count = getCount(strategy);
+            total += count;
+
+            if (count > 0) {
+                sb.append(sb.length() == 0 ? "" : ", ").append(count).append(' ').append(strategy.getName());
+            }
+        }
+
+        if (total == 0) return null;
+
+        return sb + " (" + formatThroughput(bytes.get(), nanos.get()) + ", time summed over workers)";
+    }
+
+    /**
+     * @return strategy used or null when image has to be copied
+     */
+    private Strategy linkOrMove(Path source, Path target, long size) throws IOException {
+        FileStore sourceStore = getStore(source.toAbsolutePath().getParent());
+        FileStore targetStore = getStore(target.toAbsolutePath().getParent());
+
+        if (sourceStore.equals(targetStore)) {
+            if (mode == Mode.MOVE) {
+                try {
+                    Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+                    return Strategy.MOVE;
+                } catch (AtomicMoveNotSupportedException e) {
+                    //copy below
+                }
+            }
+
+            if ((mode == Mode.AUTO || mode == Mode.REFLINK) && size >= REFLINK_MIN_BYTES && !noReflink.contains(targetStore)) {
+                Reflinker.Result result = reflinker.reflink(source, target);
+
+                if (result == Reflinker.Result.CLONED) return Strategy.REFLINK;
+                if (result == Reflinker.Result.UNSUPPORTED) noReflink.add(targetStore);
+            }
+
+            if (mode == Mode.HARDLINK && !noHardlink.contains(targetStore)) {
+                try {
+                    Files.createLink(target, source);
+                    return Strategy.HARDLINK;
+                } catch (FileAlreadyExistsException e) {
+                    throw e;
+                } catch (IOException | UnsupportedOperationException e) {
+                    noHardlink.add(targetStore);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return SHA-256 of copied content
+     */
+    private static String copy(Path source, Path target) throws IOException {
+        try {
+            return Checksums.copyWithSha256(source, target);
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    /**
+     * Stops process cloning images, it is started again by next reflink
+     */
+    @Override
+    public void close() {
+        reflinker.close();
+    }
+
+    private FileStore getStore(Path directory) throws IOException {
+        FileStore store = stores.get(directory);
+
+        if (store == null) {
+            store = Files.getFileStore(directory);
+            stores.put(directory, store);
+        }
+
+        return store;
+    }
+
+    private static String formatThroughput(long bytes, long nanos) {
+        double mb = bytes / (1024.0 * 1024.0);
+        double seconds = nanos / (double) TimeUnit.SECONDS.toNanos(1);
+
+        if (seconds <= 0) return String.format(Locale.ROOT, "%.1f MB", mb);
+
+        return String.format(Locale.ROOT, "%.1f MB in %.3f s, %.1f MB/s", mb, seconds, mb / seconds);
+    }
+}
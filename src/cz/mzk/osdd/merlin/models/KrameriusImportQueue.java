@@ -0,0 +1,347 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends Kramerius import requests asynchronously, so slow Kramerius does not stall title processing
+ *
+ * Titles submitted within the same window are dispatched together and titles submitted repeatedly are requested once.
+ * Count of requests sent at the same time is limited. Requests which fail temporarily are retried with exponential
+ * backoff. Titles not requested yet are stored in pending file and requested again when queue is created next time.
+ * When process poller is set, planned import processes are tracked by it and new requests wait while it is full.
+ */
+public class KrameriusImportQueue implements AutoCloseable {
+    public static final int DEFAULT_MAX_REQUESTS = 2;
+    public static final int DEFAULT_TIMEOUT_SECONDS = 30;
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = 1000;
+    public static final long DEFAULT_MAX_RETRY_DELAY_MILLIS = 60000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 8;
+
+    private final String address;
+    private final String credentials;
+    private final Path pendingFile;
+    private final int timeout;
+    private final long windowMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+    private volatile long maxRetryDelayMillis = DEFAULT_MAX_RETRY_DELAY_MILLIS;
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private volatile KrameriusProcessPoller processPoller = null;
+    private volatile Metrics metrics = null;
+
+    //titles not requested yet, including those which exhausted their attempts in this run
+    private final Set<String> pending = new LinkedHashSet<>();
+    //titles waiting for dispatch or being requested
+    private final Set<String> active = new LinkedHashSet<>();
+    private final Set<String> window = new LinkedHashSet<>();
+    private final Map<String, Long> submitted = new HashMap<>();
+    private boolean dispatchScheduled = false;
+    private boolean closed = false;
+
+    private final AtomicLong requestedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * @param address http address of Kramerius
+     * @param credentials login:password of Kramerius user
+     * @param pendingFile file storing titles not requested yet, null when they are not persisted
+     * @param maxRequests count of requests sent at the same time, must be positive
+     * @param timeoutSeconds connect and read timeout of single request, must be positive
+     * @param windowMillis time for which submitted titles are collected before dispatch, 0 dispatches immediately
+     */
+    public KrameriusImportQueue(String address, String credentials, Path pendingFile, int maxRequests, int timeoutSeconds, long windowMillis) throws IOException {
+        if (address == null) throw new NullPointerException("Kramerius address cannot be null");
+        if (credentials == null) throw new NullPointerException("Kramerius credentials cannot be null");
+        if (maxRequests < 1) throw new IllegalArgumentException("Kramerius request count must be positive number");
+        if (timeoutSeconds < 1) throw new IllegalArgumentException("Kramerius timeout must be positive number");
+        if (windowMillis < 0) throw new IllegalArgumentException("Dispatch window cannot be negative");
+
+        this.address = address;
+        this.credentials = credentials;
+        this.pendingFile = pendingFile;
+        this.timeout = (int) TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        this.windowMillis = windowMillis;
+        this.scheduler = Executors.newScheduledThreadPool(maxRequests, new DaemonThreadFactory("merlin-kramerius-"));
+
+        if (pendingFile != null && Files.exists(pendingFile)) {
+            for (String line : Files.readAllLines(pendingFile, StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) submit(line.trim());
+            }
+
+            synchronized (this) {
+                if (!pending.isEmpty()) System.out.println("Requesting " + pending.size() + " Kramerius imports pending from previous run.");
+            }
+        }
+    }
+
+    /**
+     * @param initialDelayMillis delay before first retry, doubled by each following retry
+     * @param maxDelayMillis maximal delay between retries
+     * @param maxAttempts count of attempts after which title is left pending for next run
+     */
+    public void setRetryPolicy(long initialDelayMillis, long maxDelayMillis, int maxAttempts) {
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) throw new IllegalArgumentException("Invalid retry delays");
+        if (maxAttempts < 1) throw new IllegalArgumentException("Attempt count must be positive number");
+
+        this.retryDelayMillis = initialDelayMillis;
+        this.maxRetryDelayMillis = maxDelayMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @param processPoller tracker of planned imports, null when imports are not tracked
+     */
+    public void setProcessPoller(KrameriusProcessPoller processPoller) {
+        this.processPoller = processPoller;
+    }
+
+    /**
+     * @return tracker of planned imports or null when imports are not tracked
+     */
+    public KrameriusProcessPoller getProcessPoller() {
+        return processPoller;
+    }
+
+    /**
+     * @param metrics receiver of request times, null when requests are not timed
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queues import of title, title is stored in pending file before return
+     *
+     * @param parentUUID uuid of title exported into Kramerius import directory
+     */
+    public synchronized void submit(String parentUUID) throws IOException {
+        if (closed) throw new IllegalStateException("Kramerius import queue is closed");
+
+        if (!active.add(parentUUID)) {
+            coalescedCount.incrementAndGet();
+            return;
+        }
+
+        if (pending.add(parentUUID)) savePending();
+
+        submitted.put(parentUUID, System.currentTimeMillis());
+
+        window.add(parentUUID);
+
+        if (!dispatchScheduled) {
+            dispatchScheduled = true;
+            scheduler.schedule(this::dispatch, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Dispatches titles waiting in window and waits until all submitted titles are requested or their attempts run out
+     */
+    public void awaitCompletion() throws InterruptedException {
+        dispatch();
+
+        synchronized (this) {
+            while (!active.isEmpty()) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * @return count of titles successfully requested
+     */
+    public long getRequestedCount() {
+        return requestedCount.get();
+    }
+
+    /**
+     * @return count of submissions of titles which were already queued
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * @return count of titles rejected by Kramerius or left pending after their attempts ran out
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return count of titles waiting for dispatch or being requested
+     */
+    public synchronized int getQueuedCount() {
+        return active.size();
+    }
+
+    /**
+     * Waits until all submitted titles are requested and stops workers, tracking of imports stops as well
+     */
+    @Override
+    public void close() {
+        try {
+            awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            closed = true;
+        }
+
+        scheduler.shutdownNow();
+
+        if (processPoller != null) processPoller.close();
+    }
+
+    private void dispatch() {
+        List<String> batch;
+
+        synchronized (this) {
+            batch = new ArrayList<>(window);
+            window.clear();
+            dispatchScheduled = false;
+        }
+
+        if (batch.size() > 1) System.out.println("Dispatching " + batch.size() + " Kramerius import requests.");
+
+        for (String uuid : batch) {
+            scheduler.execute(() -> send(uuid, 1));
+        }
+    }
+
+    private void send(String uuid, int attempt) {
+        KrameriusProcessPoller poller = processPoller;
+        String response;
+
+        try {
+            if (poller != null) poller.reserve();
+        } catch (InterruptedException e) {
+            //queue is being closed
+            Thread.currentThread().interrupt();
+            finish(uuid, false);
+            return;
+        }
+
+        Metrics timed = metrics;
+        long start = System.nanoTime();
+
+        try {
+            response = Utils.requestKrameriusImport(uuid, address, credentials, timeout);
+        } catch (IOException | RuntimeException e) {
+            if (poller != null) poller.cancel();
+            if (timed != null) timed.error(Metrics.ErrorType.KRAMERIUS_IMPORT);
+
+            failed(uuid, attempt, e);
+            return;
+        } finally {
+            if (timed != null) timed.record(Metrics.Stage.KRAMERIUS_IMPORT, start);
+        }
+
+        System.out.println("Kramerius import of " + uuid + " requested, response: " + response);
+
+        if (poller != null) track(poller, uuid, response);
+
+        requestedCount.incrementAndGet();
+        finish(uuid, true);
+    }
+
+    /**
+     * Retries request which failed temporarily, title rejected by Kramerius is removed from pending titles
+     */
+    private void failed(String uuid, int attempt, Exception failure) {
+        boolean temporary = failure instanceof IOException;
+
+        if (temporary && attempt < maxAttempts) {
+            long delay = Math.min(maxRetryDelayMillis, retryDelayMillis << Math.min(attempt - 1, 30));
+
+            System.err.println("Kramerius import of " + uuid + " failed (" + failure.getMessage() + "), retrying in " + delay + " ms.");
+
+            retryCount.incrementAndGet();
+            scheduler.schedule(() -> send(uuid, attempt + 1), delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        failedCount.incrementAndGet();
+
+        if (temporary) {
+            System.err.println("Kramerius import of " + uuid + " failed after " + attempt + " attempts, it is left pending for next run: " + failure.getMessage());
+        } else {
+            System.err.println("Kramerius rejected import of " + uuid + ": " + failure.getMessage());
+        }
+
+        finish(uuid, !temporary);
+    }
+
+    private void track(KrameriusProcessPoller poller, String uuid, String response) {
+        String processUuid = KrameriusProcessPoller.getProcessUuid(response);
+
+        if (processUuid == null) {
+            System.err.println("Kramerius response to import of " + uuid + " does not contain process uuid, import is not tracked.");
+            poller.cancel();
+            return;
+        }
+
+        Long start;
+
+        synchronized (this) {
+            start = submitted.get(uuid);
+        }
+
+        poller.track(uuid, processUuid, start != null ? start : System.currentTimeMillis());
+    }
+
+    /**
+     * @param done when false, title stays in pending file
+     */
+    private synchronized void finish(String uuid, boolean done) {
+        if (done && pending.remove(uuid)) {
+            try {
+                savePending();
+            } catch (IOException e) {
+                System.err.println("Could not update pending Kramerius imports: " + e.getMessage());
+            }
+        }
+
+        active.remove(uuid);
+        submitted.remove(uuid);
+        notifyAll();
+    }
+
+    private void savePending() throws IOException {
+        if (pendingFile == null) return;
+
+        Path tmp = pendingFile.resolveSibling(pendingFile.getFileName() + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (String uuid : pending) {
+                writer.write(uuid + "\n");
+            }
+        }
+
+        Files.move(tmp, pendingFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,294 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tracks Kramerius import processes until they finish, so time from export to searchable title is known
+ *
+ * All processes are polled by a single thread. Process is polled often while its state changes and less
+ * often while it stays the same. Count of unfinished imports is limited, so new imports wait
+ * while Kramerius is busy with previous ones.
+ */
+public class KrameriusProcessPoller implements AutoCloseable {
+    public static final int DEFAULT_MAX_RUNNING = 4;
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_MAX_INTERVAL_MILLIS = 30000;
+
+    /** state of process which could not be polled */
+    public static final String UNKNOWN = "UNKNOWN";
+
+    private static final int MAX_POLL_FAILURES = 10;
+
+    //indexing planned by import runs in the same batch, so import is searchable once its batch finishes
+    private static final Set<String> FINAL_STATES = new HashSet<>(Arrays.asList("FINISHED", "WARNING", "FAILED", "KILLED", "BATCH_FINISHED", "BATCH_FAILED", UNKNOWN));
+    private static final Set<String> SUCCESSFUL_STATES = new HashSet<>(Arrays.asList("FINISHED", "WARNING", "BATCH_FINISHED"));
+
+    private static final Pattern UUID_FIELD = Pattern.compile("\"uuid\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern STATE_FIELD = Pattern.compile("\"state\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern BATCH_STATE_FIELD = Pattern.compile("\"batchState\"\\s*:\\s*\"([^\"]+)\"");
+
+    /**
+     * Final state of single import
+     */
+    public static class Result {
+        public final String title;
+        public final String processUuid;
+        public final String state;
+        public final long startMillis;
+        public final long endMillis;
+
+        private Result(String title, String processUuid, String state, long startMillis, long endMillis) {
+            this.title = title;
+            this.processUuid = processUuid;
+            this.state = state;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+
+        public boolean isSuccessful() {
+            return SUCCESSFUL_STATES.contains(state);
+        }
+
+        public long getLatencyMillis() {
+            return endMillis - startMillis;
+        }
+    }
+
+    private class Process {
+        private final String title;
+        private final String uuid;
+        private final long startMillis;
+
+        private String state = null;
+        private long interval = minIntervalMillis;
+        private int failures = 0;
+
+        private Process(String title, String uuid, long startMillis) {
+            this.title = title;
+            this.uuid = uuid;
+            this.startMillis = startMillis;
+        }
+    }
+
+    private final String address;
+    private final String credentials;
+    private final int timeout;
+    private final int maxRunning;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("merlin-kramerius-poller-"));
+
+    private volatile long minIntervalMillis = DEFAULT_MIN_INTERVAL_MILLIS;
+    private volatile long maxIntervalMillis = DEFAULT_MAX_INTERVAL_MILLIS;
+
+    private int running = 0;
+    private final List<Result> results = new ArrayList<>();
+
+    /**
+     * @param address http address of Kramerius
+     * @param credentials login:password of Kramerius user
+     * @param timeoutSeconds connect and read timeout of single request, must be positive
+     * @param maxRunning count of unfinished imports after which new imports wait, must be positive
+     */
+    public KrameriusProcessPoller(String address, String credentials, int timeoutSeconds, int maxRunning) {
+        if (address == null) throw new NullPointerException("Kramerius address cannot be null");
+        if (credentials == null) throw new NullPointerException("Kramerius credentials cannot be null");
+        if (timeoutSeconds < 1) throw new IllegalArgumentException("Kramerius timeout must be positive number");
+        if (maxRunning < 1) throw new IllegalArgumentException("Count of running imports must be positive number");
+
+        this.address = address;
+        this.credentials = credentials;
+        this.timeout = (int) TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        this.maxRunning = maxRunning;
+    }
+
+    /**
+     * @param minMillis interval used while process state changes
+     * @param maxMillis interval reached while process state stays the same
+     */
+    public void setPollIntervals(long minMillis, long maxMillis) {
+        if (minMillis < 1 || maxMillis < minMillis) throw new IllegalArgumentException("Invalid poll intervals");
+
+        this.minIntervalMillis = minMillis;
+        this.maxIntervalMillis = maxMillis;
+    }
+
+    /**
+     * @param response response of Kramerius to planning a process
+     * @return uuid of planned process or null when response does not contain it
+     */
+    public static String getProcessUuid(String response) {
+        return getField(UUID_FIELD, response);
+    }
+
+    /**
+     * @param response JSON description of process
+     * @return batch state when process is part of a batch, process state otherwise
+     */
+    public static String getState(String response) {
+        String batchState = getField(BATCH_STATE_FIELD, response);
+
+        if (batchState != null && batchState.startsWith("BATCH_")) return batchState;
+
+        return getField(STATE_FIELD, response);
+    }
+
+    /**
+     * Reserves place for new import, blocks while count of unfinished imports reaches the limit
+     *
+     * Reservation is used by track or returned by cancel when import was not planned.
+     */
+    public synchronized void reserve() throws InterruptedException {
+        while (running >= maxRunning) {
+            wait();
+        }
+
+        running++;
+    }
+
+    public synchronized void cancel() {
+        running--;
+        notifyAll();
+    }
+
+    /**
+     * Starts polling of import process, place for it must be reserved
+     *
+     * @param title uuid of imported title
+     * @param processUuid uuid of Kramerius process
+     * @param startMillis time since which the latency of import is measured
+     */
+    public synchronized void track(String title, String processUuid, long startMillis) {
+        Process process = new Process(title, processUuid, startMillis);
+        scheduler.schedule(() -> poll(process), process.interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits until all tracked imports reach final state
+     */
+    public synchronized void awaitCompletion() throws InterruptedException {
+        while (running > 0) {
+            wait();
+        }
+    }
+
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    public synchronized List<Result> getResults() {
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * @return count of imports by final state, mean latency and throughput, null when no import finished
+     */
+    public synchronized String getSummary() {
+        if (results.isEmpty()) return null;
+
+        long successful = 0;
+        long latency = 0;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+
+        for (Result result : results) {
+            if (result.isSuccessful()) successful++;
+
+            latency += result.getLatencyMillis();
+            first = Math.min(first, result.startMillis);
+            last = Math.max(last, result.endMillis);
+        }
+
+        double minutes = Math.max(1, last - first) / (double) TimeUnit.MINUTES.toMillis(1);
+
+        return String.format(Locale.ROOT, "%d finished, %d failed, mean latency %.1f s, %.1f titles per minute",
+                successful,
+                results.size() - successful,
+                latency / (double) results.size() / 1000,
+                results.size() / minutes);
+    }
+
+    /**
+     * Stops polling, imports which did not finish are not reported
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+
+        synchronized (this) {
+            if (running > 0) System.out.println("Stopped tracking of " + running + " unfinished Kramerius imports.");
+        }
+    }
+
+    private void poll(Process process) {
+        String state;
+
+        try {
+            state = getState(Utils.getKrameriusProcess(process.uuid, address, credentials, timeout));
+            process.failures = 0;
+        } catch (IOException e) {
+            if (++process.failures >= MAX_POLL_FAILURES) {
+                System.err.println("Could not poll Kramerius process " + process.uuid + ": " + e.getMessage());
+                finish(process, UNKNOWN);
+                return;
+            }
+
+            schedule(process, false);
+            return;
+        } catch (RuntimeException e) {
+            System.err.println("Could not poll Kramerius process " + process.uuid + ": " + e.getMessage());
+            finish(process, UNKNOWN);
+            return;
+        }
+
+        if (state == null) state = UNKNOWN;
+
+        if (FINAL_STATES.contains(state)) {
+            finish(process, state);
+            return;
+        }
+
+        boolean changed = !state.equals(process.state);
+        process.state = state;
+
+        schedule(process, changed);
+    }
+
+    /**
+     * @param changed when true, interval is reset, otherwise it is doubled
+     */
+    private void schedule(Process process, boolean changed) {
+        process.interval = changed ? minIntervalMillis : Math.min(maxIntervalMillis, process.interval * 2);
+
+        scheduler.schedule(() -> poll(process), process.interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void finish(Process process, String state) {
+        Result result = new Result(process.title, process.uuid, state, process.startMillis, System.currentTimeMillis());
+
+        System.out.println(String.format(Locale.ROOT, "Kramerius import of %s %s in %.1f s.", result.title, state, result.getLatencyMillis() / 1000.0));
+
+        synchronized (this) {
+            results.add(result);
+            running--;
+            notifyAll();
+        }
+    }
+
+    private static String getField(Pattern field, String json) {
+        if (json == null) return null;
+
+        Matcher matcher = field.matcher(json);
+
+        return matcher.find() ? matcher.group(1) : null;
+    }
+}
@@ -0,0 +1,127 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads content from local directories mirroring ProArc URLs, e.g. shared mount of ProArc storage
+ *
+ * URL starting with mapped prefix is resolved into mapped directory by the rest of URL, the longest prefix wins.
+ * Content which is not mapped or whose file is missing is opened by remote resolver.
+ */
+public class LocalContentResolver implements ContentResolver {
+    private final List<Pair<String, Path>> mappings = new ArrayList<>();
+    private final ContentFetcher remote;
+
+    private final AtomicLong localCount = new AtomicLong();
+    private final AtomicLong localBytes = new AtomicLong();
+    private final AtomicLong remoteCount = new AtomicLong();
+
+    /**
+     * @param mappings URL prefixes with directories containing their content
+     * @param remote resolver of content not available locally
+     */
+    public LocalContentResolver(Map<String, Path> mappings, ContentFetcher remote) {
+        if (mappings == null) throw new NullPointerException("Mappings cannot be null");
+        if (remote == null) throw new NullPointerException("Remote resolver cannot be null");
+
+        for (Map.Entry<String, Path> mapping : mappings.entrySet()) {
+            this.mappings.add(Pair.create(mapping.getKey(), mapping.getValue().toAbsolutePath().normalize()));
+        }
+
+        this.mappings.sort(Comparator.comparingInt((Pair<String, Path> mapping) -> mapping.first.length()).reversed());
+        this.remote = remote;
+    }
+
+    /**
+     * @return local file of URL or null when URL is not mapped or its file does not exist
+     */
+    public Path resolve(String url) {
+        for (Pair<String, Path> mapping : mappings) {
+            if (!url.startsWith(mapping.first)) continue;
+
+            String rest = url.substring(mapping.first.length());
+
+            while (rest.startsWith("/")) {
+                rest = rest.substring(1);
+            }
+
+            Path file;
+
+            try {
+                //'+' is a literal in URL path, URLDecoder would turn it into space
+                file = mapping.second.resolve(URLDecoder.decode(rest.replace("+", "%2B"), "UTF-8")).normalize();
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                return null;
+            }
+
+            //URL escaping mapped directory is not resolved locally
+            if (!file.startsWith(mapping.second) || !Files.isRegularFile(file)) return null;
+
+            return file;
+        }
+
+        return null;
+    }
+
+    @Override
+    public Content open(String url) throws IOException {
+        Path file = resolve(url);
+
+        if (file != null) {
+            try {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                long size = channel.size();
+
+                localCount.incrementAndGet();
+                localBytes.addAndGet(size);
+
+                return new Content(size, Channels.newInputStream(channel));
+            } catch (NoSuchFileException e) {
+                //removed meanwhile
+            }
+        }
+
+        remoteCount.incrementAndGet();
+
+        return remote.open(url);
+    }
+
+    /**
+     * Prefetches only content which is not available locally
+     */
+    @Override
+    public void prefetch(Path foxml) {
+        remote.prefetch(foxml, url -> resolve(url) == null);
+    }
+
+    /**
+     * @return count of contents read from local directories
+     */
+    public long getLocalCount() {
+        return localCount.get();
+    }
+
+    public long getLocalBytes() {
+        return localBytes.get();
+    }
+
+    /**
+     * @return count of contents opened by remote resolver
+     */
+    public long getRemoteCount() {
+        return remoteCount.get();
+    }
+}
@@ -0,0 +1,440 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times processing stages of a single run and reports them as JSON summary
+ *
+ * Each stage records count, total time, transferred bytes and histogram of durations, from which percentiles are
+ * computed with error below 13 %. Times of stages running on several workers are summed over workers,
+ * pages per second are computed from time elapsed since metrics were created. Titles and pages being processed
+ * and errors by their type are counted as well. Summary is written when metrics are closed and periodically
+ * when snapshot interval is set.
+ */
+public class Metrics implements AutoCloseable {
+
+    public enum Stage {
+        /**
+         * Listing of input directories and creation of titles, includes classification
+         */
+        DISCOVERY("discovery"),
+        /**
+         * Scan of FOXML deciding whether it is a page
+         */
+        CLASSIFICATION("classification"),
+        ALEPH_LOOKUP("alephLookup"),
+        /**
+         * Loading of FOXML into DOM
+         */
+        PARSE("parse"),
+        /**
+         * Rewriting of datastreams, streaming rewrite reads and writes FOXML in the same pass
+         */
+        REWRITE("rewrite"),
+        /**
+         * Writing of DOM into output FOXML
+         */
+        SERIALIZE("serialize"),
+        IMAGE_COPY("imageCopy"),
+        /**
+         * Hashing of reflinked, hardlinked or moved image, whose checksum is not computed by the transfer
+         */
+        IMAGE_CHECKSUM("imageChecksum"),
+        PERMISSIONS("permissions"),
+        KRAMERIUS_IMPORT("krameriusImport");
+
+        private final String name;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public enum ErrorType {
+        /**
+         * Title which was not processed
+         */
+        TITLE("title"),
+        /**
+         * Page terminating processing of its title, e.g. missing part or FOXML which cannot be saved
+         */
+        PAGE("page"),
+        /**
+         * FOXML which could not be rewritten by streaming and was processed using DOM
+         */
+        STREAMING_REWRITE("streamingRewrite"),
+        ALEPH_LOOKUP("alephLookup"),
+        /**
+         * Failed attempt of Kramerius import request
+         */
+        KRAMERIUS_IMPORT("krameriusImport");
+
+        private final String name;
+
+        ErrorType(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Durations of single stage
+     */
+    public static class Timer {
+        //values below 8 ns have their own buckets, each following power of two is split into 8 buckets
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long durationNanos, long transferredBytes) {
+            long duration = Math.max(0, durationNanos);
+
+            buckets.incrementAndGet(bucket(duration));
+            count.increment();
+            nanos.add(duration);
+            bytes.add(transferredBytes);
+            max.accumulateAndGet(duration, Math::max);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return time summed over all records
+         */
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getMaxNanos() {
+            return max.get();
+        }
+
+        /**
+         * @param quantile between 0 and 1, e.g. 0.99
+         * @return upper bound of duration of given quantile of records, 0 when nothing was recorded
+         */
+        public long getPercentileNanos(double quantile) {
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+
+            if (total == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+
+                if (seen >= rank) return Math.min(upperBound(i), getMaxNanos());
+            }
+
+            return getMaxNanos();
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            long lower = (SUB_BUCKETS + bucket % SUB_BUCKETS) * width;
+
+            return lower + width - 1;
+        }
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final long startNanos = System.nanoTime();
+    private final Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+    private final Map<ErrorType, LongAdder> errors = new EnumMap<>(ErrorType.class);
+
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder succeededTitles = new LongAdder();
+    private final LongAdder failedTitles = new LongAdder();
+    private final LongAdder titlesInFlight = new LongAdder();
+    private final LongAdder pagesInFlight = new LongAdder();
+
+    private Path reportFile = null;
+    private ScheduledExecutorService snapshots = null;
+
+    public Metrics() {
+        for (Stage stage : Stage.values()) {
+            timers.put(stage, new Timer());
+        }
+
+        for (ErrorType error : ErrorType.values()) {
+            errors.put(error, new LongAdder());
+        }
+    }
+
+    /**
+     * @param startNanos System.nanoTime() taken when stage started
+     */
+    public void record(Stage stage, long startNanos) {
+        record(stage, startNanos, 0);
+    }
+
+    /**
+     * @param startNanos System.nanoTime() taken when stage started
+     * @param bytes count of bytes read or written by stage
+     */
+    public void record(Stage stage, long startNanos, long bytes) {
+        timers.get(stage).record(System.nanoTime() - startNanos, bytes);
+    }
+
+    public Timer getTimer(Stage stage) {
+        return timers.get(stage);
+    }
+
+    public void error(ErrorType error) {
+        errors.get(error).increment();
+    }
+
+    public long getErrorCount(ErrorType error) {
+        return errors.get(error).sum();
+    }
+
+    /**
+     * Marks title as being processed until titleStopped is called
+     */
+    public void titleStarted() {
+        titlesInFlight.increment();
+    }
+
+    public void titleStopped() {
+        titlesInFlight.decrement();
+    }
+
+    public long getTitlesInFlight() {
+        return titlesInFlight.sum();
+    }
+
+    /**
+     * Marks page FOXML as being processed until pageStopped is called
+     */
+    public void pageStarted() {
+        pagesInFlight.increment();
+    }
+
+    public void pageStopped() {
+        pagesInFlight.decrement();
+    }
+
+    public long getPagesInFlight() {
+        return pagesInFlight.sum();
+    }
+
+    /**
+     * Records page whose FOXML was processed, pages skipped as unchanged are not counted
+     */
+    public void pageProcessed() {
+        pages.increment();
+    }
+
+    public void titleFinished(boolean succeeded) {
+        if (succeeded) {
+            succeededTitles.increment();
+        } else {
+            failedTitles.increment();
+        }
+    }
+
+    public long getPageCount() {
+        return pages.sum();
+    }
+
+    public long getSucceededTitleCount() {
+        return succeededTitles.sum();
+    }
+
+    public long getFailedTitleCount() {
+        return failedTitles.sum();
+    }
+
+    /**
+     * @return seconds elapsed since metrics were created
+     */
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    /**
+     * Sets file receiving JSON summary, previous periodic snapshots are stopped
+     *
+     * @param file file rewritten by each snapshot and by final summary
+     * @param intervalSeconds interval of periodic snapshots, 0 when only final summary is written
+     */
+    public synchronized void report(Path file, int intervalSeconds) {
+        if (file == null) throw new NullPointerException("Metrics file cannot be null");
+        if (intervalSeconds < 0) throw new IllegalArgumentException("Metrics interval cannot be negative");
+
+        stopSnapshots();
+
+        reportFile = file;
+
+        if (intervalSeconds > 0) {
+            snapshots = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("merlin-metrics-"));
+            snapshots.scheduleAtFixedRate(() -> write(false), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @return file receiving JSON summary or null when summary is not written
+     */
+    public synchronized Path getReportFile() {
+        return reportFile;
+    }
+
+    /**
+     * @param complete false for snapshot of run still in progress
+     */
+    public String toJson(boolean complete) {
+        double elapsed = getElapsedSeconds();
+        StringBuilder json = new StringBuilder();
+
+        json.append("{\n");
+        json.append("  \"complete\": ").append(complete).append(",\n");
+        json.append("  \"elapsedSeconds\": ").append(format(elapsed)).append(",\n");
+        json.append("  \"titles\": {\"succeeded\": ").append(getSucceededTitleCount()).append(", \"failed\": ").append(getFailedTitleCount()).append("},\n");
+        json.append("  \"pages\": ").append(getPageCount()).append(",\n");
+        json.append("  \"pagesPerSecond\": ").append(format(elapsed > 0 ? getPageCount() / elapsed : 0)).append(",\n");
+        json.append("  \"stages\": {");
+
+        boolean first = true;
+
+        for (Map.Entry<Stage, Timer> entry : timers.entrySet()) {
+            Timer timer = entry.getValue();
+            double seconds = timer.getNanos() / 1e9;
+
+            json.append(first ? "\n" : ",\n");
+            first = false;
+
+            json.append("    \"").append(entry.getKey().getName()).append("\": {");
+            json.append("\"count\": ").append(timer.getCount());
+            json.append(", \"totalSeconds\": ").append(format(seconds));
+            json.append(", \"meanMillis\": ").append(format(timer.getCount() > 0 ? timer.getNanos() / 1e6 / timer.getCount() : 0));
+
+            for (double quantile : QUANTILES) {
+                json.append(", \"p").append(Math.round(quantile * 100)).append("Millis\": ").append(format(timer.getPercentileNanos(quantile) / 1e6));
+            }
+
+            json.append(", \"maxMillis\": ").append(format(timer.getMaxNanos() / 1e6));
+            json.append(", \"bytes\": ").append(timer.getBytes());
+            json.append(", \"bytesPerSecond\": ").append(format(seconds > 0 ? timer.getBytes() / seconds : 0));
+            json.append("}");
+        }
+
+        json.append("\n  },\n");
+        json.append("  \"errors\": {");
+
+        first = true;
+
+        for (Map.Entry<ErrorType, LongAdder> entry : errors.entrySet()) {
+            json.append(first ? "" : ", ");
+            first = false;
+
+            json.append("\"").append(entry.getKey().getName()).append("\": ").append(entry.getValue().sum());
+        }
+
+        json.append("}\n");
+        json.append("}\n");
+
+        return json.toString();
+    }
+
+    /**
+     * Stops periodic snapshots and writes final summary when report file is set
+     */
+    @Override
+    public synchronized void close() {
+        stopSnapshots();
+
+        if (reportFile != null && write(true)) {
+            System.out.println("Metrics summary written to: " + reportFile);
+        }
+    }
+
+    private void stopSnapshots() {
+        if (snapshots != null) {
+            snapshots.shutdownNow();
+            snapshots = null;
+        }
+    }
+
+    /**
+     * Writes summary through temporary file, so readers never see partially written summary
+     *
+     * @return false when summary could not be written
+     */
+    private synchronized boolean write(boolean complete) {
+        if (reportFile == null) return false;
+
+        Path file = reportFile.toAbsolutePath();
+
+        try {
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+
+            try {
+                Files.write(temp, toJson(complete).getBytes(StandardCharsets.UTF_8));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not write metrics into " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
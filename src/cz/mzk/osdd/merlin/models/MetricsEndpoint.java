@@ -0,0 +1,169 @@
+package cz.mzk.osdd.merlin.models;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves metrics of running processing in Prometheus text format at /metrics
+ *
+ * Metrics are read from processing context on each request: titles and pages in flight and completed, queue depths
+ * of page pipeline, Aleph resolution and Kramerius import queue, durations and bytes of processing stages
+ * (Aleph and Kramerius request latencies included) and errors by their type. Duration quantiles cover the whole run.
+ */
+public class MetricsEndpoint implements AutoCloseable {
+    public static final String PATH = "/metrics";
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final ProcessingContext context;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Starts serving metrics
+     *
+     * @param address address to listen on, port 0 selects free port
+     * @param context context whose metrics are served
+     * @throws IOException when address cannot be bound
+     */
+    public MetricsEndpoint(InetSocketAddress address, ProcessingContext context) throws IOException {
+        if (address == null) throw new NullPointerException("Address cannot be null");
+        if (context == null) throw new NullPointerException("Context cannot be null");
+
+        this.context = context;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("merlin-metrics-http-"));
+
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return port the endpoint listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return current metrics in Prometheus text format
+     */
+    public String render() {
+        Metrics metrics = context.getMetrics();
+        StringBuilder out = new StringBuilder();
+
+        header(out, "merlin_uptime_seconds", "gauge", "Seconds since processing context was created.");
+        sample(out, "merlin_uptime_seconds", null, metrics.getElapsedSeconds());
+
+        header(out, "merlin_titles_in_flight", "gauge", "Titles being processed.");
+        sample(out, "merlin_titles_in_flight", null, metrics.getTitlesInFlight());
+
+        header(out, "merlin_titles_completed_total", "counter", "Titles whose processing finished.");
+        sample(out, "merlin_titles_completed_total", "result=\"succeeded\"", metrics.getSucceededTitleCount());
+        sample(out, "merlin_titles_completed_total", "result=\"failed\"", metrics.getFailedTitleCount());
+
+        header(out, "merlin_pages_in_flight", "gauge", "Page FOXMLs being processed.");
+        sample(out, "merlin_pages_in_flight", null, metrics.getPagesInFlight());
+
+        header(out, "merlin_pages_completed_total", "counter", "Page FOXMLs processed, pages skipped as unchanged are not counted.");
+        sample(out, "merlin_pages_completed_total", null, metrics.getPageCount());
+
+        PagePipeline pipeline = context.getPagePipelineIfCreated();
+        AlephResolver alephResolver = context.getAlephResolverIfCreated();
+        KrameriusImportQueue importQueue = context.getImportQueue();
+
+        header(out, "merlin_queue_depth", "gauge", "Tasks waiting in processing queues.");
+        sample(out, "merlin_queue_depth", "queue=\"foxml\"", pipeline == null ? 0 : pipeline.getFoxmlQueueSize());
+        sample(out, "merlin_queue_depth", "queue=\"image\"", pipeline == null ? 0 : pipeline.getImageQueueSize());
+        sample(out, "merlin_queue_depth", "queue=\"aleph\"", alephResolver == null ? 0 : alephResolver.getPendingCount());
+        sample(out, "merlin_queue_depth", "queue=\"kramerius\"", importQueue == null ? 0 : importQueue.getQueuedCount());
+
+        header(out, "merlin_stage_duration_seconds", "summary", "Durations of processing stages, including Aleph and Kramerius requests.");
+
+        for (Metrics.Stage stage : Metrics.Stage.values()) {
+            Metrics.Timer timer = metrics.getTimer(stage);
+            String label = "stage=\"" + stage.getName() + "\"";
+
+            for (double quantile : QUANTILES) {
+                sample(out, "merlin_stage_duration_seconds", label + ",quantile=\"" + quantile + "\"", timer.getPercentileNanos(quantile) / 1e9);
+            }
+
+            sample(out, "merlin_stage_duration_seconds_sum", label, timer.getNanos() / 1e9);
+            sample(out, "merlin_stage_duration_seconds_count", label, timer.getCount());
+        }
+
+        header(out, "merlin_stage_bytes_total", "counter", "Bytes read or written by processing stages, imageCopy is copied into imageserver tree.");
+
+        for (Metrics.Stage stage : Metrics.Stage.values()) {
+            sample(out, "merlin_stage_bytes_total", "stage=\"" + stage.getName() + "\"", metrics.getTimer(stage).getBytes());
+        }
+
+        header(out, "merlin_errors_total", "counter", "Errors by their type.");
+
+        for (Metrics.ErrorType error : Metrics.ErrorType.values()) {
+            sample(out, "merlin_errors_total", "type=\"" + error.getName() + "\"", metrics.getErrorCount(error));
+        }
+
+        return out.toString();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, -1);
+                return;
+            }
+
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            boolean head = "HEAD".equals(exchange.getRequestMethod());
+
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, head ? -1 : body.length);
+
+            if (!head) {
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+
+        if (labels != null) out.append('{').append(labels).append('}');
+
+        out.append(' ');
+
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.6f", value));
+        }
+
+        out.append('\n');
+    }
+}
@@ -1,5 +1,6 @@
 package cz.mzk.osdd.merlin.models;
 
+import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.w3c.dom.Document;
@@ -34,6 +35,20 @@ public class Mods {
         return physicalLocation;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Mods)) return false;
+
+        Mods m = (Mods) o;
+
+        return Objects.equals(dateIssued, m.dateIssued) && Objects.equals(physicalLocation, m.physicalLocation);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dateIssued, physicalLocation);
+    }
+
     public static Mods loadModsFromDoc(Document doc, String uuid) {
         Mods mods = new Mods();
 
@@ -0,0 +1,83 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two stage worker pool for page processing
+ *
+ * FOXML stage parses, rewrites and serializes page FOXMLs, image stage copies JP2 files.
+ * Each stage has bounded queue, submitting into full stage blocks the caller until a worker frees a slot.
+ */
+public class PagePipeline implements AutoCloseable {
+    private static final int QUEUED_TASKS_PER_THREAD = 2;
+
+    private final ThreadPoolExecutor foxmlStage;
+    private final ThreadPoolExecutor imageStage;
+
+    /**
+     * @param foxmlThreads count of workers rewriting FOXMLs
+     * @param imageThreads count of workers copying images
+     */
+    public PagePipeline(int foxmlThreads, int imageThreads) {
+        foxmlStage = createStage("merlin-foxml-", foxmlThreads);
+        imageStage = createStage("merlin-image-", imageThreads);
+    }
+
+    public <T> Future<T> submitFoxml(Callable<T> task) {
+        return foxmlStage.submit(task);
+    }
+
+    public <T> Future<T> submitImage(Callable<T> task) {
+        return imageStage.submit(task);
+    }
+
+    /**
+     * @return count of FOXML tasks waiting for a worker
+     */
+    public int getFoxmlQueueSize() {
+        return foxmlStage.getQueue().size();
+    }
+
+    /**
+     * @return count of image tasks waiting for a worker
+     */
+    public int getImageQueueSize() {
+        return imageStage.getQueue().size();
+    }
+
+    @Override
+    public void close() {
+        foxmlStage.shutdown();
+        imageStage.shutdown();
+    }
+
+    private static ThreadPoolExecutor createStage(String namePrefix, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Stage thread count must be positive number");
+
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUED_TASKS_PER_THREAD),
+                new DaemonThreadFactory(namePrefix),
+                PagePipeline::waitForCapacity
+        );
+    }
+
+    private static void waitForCapacity(Runnable task, ThreadPoolExecutor stage) {
+        if (stage.isShutdown()) throw new RejectedExecutionException("Pipeline stage is already closed");
+
+        try {
+            stage.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for pipeline stage", e);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Runs FOXML and image task of each page of title in parallel on page pipeline and commits their results in page order
+ *
+ * Task returns commit, e.g. journal record or log line, which is applied once both tasks of the page and of all
+ * preceding pages finished, so journal and logs are the same for every run regardless of which worker finishes first.
+ * Commits are applied outside of lock by one worker at a time, workers finishing meanwhile do not wait for it.
+ * Failed task stops committing at its page, results of preceding pages are still committed and results of following
+ * pages are not, so interrupted run is resumed from the first uncommitted page.
+ */
+public class PageScheduler {
+    private static final int FOXML = 0;
+    private static final int IMAGE = 1;
+    private static final int TASKS_PER_PAGE = 2;
+
+    private static final Commit NOTHING = () -> {};
+
+    /**
+     * Result of page task applied in page order
+     */
+    public interface Commit {
+        void apply() throws IOException;
+    }
+
+    /**
+     * Work of page task
+     */
+    public interface PageTask {
+        /**
+         * @return commit applied in page order, null when there is nothing to commit
+         */
+        Commit call() throws Exception;
+    }
+
+    private final PagePipeline pipeline;
+    private final Commit[] commits;
+    private final byte[] finished;
+
+    private int collected = 0;
+    private int committed = 0;
+    private boolean committing = false;
+
+    //pages from this position on are not committed
+    private int limit;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param pageCount count of pages, pages are identified by their position in processing order
+     */
+    public PageScheduler(PagePipeline pipeline, int pageCount) {
+        if (pipeline == null) throw new NullPointerException("Pipeline cannot be null");
+        if (pageCount < 0) throw new IllegalArgumentException("Page count cannot be negative");
+
+        this.pipeline = pipeline;
+        this.commits = new Commit[pageCount * TASKS_PER_PAGE];
+        this.finished = new byte[pageCount];
+        this.limit = pageCount;
+    }
+
+    /**
+     * Submits FOXML task of page, blocks while FOXML stage is full
+     *
+     * @param position position of page in processing order
+     */
+    public Future<Void> submitFoxml(int position, PageTask task) {
+        checkPosition(position);
+
+        return pipeline.submitFoxml(() -> run(position, FOXML, task));
+    }
+
+    /**
+     * Submits image task of page, blocks while image stage is full
+     *
+     * @param position position of page in processing order
+     */
+    public Future<Void> submitImage(int position, PageTask task) {
+        checkPosition(position);
+
+        return pipeline.submitImage(() -> run(position, IMAGE, task));
+    }
+
+    /**
+     * Skips tasks which have not started yet, running tasks still finish and pages preceding the skipped ones
+     * are committed
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return count of leading pages whose results were committed
+     */
+    public synchronized int getCommittedCount() {
+        return committed;
+    }
+
+    private Void run(int position, int slot, PageTask task) throws Exception {
+        if (cancelled) {
+            stop(position);
+            return null;
+        }
+
+        Commit commit;
+
+        try {
+            commit = task.call();
+        } catch (Exception | Error e) {
+            stop(position);
+            throw e;
+        }
+
+        finish(position, slot, commit == null ? NOTHING : commit);
+
+        return null;
+    }
+
+    private synchronized void stop(int position) {
+        limit = Math.min(limit, position);
+    }
+
+    /**
+     * Records finished task and applies commits of all leading pages whose tasks finished
+     *
+     * Commits are collected under lock and applied outside of it by the single worker which found them ready,
+     * other workers finishing meanwhile only record their commits and return.
+     *
+     * @throws IOException when commit cannot be applied, following pages are not committed then
+     */
+    private void finish(int position, int slot, Commit commit) throws IOException {
+        List<Commit> ready = record(position, slot, commit);
+
+        while (!ready.isEmpty()) {
+            try {
+                for (Commit c : ready) {
+                    c.apply();
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    limit = collected;
+                    committing = false;
+                }
+
+                throw e;
+            }
+
+            ready = advance(ready.size() / TASKS_PER_PAGE);
+        }
+    }
+
+    private synchronized List<Commit> record(int position, int slot, Commit commit) {
+        commits[position * TASKS_PER_PAGE + slot] = commit;
+        finished[position]++;
+
+        if (committing) return Collections.emptyList();
+
+        return collect();
+    }
+
+    private synchronized List<Commit> advance(int pages) {
+        committed += pages;
+        committing = false;
+
+        return collect();
+    }
+
+    /**
+     * @return commits of leading pages ready to be applied, caller becomes committing worker when there are any
+     */
+    private List<Commit> collect() {
+        List<Commit> ready = new ArrayList<>();
+
+        while (collected < limit && finished[collected] == TASKS_PER_PAGE) {
+            for (int i = 0; i < TASKS_PER_PAGE; i++) {
+                ready.add(commits[collected * TASKS_PER_PAGE + i]);
+                commits[collected * TASKS_PER_PAGE + i] = null;
+            }
+
+            collected++;
+        }
+
+        committing = !ready.isEmpty();
+
+        return ready;
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= finished.length) throw new IndexOutOfBoundsException("Page position " + position + " out of 0.." + (finished.length - 1));
+    }
+}
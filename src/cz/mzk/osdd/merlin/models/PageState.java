@@ -0,0 +1,145 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fingerprints of page inputs processed into a title output, used by incremental processing
+ *
+ * Input is unchanged when its size and modification time match the recorded fingerprint,
+ * or when its content hash matches even though the file was touched. Fingerprint of input which was not read,
+ * e.g. linked image, has no hash and touched input is treated as changed.
+ */
+public class PageState {
+    public static final String FILE_NAME = "merlin-state.tsv";
+
+    private static final String SEPARATOR = "\t";
+    private static final String NO_CHECKSUM = "-";
+
+    private final Path file;
+    private final Map<String, Fingerprint> fingerprints = new TreeMap<>();
+
+    /**
+     * Size, modification time and SHA-256 of input file, SHA-256 is null when input was not read
+     */
+    public static class Fingerprint {
+        public final long size;
+        public final long modified;
+        public final String checksum;
+
+        public Fingerprint(long size, long modified, String checksum) {
+            this.size = size;
+            this.modified = modified;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @param checksum already known checksum of file, computed when null
+         */
+        public static Fingerprint of(Path file, String checksum) throws IOException {
+            return new Fingerprint(
+                    Files.size(file),
+                    Files.getLastModifiedTime(file).toMillis(),
+                    checksum != null ? checksum : Checksums.sha256(file));
+        }
+
+        private boolean hasSameAttributes(Path file) throws IOException {
+            return size == Files.size(file) && modified == Files.getLastModifiedTime(file).toMillis();
+        }
+    }
+
+    private PageState(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads state stored in directory, missing state is treated as empty
+     */
+    public static PageState load(Path directory) throws IOException {
+        PageState state = new PageState(directory.resolve(FILE_NAME));
+
+        if (!Files.exists(state.file)) return state;
+
+        try (BufferedReader reader = Files.newBufferedReader(state.file, StandardCharsets.UTF_8)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR);
+
+                if (fields.length != 4) continue;
+
+                String checksum = fields[3].equals(NO_CHECKSUM) ? null : fields[3];
+
+                state.fingerprints.put(fields[0], new Fingerprint(Long.parseLong(fields[1]), Long.parseLong(fields[2]), checksum));
+            }
+        }
+
+        return state;
+    }
+
+    /**
+     * Checks whether input is the same as recorded, hash is computed only when size or modification time differs
+     *
+     * @param key identification of input, e.g. file name
+     * @return fingerprint of unchanged input or null when input changed or is not recorded
+     */
+    public Fingerprint getUnchanged(String key, Path input) throws IOException {
+        Fingerprint recorded;
+
+        synchronized (this) {
+            recorded = fingerprints.get(key);
+        }
+
+        if (recorded == null) return null;
+        if (recorded.hasSameAttributes(input)) return recorded;
+        if (recorded.checksum == null || recorded.size != Files.size(input)) return null;
+
+        Fingerprint current = Fingerprint.of(input, null);
+
+        if (!current.checksum.equals(recorded.checksum)) return null;
+
+        put(key, current);
+
+        return current;
+    }
+
+    /**
+     * @return fingerprint recorded only by size and modification time, null when it differs
+     */
+    public Fingerprint getUntouched(String key, Path input) throws IOException {
+        Fingerprint recorded;
+
+        synchronized (this) {
+            recorded = fingerprints.get(key);
+        }
+
+        if (recorded == null || !recorded.hasSameAttributes(input)) return null;
+
+        return recorded;
+    }
+
+    public synchronized void put(String key, Fingerprint fingerprint) {
+        fingerprints.put(key, fingerprint);
+    }
+
+    public synchronized void save() throws IOException {
+        Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Fingerprint> entry : fingerprints.entrySet()) {
+                Fingerprint f = entry.getValue();
+
+                writer.write(entry.getKey() + SEPARATOR + f.size + SEPARATOR + f.modified + SEPARATOR + (f.checksum != null ? f.checksum : NO_CHECKSUM) + "\n");
+            }
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,376 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds processing settings and worker pools shared by all titles of a single run
+ */
+public class ProcessingContext implements AutoCloseable {
+    public static final int DEFAULT_TITLE_THREADS = 1;
+    public static final int DEFAULT_PAGE_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_IMAGE_THREADS = 2;
+    public static final int DEFAULT_ALEPH_RATE = 10;
+
+    private int titleThreads = DEFAULT_TITLE_THREADS;
+    private int pageThreads = DEFAULT_PAGE_THREADS;
+    private int imageThreads = DEFAULT_IMAGE_THREADS;
+    private boolean streamingRewrite = true;
+    private boolean incremental = false;
+    private ImageTransfer imageTransfer = new ImageTransfer(ImageTransfer.Mode.AUTO);
+
+    private AlephClient alephClient = AlephClient.getDefault();
+    private AlephCache alephCache = null;
+    private int alephThreads = AlephClient.DEFAULT_MAX_REQUESTS;
+    private int alephRate = DEFAULT_ALEPH_RATE;
+
+    private ProcessingJournal journal = null;
+    private KrameriusImportQueue importQueue = null;
+
+    private Path contentCache = null;
+    private Map<String, Path> contentMappings = Collections.emptyMap();
+    private int contentRequests = ContentFetcher.DEFAULT_MAX_REQUESTS;
+    private int contentTimeout = ContentFetcher.DEFAULT_TIMEOUT_SECONDS;
+
+    private PagePipeline pagePipeline = null;
+    private AlephResolver alephResolver = null;
+    private ContentFetcher contentFetcher = null;
+    private ContentResolver contentResolver = null;
+
+    private final Metrics metrics = new Metrics();
+    private MetricsEndpoint metricsEndpoint = null;
+
+    public int getTitleThreads() {
+        return titleThreads;
+    }
+
+    /**
+     * @param titleThreads count of titles processed concurrently, must be positive
+     */
+    public void setTitleThreads(int titleThreads) {
+        this.titleThreads = checkThreadCount(titleThreads);
+    }
+
+    public int getPageThreads() {
+        return pageThreads;
+    }
+
+    /**
+     * @param pageThreads count of workers rewriting page FOXMLs, must be positive
+     */
+    public void setPageThreads(int pageThreads) {
+        this.pageThreads = checkThreadCount(pageThreads);
+    }
+
+    public int getImageThreads() {
+        return imageThreads;
+    }
+
+    /**
+     * @param imageThreads count of workers copying page images, must be positive
+     */
+    public void setImageThreads(int imageThreads) {
+        this.imageThreads = checkThreadCount(imageThreads);
+    }
+
+    public boolean isStreamingRewrite() {
+        return streamingRewrite;
+    }
+
+    /**
+     * @param streamingRewrite when false, FOXMLs are always rewritten by loading whole DOM
+     */
+    public void setStreamingRewrite(boolean streamingRewrite) {
+        this.streamingRewrite = streamingRewrite;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @param incremental when true, pages with inputs unchanged since previous export into the same output are skipped
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public ImageTransfer getImageTransfer() {
+        return imageTransfer;
+    }
+
+    /**
+     * @param imageTransfer transfer of page images into imageserver storage
+     */
+    public void setImageTransfer(ImageTransfer imageTransfer) {
+        if (imageTransfer == null) throw new NullPointerException("Image transfer cannot be null");
+
+        this.imageTransfer = imageTransfer;
+    }
+
+    public AlephClient getAlephClient() {
+        return alephClient;
+    }
+
+    public void setAlephClient(AlephClient alephClient) {
+        if (alephClient == null) throw new NullPointerException("Aleph client cannot be null");
+
+        this.alephClient = alephClient;
+    }
+
+    /**
+     * @return cache of Aleph records or null when Aleph is always requested
+     */
+    public AlephCache getAlephCache() {
+        return alephCache;
+    }
+
+    public void setAlephCache(AlephCache alephCache) {
+        this.alephCache = alephCache;
+    }
+
+    public int getAlephThreads() {
+        return alephThreads;
+    }
+
+    /**
+     * @param alephThreads count of titles resolved in Aleph concurrently, must be positive
+     */
+    public void setAlephThreads(int alephThreads) {
+        this.alephThreads = checkThreadCount(alephThreads);
+    }
+
+    public int getAlephRate() {
+        return alephRate;
+    }
+
+    /**
+     * @param alephRate maximal count of Aleph lookups started each second, 0 for no limit
+     */
+    public void setAlephRate(int alephRate) {
+        if (alephRate < 0) throw new IllegalArgumentException("Aleph rate limit cannot be negative");
+
+        this.alephRate = alephRate;
+    }
+
+    /**
+     * @return journal of finished work or null when runs are not journaled
+     */
+    public ProcessingJournal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(ProcessingJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return queue of Kramerius import requests or null when imports are requested synchronously
+     */
+    public synchronized KrameriusImportQueue getImportQueue() {
+        return importQueue;
+    }
+
+    public synchronized void setImportQueue(KrameriusImportQueue importQueue) {
+        this.importQueue = importQueue;
+
+        if (importQueue != null) importQueue.setMetrics(metrics);
+    }
+
+    /**
+     * @return directory caching OCR content between runs or null when content is cached only during run
+     */
+    public Path getContentCache() {
+        return contentCache;
+    }
+
+    public void setContentCache(Path contentCache) {
+        this.contentCache = contentCache;
+    }
+
+    /**
+     * @return URL prefixes with local directories mirroring their content
+     */
+    public Map<String, Path> getContentMappings() {
+        return contentMappings;
+    }
+
+    /**
+     * @param contentMappings URL prefixes with local directories mirroring their content, empty when content is always downloaded
+     */
+    public void setContentMappings(Map<String, Path> contentMappings) {
+        if (contentMappings == null) throw new NullPointerException("Content mappings cannot be null");
+
+        this.contentMappings = Collections.unmodifiableMap(new LinkedHashMap<>(contentMappings));
+    }
+
+    public int getContentRequests() {
+        return contentRequests;
+    }
+
+    /**
+     * @param contentRequests count of OCR contents downloaded concurrently, must be positive
+     */
+    public void setContentRequests(int contentRequests) {
+        this.contentRequests = checkThreadCount(contentRequests);
+    }
+
+    public int getContentTimeout() {
+        return contentTimeout;
+    }
+
+    /**
+     * @param contentTimeout connect and read timeout of OCR content download in seconds, must be positive
+     */
+    public void setContentTimeout(int contentTimeout) {
+        if (contentTimeout < 1) throw new IllegalArgumentException("Content timeout must be positive number");
+
+        this.contentTimeout = contentTimeout;
+    }
+
+    /**
+     * @return fetcher of OCR content shared by all titles, created on first use
+     * @throws IOException when cache directory cannot be created
+     */
+    public synchronized ContentFetcher getContentFetcher() throws IOException {
+        if (contentFetcher == null) {
+            contentFetcher = new ContentFetcher(contentCache, contentRequests, contentTimeout);
+        }
+
+        return contentFetcher;
+    }
+
+    /**
+     * @return resolver of OCR content shared by all titles, reading mapped content locally when mappings are set
+     * @throws IOException when cache directory cannot be created
+     */
+    public synchronized ContentResolver getContentResolver() throws IOException {
+        if (contentResolver == null) {
+            contentResolver = contentMappings.isEmpty() ? getContentFetcher() : new LocalContentResolver(contentMappings, getContentFetcher());
+        }
+
+        return contentResolver;
+    }
+
+    /**
+     * @return fetcher of OCR content or null when no content was fetched yet
+     */
+    public synchronized ContentFetcher getContentFetcherIfCreated() {
+        return contentFetcher;
+    }
+
+    /**
+     * @return resolver of OCR content or null when no content was resolved yet
+     */
+    public synchronized ContentResolver getContentResolverIfCreated() {
+        return contentResolver;
+    }
+
+    /**
+     * @return stage timers of all titles processed with this context
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metricsEndpoint endpoint serving metrics of this context, closed with context
+     */
+    public synchronized void setMetricsEndpoint(MetricsEndpoint metricsEndpoint) {
+        this.metricsEndpoint = metricsEndpoint;
+    }
+
+    /**
+     * @return Aleph resolution stage shared by all titles, created on first use
+     */
+    public synchronized AlephResolver getAlephResolver() {
+        if (alephResolver == null) {
+            AlephClient client = alephClient;
+            AlephCache cache = alephCache;
+
+            alephResolver = new AlephResolver(mods -> {
+                long start = System.nanoTime();
+
+                try {
+                    return Utils.getSysnoWithBaseFromAleph(mods, client, cache);
+                } finally {
+                    metrics.record(Metrics.Stage.ALEPH_LOOKUP, start);
+                }
+            }, alephThreads, alephRate);
+        }
+
+        return alephResolver;
+    }
+
+    /**
+     * @return page pipeline shared by all titles, created on first use
+     */
+    public synchronized PagePipeline getPagePipeline() {
+        if (pagePipeline == null) {
+            pagePipeline = new PagePipeline(pageThreads, imageThreads);
+        }
+
+        return pagePipeline;
+    }
+
+    /**
+     * @return page pipeline or null when no page was processed yet
+     */
+    public synchronized PagePipeline getPagePipelineIfCreated() {
+        return pagePipeline;
+    }
+
+    /**
+     * @return Aleph resolution stage or null when no title was resolved yet
+     */
+    public synchronized AlephResolver getAlephResolverIfCreated() {
+        return alephResolver;
+    }
+
+    /**
+     * Stops shared worker pools and image cloning process, they are recreated when requested again
+     *
+     * Import queue is closed after its requests finish and imports are then requested synchronously.
+     * Metrics summary is written once everything is closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (importQueue != null) {
+            importQueue.close();
+            importQueue = null;
+        }
+
+        if (pagePipeline != null) {
+            pagePipeline.close();
+            pagePipeline = null;
+        }
+
+        if (alephResolver != null) {
+            alephResolver.close();
+            alephResolver = null;
+        }
+
+        if (contentFetcher != null) {
+            contentFetcher.close();
+            contentFetcher = null;
+            contentResolver = null;
+        }
+
+        if (metricsEndpoint != null) {
+            metricsEndpoint.close();
+            metricsEndpoint = null;
+        }
+
+        imageTransfer.close();
+        metrics.close();
+    }
+
+    private static int checkThreadCount(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Thread count must be positive number");
+
+        return threads;
+    }
+}
@@ -0,0 +1,416 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only journal of finished work, used for resuming interrupted runs
+ *
+ * Each record is single tab separated line. Records are forced to disk before append returns,
+ * concurrent appends are forced together. Record not terminated by newline was interrupted while
+ * being written and is removed on load. Only records after the last RUN record are used,
+ * run finished by RUN_DONE is not resumed.
+ *
+ * Journal is read record by record when opened and compacted, so its size does not grow across runs:
+ * records of finished run are removed, records of unfinished run are rewritten without discarded ones,
+ * and starting new run or finishing the current one truncates the journal.
+ *
+ * RUN, TITLE, TITLE_DONE and IMAGE records carry fingerprint of their input, e.g. sizes and modification times
+ * of input files. Recorded work is reused only while fingerprint of current input matches, TITLE record with
+ * different fingerprint discards all records of the title, so re-exported title is processed again.
+ */
+public class ProcessingJournal implements AutoCloseable {
+    private static final String RUN = "RUN";
+    private static final String RUN_DONE = "RUN_DONE";
+    private static final String TITLE = "TITLE";
+    private static final String TITLE_DONE = "TITLE_DONE";
+    private static final String TITLE_DISCARDED = "TITLE_DISCARDED";
+    private static final String FOXML = "FOXML";
+    private static final String IMAGE = "IMAGE";
+    private static final String IMPORT = "IMPORT";
+    private static final String ALEPH = "ALEPH";
+
+    private static final String SEPARATOR = "\t";
+    private static final String NO_VALUE = "-";
+
+    private static final String COMPACTED_SUFFIX = ".compacted";
+
+    private FileChannel channel = null;
+
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+    private long written = 0;
+    private long synced = 0;
+
+    private String runPackPath = null;
+    private String runInput = null;
+    private boolean runFinished = true;
+
+    private final Map<String, Pair<String, String>> titleRecords = new HashMap<>();
+    private final Map<String, String> titleInputs = new HashMap<>();
+    private final Map<String, String> finishedTitles = new HashMap<>();
+    private final Set<String> foxmls = new HashSet<>();
+    private final Map<String, Pair<String, String>> images = new HashMap<>();
+    private final Set<String> imports = new HashSet<>();
+    private final Set<String> alephRecords = new HashSet<>();
+
+    private ProcessingJournal() {}
+
+    /**
+     * Opens journal, records of unfinished run are loaded and journal is compacted
+     *
+     * @param file journal file, created when missing
+     */
+    public static ProcessingJournal open(Path file) throws IOException {
+        ProcessingJournal journal = new ProcessingJournal();
+
+        if (Files.exists(file)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                journal.load(in);
+            }
+        }
+
+        //live records are written into new file which replaces journal, so crash while compacting keeps the old one
+        Path compacted = file.resolveSibling(file.getFileName() + COMPACTED_SUFFIX);
+
+        try {
+            StringBuilder records = new StringBuilder();
+
+            for (String record : journal.getLiveRecords()) {
+                records.append(record).append('\n');
+            }
+
+            Files.write(compacted, records.toString().getBytes(StandardCharsets.UTF_8));
+
+            try (FileChannel written = FileChannel.open(compacted, StandardOpenOption.WRITE)) {
+                written.force(true);
+            }
+
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(compacted);
+        }
+
+        journal.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        return journal;
+    }
+
+    /**
+     * Replays records one by one, record not terminated by newline is ignored
+     */
+    private void load(InputStream in) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        int read;
+
+        while ((read = in.read()) != -1) {
+            if (read == '\n') {
+                replay(new String(record.toByteArray(), StandardCharsets.UTF_8).split(SEPARATOR, -1));
+                record.reset();
+            } else {
+                record.write(read);
+            }
+        }
+    }
+
+    /**
+     * @return records restoring current state, no records when there is no unfinished run
+     */
+    private synchronized List<String> getLiveRecords() {
+        List<String> records = new ArrayList<>();
+
+        if (runFinished) return records;
+
+        records.add(String.join(SEPARATOR, RUN, runPackPath, toField(runInput)));
+
+        for (Map.Entry<String, Pair<String, String>> title : titleRecords.entrySet()) {
+            records.add(String.join(SEPARATOR, TITLE, title.getKey(), title.getValue().first, title.getValue().second, toField(titleInputs.get(title.getKey()))));
+        }
+
+        for (Map.Entry<String, String> title : finishedTitles.entrySet()) {
+            records.add(String.join(SEPARATOR, TITLE_DONE, title.getKey(), toField(title.getValue())));
+        }
+
+        for (String foxml : foxmls) {
+            records.add(String.join(SEPARATOR, FOXML, foxml));
+        }
+
+        for (Map.Entry<String, Pair<String, String>> image : images.entrySet()) {
+            records.add(String.join(SEPARATOR, IMAGE, image.getKey(), image.getValue().first, toField(image.getValue().second)));
+        }
+
+        for (String title : imports) {
+            records.add(String.join(SEPARATOR, IMPORT, title));
+        }
+
+        for (String title : alephRecords) {
+            records.add(String.join(SEPARATOR, ALEPH, title));
+        }
+
+        return records;
+    }
+
+    /**
+     * @return pack path of unfinished run or null when previous run finished
+     */
+    public synchronized String getUnfinishedRunPackPath() {
+        return runFinished ? null : runPackPath;
+    }
+
+    /**
+     * @param input fingerprint of run input, null when input is checked only by title records
+     * @return whether unfinished run can be resumed with input
+     */
+    public synchronized boolean isRunResumable(String input) {
+        return !runFinished && (input == null || input.equals(runInput));
+    }
+
+    /**
+     * Starts new run, records of previous run are discarded unless the same pack path is resumed with the same input
+     *
+     * @param input fingerprint of run input, null when input is checked only by title records
+     */
+    public void startRun(String packPath, String input) throws IOException {
+        synchronized (this) {
+            if (isRunResumable(input) && packPath.equals(runPackPath)) return;
+        }
+
+        truncate();
+        append(RUN, packPath, toField(input));
+    }
+
+    /**
+     * Finishes run, all records are removed as finished run is not resumed
+     */
+    public void finishRun() throws IOException {
+        truncate();
+
+        synchronized (this) {
+            replay(new String[] {RUN_DONE});
+        }
+    }
+
+    /**
+     * @param input fingerprint of title input
+     * @return sysno with base used for title in unfinished run, null when title was not started with the same input
+     */
+    public synchronized Pair<String, String> getTitleRecord(String title, String input) {
+        return input.equals(titleInputs.get(title)) ? titleRecords.get(title) : null;
+    }
+
+    /**
+     * Records start of title, records of title started with different input are discarded
+     *
+     * @param input fingerprint of title input
+     */
+    public void startTitle(String title, String sysno, String base, String input) throws IOException {
+        synchronized (this) {
+            if (getTitleRecord(title, input) != null) return;
+        }
+
+        append(TITLE, title, sysno, base, input);
+    }
+
+    /**
+     * @param input fingerprint of title input
+     */
+    public synchronized boolean isTitleFinished(String title, String input) {
+        return input.equals(finishedTitles.get(title));
+    }
+
+    public void finishTitle(String title, String input) throws IOException {
+        append(TITLE_DONE, title, input);
+    }
+
+    /**
+     * Discards all records of title, so its next processing does not reuse any recorded work
+     */
+    public void discardTitle(String title) throws IOException {
+        append(TITLE_DISCARDED, title);
+    }
+
+    public synchronized boolean isFoxmlSaved(String title, String uuid) {
+        return foxmls.contains(title + SEPARATOR + uuid);
+    }
+
+    public void foxmlSaved(String title, String uuid) throws IOException {
+        append(FOXML, title, uuid);
+    }
+
+    /**
+     * @param input fingerprint of input image
+     */
+    public synchronized boolean isImageTransferred(String title, String uuid, String input) {
+        Pair<String, String> image = images.get(title + SEPARATOR + uuid);
+
+        return image != null && input.equals(image.second);
+    }
+
+    /**
+     * @return checksum of transferred image, null when image was not transferred or its checksum is not known
+     */
+    public synchronized String getImageChecksum(String title, String uuid) {
+        Pair<String, String> image = images.get(title + SEPARATOR + uuid);
+
+        return image == null ? null : fromField(image.first);
+    }
+
+    /**
+     * @param checksum checksum of transferred image, null when image was linked or moved without being read
+     * @param input fingerprint of input image
+     */
+    public void imageTransferred(String title, String uuid, String checksum, String input) throws IOException {
+        append(IMAGE, title, uuid, toField(checksum), input);
+    }
+
+    public synchronized boolean isImportRequested(String title) {
+        return imports.contains(title);
+    }
+
+    public void importRequested(String title) throws IOException {
+        append(IMPORT, title);
+    }
+
+    public synchronized boolean isAlephRecordPrepared(String title) {
+        return alephRecords.contains(title);
+    }
+
+    public void alephRecordPrepared(String title) throws IOException {
+        append(ALEPH, title);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void truncate() throws IOException {
+        synchronized (writeLock) {
+            channel.truncate(0);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Writes record and waits until it is forced to disk
+     */
+    private void append(String... fields) throws IOException {
+        String record = String.join(SEPARATOR, fields);
+        ByteBuffer bytes = ByteBuffer.wrap((record + "\n").getBytes(StandardCharsets.UTF_8));
+        long sequence;
+
+        synchronized (writeLock) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+
+            sequence = ++written;
+        }
+
+        synchronized (syncLock) {
+            if (synced < sequence) {
+                long target;
+
+                synchronized (writeLock) {
+                    target = written;
+                }
+
+                channel.force(false);
+                synced = target;
+            }
+        }
+
+        synchronized (this) {
+            replay(fields);
+        }
+    }
+
+    private void replay(String[] record) {
+        switch (record[0]) {
+            case RUN:
+                runPackPath = record[1];
+                runInput = fromField(field(record, 2));
+                runFinished = false;
+
+                titleRecords.clear();
+                titleInputs.clear();
+                finishedTitles.clear();
+                foxmls.clear();
+                images.clear();
+                imports.clear();
+                alephRecords.clear();
+                break;
+            case RUN_DONE:
+                runFinished = true;
+                break;
+            case TITLE:
+                if (titleRecords.containsKey(record[1])) removeTitle(record[1]);
+
+                titleRecords.put(record[1], Pair.create(record[2], record[3]));
+                titleInputs.put(record[1], field(record, 4));
+                break;
+            case TITLE_DONE:
+                finishedTitles.put(record[1], field(record, 2));
+                break;
+            case TITLE_DISCARDED:
+                removeTitle(record[1]);
+                break;
+            case FOXML:
+                foxmls.add(record[1] + SEPARATOR + record[2]);
+                break;
+            case IMAGE:
+                images.put(record[1] + SEPARATOR + record[2], Pair.create(record[3], field(record, 4)));
+                break;
+            case IMPORT:
+                imports.add(record[1]);
+                break;
+            case ALEPH:
+                alephRecords.add(record[1]);
+                break;
+            default:
+                //unknown record, journal written by newer version
+        }
+    }
+
+    private void removeTitle(String title) {
+        String prefix = title + SEPARATOR;
+
+        titleRecords.remove(title);
+        titleInputs.remove(title);
+        finishedTitles.remove(title);
+        foxmls.removeIf(foxml -> foxml.startsWith(prefix));
+        images.keySet().removeIf(image -> image.startsWith(prefix));
+        imports.remove(title);
+        alephRecords.remove(title);
+    }
+
+    /**
+     * @return field of record or null when record was written by older version without it
+     */
+    private static String field(String[] record, int index) {
+        return index < record.length ? record[index] : null;
+    }
+
+    private static String toField(String value) {
+        return value != null ? value : NO_VALUE;
+    }
+
+    private static String fromField(String field) {
+        return NO_VALUE.equals(field) ? null : field;
+    }
+}
@@ -0,0 +1,142 @@
+package cz.mzk.osdd.merlin.models;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Clones files using cp of GNU coreutils, works on filesystems with copy-on-write support, e.g. btrfs or XFS
+ *
+ * Java 8 cannot issue FICLONE ioctl, therefore clones are made by cp. Starting a process from JVM for each image
+ * costs more than copying a small image, so a single shell is started and paths of all clones are passed to it,
+ * the shell starts cp for each pair of paths and reports its result. Clones are made one at a time.
+ */
+class Reflinker implements Closeable {
+
+    enum Result {
+        CLONED,
+        /** filesystem cannot clone files, no other clone on it will succeed */
+        UNSUPPORTED,
+        /** this clone failed, e.g. on full disk */
+        FAILED
+    }
+
+    //reads source and target path lines, writes "0" or "1 <error message>" line for each pair
+    private static final String SCRIPT =
+            "while IFS= read -r source && IFS= read -r target; do " +
+                "if error=$(cp --reflink=always -- \"$source\" \"$target\" 2>&1); then echo 0; " +
+                "else printf '1 %s\\n' \"$(printf '%s' \"$error\" | tr '\\n' ' ')\"; fi; " +
+            "done";
+
+    private Process shell = null;
+    private Writer requests = null;
+    private BufferedReader responses = null;
+    private boolean broken = false;
+
+    /**
+     * @param target path of clone, it is deleted when clone fails
+     */
+    synchronized Result reflink(Path source, Path target) throws IOException {
+        String sourcePath = source.toAbsolutePath().toString();
+        String targetPath = target.toAbsolutePath().toString();
+
+        //paths are passed as lines
+        if (sourcePath.indexOf('\n') >= 0 || targetPath.indexOf('\n') >= 0) return Result.FAILED;
+
+        if (broken || !start()) return Result.UNSUPPORTED;
+
+        String response;
+
+        try {
+            requests.write(sourcePath + '\n' + targetPath + '\n');
+            requests.flush();
+            response = responses.readLine();
+        } catch (IOException e) {
+            response = null;
+        }
+
+        if (response == null) {
+            //shell is gone, clones are not attempted again
+            stop();
+            broken = true;
+            Files.deleteIfExists(target);
+            return Result.UNSUPPORTED;
+        }
+
+        if (response.equals("0")) return Result.CLONED;
+
+        Files.deleteIfExists(target);
+
+        return isUnsupported(response) ? Result.UNSUPPORTED : Result.FAILED;
+    }
+
+    /**
+     * @param error cp error message, reported in C locale
+     */
+    static boolean isUnsupported(String error) {
+        String message = error.toLowerCase(Locale.ROOT);
+
+        //EOPNOTSUPP, EXDEV, ENOTTY or EINVAL of FICLONE, or cp without reflink support
+        return message.contains("not supported")
+                || message.contains("cross-device link")
+                || message.contains("inappropriate ioctl")
+                || message.contains("invalid argument")
+                || message.contains("unrecognized option");
+    }
+
+    private boolean start() {
+        if (shell != null) return true;
+
+        try {
+            ProcessBuilder builder = new ProcessBuilder("sh", "-c", SCRIPT).redirectErrorStream(true);
+            builder.environment().put("LC_ALL", "C");
+
+            shell = builder.start();
+        } catch (IOException e) {
+            broken = true;
+            return false;
+        }
+
+        requests = new BufferedWriter(new OutputStreamWriter(shell.getOutputStream(), StandardCharsets.UTF_8));
+        responses = new BufferedReader(new InputStreamReader(shell.getInputStream(), StandardCharsets.UTF_8));
+
+        return true;
+    }
+
+    private void stop() {
+        if (shell == null) return;
+
+        try {
+            //shell exits when its input is closed
+            requests.close();
+        } catch (IOException e) {
+            shell.destroy();
+        }
+
+        try {
+            responses.close();
+        } catch (IOException e) {
+            //nothing to be read
+        }
+
+        shell = null;
+        requests = null;
+        responses = null;
+    }
+
+    /**
+     * Stops the shell, it is started again by next clone
+     */
+    @Override
+    public synchronized void close() {
+        stop();
+    }
+}
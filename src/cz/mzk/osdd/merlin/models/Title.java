@@ -2,24 +2,27 @@ package cz.mzk.osdd.merlin.models;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.PosixFileAttributeView;
 import java.nio.file.attribute.PosixFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 /**
@@ -39,50 +42,37 @@ public class Title {
 
     private final Path LOCATION;
 
+    private final ProcessingContext context;
+
     private String parentUUID;
     private String sysno = null;
     private String base = null;
 
-    private final Map<String, ExportPack> packs = new HashMap<>();
-    private final Map<String, ExportPack> nonPagePacks = new HashMap<>();
-    //private List<String> nonPageFOXMLs = null;
+    private Future<Pair<String, String>> alephLookup = null;
+
+    //sum of fingerprints of all input files, journaled work of title is reused only while it matches
+    private long inputFingerprint = 0;
 
-    public Title(Path location, File[] files, String outputPackPath, boolean loud) throws IllegalArgumentException, ParserConfigurationException, SAXException, IOException {
+    private final ExportPackRegistry packs = new ExportPackRegistry(FILE_K4_SUFFIX, FILE_IMAGE_SUFFIX);
+
+    public Title(Path location, File[] files, String outputPackPath, boolean loud, ProcessingContext context) throws IllegalArgumentException, ParserConfigurationException, SAXException, IOException {
         this.OUTPUT_PACK_PATH = outputPackPath;
         this.LOUD = loud;
 
         this.LOCATION = location;
+        this.context = context;
 
         checkFiles(files);
     }
 
     private void checkFiles(File[] files) throws IllegalArgumentException, IOException, SAXException, ParserConfigurationException {
         for (File f : files) {
-            String uuid;
+            inputFingerprint += Utils.getFileFingerprint(f.getName(), f.length(), f.lastModified());
 
             if (f.getName().endsWith(FILE_IMAGE_SUFFIX)) {
-                uuid = f.getName().substring(0, f.getName().length() - FILE_IMAGE_SUFFIX.length());
-
-                if (packs.containsKey(uuid)) {
-                    packs.get(uuid).setHasImageExport(f.getPath());
-                } else {
-                    ExportPack p = new ExportPack(uuid);
-                    p.setHasImageExport(f.getPath());
-
-                    packs.put(uuid, p);
-                }
-
+                packs.addImageExport(f);
             } else if (f.getName().endsWith(FILE_K4_SUFFIX)) {
-                uuid = f.getName().substring(0, f.getName().length() - FILE_K4_SUFFIX.length());
-
-                if (packs.containsKey(uuid)) {
-                    packs.get(uuid).setHasKrameriusExport(f.getPath());
-                } else {
-                    ExportPack p = new ExportPack(uuid);
-                    p.setHasKrameriusExport(f.getPath());
-
-                    packs.put(uuid, p);
-                }
+                packs.addKrameriusExport(f);
             } else if (f.getName().equals("proarc_export_status.log")) {
                 //continue;
             } else {
@@ -90,32 +80,30 @@ public class Title {
             }
         }
 
-        List<String> uuidsToRemove = new LinkedList<>();
+        for (int i = 0; i < packs.size(); i++) {
+            //image without FOXML cannot be classified
+            if (!packs.hasKrameriusExport(i)) {
+                throw new IllegalArgumentException("Part " + packs.getUuid(i) + " is not valid. Missing FOXML part.");
+            }
+
+            long classificationStart = System.nanoTime();
+            boolean page = Utils.containsDatastream(packs.getKrameriusExportPath(i).toFile(), "IMG_FULL");
+            context.getMetrics().record(Metrics.Stage.CLASSIFICATION, classificationStart);
 
-        for (ExportPack pack : packs.values()) {
-            if (!isPage(pack)) {
-                uuidsToRemove.add(pack.uuid);
+            packs.setPage(i, page);
 
-                parentUUID = pack.uuid;
+            if (!page) {
+                parentUUID = packs.getUuid(i);
 
-                if (pack.hasImageExport()) throw new IllegalArgumentException("UUID: " + pack.uuid + " contains image data for non data FOXML type!");
+                if (packs.hasImageExport(i)) throw new IllegalArgumentException("UUID: " + parentUUID + " contains image data for non data FOXML type!");
                 continue;
             }
 
-            if (!pack.hasImageExport() || !pack.hasKrameriusExport()) {
-                String msg = !pack.hasKrameriusExport() ? "FOXML" : "Image";
-
-                throw new IllegalArgumentException("Part " + pack.uuid + " is not valid. Missing " + msg + " part.");
+            if (!packs.hasImageExport(i)) {
+                throw new IllegalArgumentException("Part " + packs.getUuid(i) + " is not valid. Missing Image part.");
             }
         }
 
-        for (String uuid : uuidsToRemove) {
-            nonPagePacks.put(uuid, packs.get(uuid));
-            packs.remove(uuid);
-        }
-
-        //nonPageFOXMLs = uuidsToRemove;
-
         //Test UUID format
         UUID uuid = UUID.fromString(parentUUID);
 
@@ -124,16 +112,76 @@ public class Title {
         }
     }
 
-    private boolean isPage(ExportPack pack) throws ParserConfigurationException, IOException, SAXException {
-        Document doc = Utils.getDocumentFromFile(pack.getKrameriusExportPath().toFile());
+    /**
+     * @return true when FOXML of pack contains IMG_FULL datastream
+     */
+    public static boolean isPage(ExportPack pack) throws IOException, SAXException {
+        return Utils.containsDatastream(pack.getKrameriusExportPath().toFile(), "IMG_FULL");
+    }
+
+    /**
+     * Schedules Aleph lookup of this title in resolution stage of context, so it runs ahead of title processing
+     */
+    public synchronized void requestSysnoWithBase() {
+        if (alephLookup != null) return;
 
-        NodeList elements = doc.getElementsByTagName("datastream");
+        ProcessingJournal journal = context.getJournal();
 
-        for (int i = 0; i < elements.getLength(); i++) {
-            if (((Element) elements.item(i)).getAttribute("ID").equals("IMG_FULL")) return true;
+        //interrupted run already stored its images using recorded sysno and base
+        if (journal != null && journal.getTitleRecord(parentUUID, getInputFingerprint()) != null) {
+            alephLookup = CompletableFuture.completedFuture(journal.getTitleRecord(parentUUID, getInputFingerprint()));
+            return;
         }
 
-        return false;
+        try {
+            alephLookup = context.getAlephResolver().resolve(Utils.getModsFromRootObject(this.LOCATION));
+        } catch (RuntimeException e) {
+            CompletableFuture<Pair<String, String>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+
+            alephLookup = failed;
+        }
+    }
+
+    /**
+     * @return sysno with base or null when title is not known by Aleph or Aleph cannot be reached
+     * @throws IOException when interrupted while waiting for Aleph
+     */
+    private Pair<String, String> awaitSysnoWithBase() throws IOException {
+        requestSysnoWithBase();
+
+        try {
+            return alephLookup.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for Aleph", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            //signature or year could not be loaded from root object
+            if (cause instanceof IllegalStateException) return null;
+
+            if (cause instanceof IOException) {
+                System.err.println("Could not receive Sysno from Aleph for title " + parentUUID + ": " + cause);
+                context.getMetrics().error(Metrics.ErrorType.ALEPH_LOOKUP);
+                return null;
+            }
+
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+
+            throw new IOException(cause);
+        }
+    }
+
+    public String getUUID() {
+        return parentUUID;
+    }
+
+    /**
+     * @return fingerprint of names, sizes and modification times of all files of title
+     */
+    public String getInputFingerprint() {
+        return Long.toHexString(inputFingerprint);
     }
 
     private static void reportMissingPart(ExportPack pack, String missingPart) {
@@ -147,26 +195,28 @@ public class Title {
      * @param alephDirectory used on direct export - stores files for updating aleph
      * @param k4Credentials used on direct export - request credentials
      * @param k4address used on direct exprot - address of k4 remote API
+     * @return true when whole title was processed, false when processing was terminated
      * @throws IOException
      * @throws ParserConfigurationException
      * @throws SAXException
      * @throws IllegalArgumentException
      */
-    public void processTitle(Path outRoot, Path outKramerius, Path outImageserver, File alephDirectory, String k4Credentials, String k4address) throws IOException, ParserConfigurationException, SAXException, IllegalArgumentException {
+    public boolean processTitle(Path outRoot, Path outKramerius, Path outImageserver, File alephDirectory, String k4Credentials, String k4address) throws IOException, ParserConfigurationException, SAXException, IllegalArgumentException {
+
+        ProcessingJournal journal = context.getJournal();
+
+        if (journal != null && journal.isTitleFinished(parentUUID, getInputFingerprint())) {
+            System.out.println("Title " + parentUUID + " was already processed according to journal, skipping.");
+            return true;
+        }
 
         if (LOUD) System.out.println("Started processing title " + parentUUID);
 
         if (LOUD) System.out.println("Receiving Sysno from Aleph");
 
         // workaround to still process doc even if not known by Aleph
-        Pair<String, String> sb = null;
-        try {
-            sb = Utils.getSysnoWithBaseFromAleph(Utils.getModsFromRootObject(this.LOCATION));
-        } catch (IllegalStateException e) {
-            if (e.getMessage().equals(Utils.DOC_NOT_FOUND_EXCEPTION_MSG)) {
-                sb = null;
-            }
-        }
+        Pair<String, String> sb = awaitSysnoWithBase();
+
         if (sb == null) {
             //throw new IllegalStateException("Could not receive Sysno and Base from Aleph for item: " + this.LOCATION);
             sb = new Pair<>(parentUUID.replaceAll("-", ""), UNKNOWN_BASE_NAME);
@@ -177,6 +227,9 @@ public class Title {
         sysno = sb.first;
         base = sb.second.toLowerCase();
 
+        //records of title exported again are discarded
+        if (journal != null) journal.startTitle(parentUUID, sysno, base, getInputFingerprint());
+
         Path outFoxml =
                 (outKramerius == null ?
                         outRoot.resolve(OUTPUT_PACK_PATH).resolve("kramerius") :
@@ -206,78 +259,472 @@ public class Title {
         }
 
         //page packs
-        for (ExportPack pack : packs.values()) {
+        PagePipeline pipeline = context.getPagePipeline();
+        List<Pair<ExportPack, Future<?>>> pageResults = new LinkedList<>();
+
+        ChecksumManifest manifest = ChecksumManifest.load(imsDirectory);
+        PageState state = context.isIncremental() ? PageState.load(imsDirectory) : null;
+        AtomicInteger unchanged = new AtomicInteger();
+
+        //packs are materialized only while title is processed, in the same order on every run
+        List<ExportPack> pagePacks = new ArrayList<>(packs.getPageCount());
+        List<ExportPack> nonPagePacks = new ArrayList<>(packs.size() - packs.getPageCount());
+
+        for (int index : orderPages()) {
+            pagePacks.add(packs.getPack(index));
+        }
+
+        for (int index : sortByUuid(false)) {
+            nonPagePacks.add(packs.getPack(index));
+        }
+
+        //OCR content of all pages is downloaded ahead, in the order in which the pages are rewritten
+        ContentResolver contentResolver = context.getContentResolver();
+
+        for (ExportPack pack : pagePacks) {
+            if (isRewriteNeeded(pack, outFoxml, state)) contentResolver.prefetch(pack.getKrameriusExportPath());
+        }
+
+        PageScheduler scheduler = new PageScheduler(pipeline, pagePacks.size());
+
+        for (int position = 0; position < pagePacks.size(); position++) {
+            ExportPack pack = pagePacks.get(position);
+
+            pageResults.add(Pair.create(pack, scheduler.submitFoxml(position, () -> processPageFoxml(pack, outFoxml, state, unchanged))));
+            pageResults.add(Pair.create(pack, scheduler.submitImage(position, () -> copyPageImage(pack, imsDirectory, manifest, state, unchanged))));
+        }
+
+        boolean pagesProcessed;
 
-            Path imagePath = imsDirectory.resolve(pack.uuid + ".jp2");
+        try {
+            pagesProcessed = awaitPageResults(scheduler, pageResults);
+        } finally {
+            //images transferred before failure are recorded as well, so they are verified cheaply on rerun
+            manifest.save();
 
-            Foxml f = new Foxml(Utils.getDocumentFromFile(pack.getKrameriusExportPath().toFile()), sysno, base, pack.uuid);
+            if (state != null) state.save();
+        }
 
+        if (!pagesProcessed) return false;
+
+        if (state != null && LOUD) {
+            System.out.println("Title " + parentUUID + ": " + unchanged.get() + " of " + packs.getPageCount() * 2 + " page FOXMLs and images unchanged since previous export.");
+        }
+
+        //nonPagePacks
+        for (ExportPack pack : nonPagePacks) {
             try {
-                f.removeFedoraURIFromRoot();
-                f.processDatastream(Foxml.DATASTREAM_IMG_FULL);
-                f.processDatastream(Foxml.DATASTREAM_IMG_THUMB);
-                f.processDatastream(Foxml.DATASTREAM_IMG_PREVIEW);
-                f.processDatastream(Foxml.DATASTREAM_ALTO);
-                f.processDatastream(Foxml.DATASTREAM_OCR);
-                f.processDatastream(Foxml.DATASTREAM_BIBLIO_MODS);
-                f.processDatastream(Foxml.DATASTREAM_DC);
-                f.processDatastream(Foxml.DATASTREAM_RELS_EXT);
-                f.processRDF();
-                f.save(outFoxml);
+                if (saveFoxml(pack, outFoxml, Foxml.NON_PAGE_DATASTREAMS, false) && journal != null) journal.foxmlSaved(parentUUID, pack.uuid);
             } catch (IllegalArgumentException e) {
                 reportMissingPart(pack, e.getMessage());
-                return;
+                return false;
             } catch (TransformerException e) {
                 System.err.println("Cannot save " + pack.uuid + ".xml. Terminating.");
                 e.printStackTrace();
-                return;
+                return false;
             }
+        }
 
-            try {
-                Files.copy(pack.getImageExportPath(), imagePath);
-                Files.setPosixFilePermissions(
-                        imagePath,
-                        PosixFilePermissions.fromString(
-                                IMAGESERVER_REQUIRED_FILE_PERMS
-                        ));
-                checkPermissions(imagePath, false, false);
+        if (k4Credentials != null && k4address != null && (journal == null || !journal.isImportRequested(parentUUID))) {
+            KrameriusImportQueue importQueue = context.getImportQueue();
+
+            if (importQueue != null) {
+                importQueue.submit(parentUUID);
+            } else {
+                long importStart = System.nanoTime();
+
+                try {
+                    Utils.requestKrameriusImport(parentUUID, k4address, k4Credentials);
+                } catch (IOException e) {
+                    context.getMetrics().error(Metrics.ErrorType.KRAMERIUS_IMPORT);
+                    throw e;
+                }
+
+                context.getMetrics().record(Metrics.Stage.KRAMERIUS_IMPORT, importStart);
+            }
+
+            if (journal != null) journal.importRequested(parentUUID);
+        }
 
-            } catch (FileAlreadyExistsException e) {
-                System.out.println("Warning: Image: " + imagePath.getFileName() + " already exists at target destination: " + pack.getImageExportPath() + " Skipping.");
+        if (alephDirectory != null && (journal == null || !journal.isAlephRecordPrepared(parentUUID))) {
+            if (!base.equals(UNKNOWN_BASE_NAME)) {
+                Utils.prepareAlephUpdateRecord(parentUUID, sysno, base, alephDirectory);
+
+                if (journal != null) journal.alephRecordPrepared(parentUUID);
             }
         }
 
-        //nonPagePacks
-        for (ExportPack pack : nonPagePacks.values()) {
-            Foxml f = new Foxml(Utils.getDocumentFromFile(pack.getKrameriusExportPath().toFile()), sysno, base, pack.uuid);
+        if (journal != null) journal.finishTitle(parentUUID, getInputFingerprint());
 
+        if (LOUD) System.out.println("Title " + parentUUID + " processed.");
+
+        return true;
+    }
+
+    /**
+     * @param state fingerprints of previous export, null when every page is processed
+     * @param unchanged counter of pages skipped as unchanged
+     * @return journal record of saved FOXML, committed in page order
+     */
+    private PageScheduler.Commit processPageFoxml(ExportPack pack, Path outFoxml, PageState state, AtomicInteger unchanged) throws IOException, ParserConfigurationException, SAXException, TransformerException {
+        String foxmlName = pack.uuid + FILE_K4_SUFFIX;
+        Path input = pack.getKrameriusExportPath();
+
+        if (state != null && outFoxml.resolve(foxmlName).toFile().exists() && state.getUnchanged(foxmlName, input) != null) {
+            unchanged.incrementAndGet();
+            return null;
+        }
+
+        Metrics metrics = context.getMetrics();
+        metrics.pageStarted();
+
+        boolean saved;
+
+        try {
+            saved = saveFoxml(pack, outFoxml, Foxml.PAGE_DATASTREAMS, true);
+        } finally {
+            metrics.pageStopped();
+        }
+
+        if (state != null) state.put(foxmlName, PageState.Fingerprint.of(input, null));
+
+        metrics.pageProcessed();
+
+        ProcessingJournal journal = context.getJournal();
+
+        return saved && journal != null ? () -> journal.foxmlSaved(parentUUID, pack.uuid) : null;
+    }
+
+    /**
+     * Quick check whether page FOXML will be rewritten, touched input is treated as changed without computing its hash
+     */
+    private boolean isRewriteNeeded(ExportPack pack, Path outFoxml, PageState state) throws IOException {
+        String foxmlName = pack.uuid + FILE_K4_SUFFIX;
+
+        if (!outFoxml.resolve(foxmlName).toFile().exists()) return true;
+
+        ProcessingJournal journal = context.getJournal();
+
+        if (journal != null && journal.isFoxmlSaved(parentUUID, pack.uuid)) return false;
+
+        return state == null || state.getUntouched(foxmlName, pack.getKrameriusExportPath()) == null;
+    }
+
+    /**
+     * Rewrites FOXML of pack unless journal records it was already saved in interrupted run, saved FOXML is recorded by caller
+     *
+     * @return true when FOXML was rewritten
+     */
+    private boolean saveFoxml(ExportPack pack, Path outFoxml, List<String> datastreams, boolean processRdf) throws IOException, ParserConfigurationException, SAXException, TransformerException {
+        ProcessingJournal journal = context.getJournal();
+
+        if (journal != null && journal.isFoxmlSaved(parentUUID, pack.uuid) && outFoxml.resolve(pack.uuid + FILE_K4_SUFFIX).toFile().exists()) return false;
+
+        rewriteFoxml(pack, outFoxml, datastreams, processRdf);
+
+        return true;
+    }
+
+    /**
+     * Rewrites FOXML of pack into outFoxml directory
+     *
+     * Streaming rewrite is used when enabled, documents it cannot handle are processed using DOM.
+     *
+     * @param datastreams datastreams to be processed
+     * @param processRdf whether kramerius:file and kramerius4:tiles-url should be set
+     */
+    private void rewriteFoxml(ExportPack pack, Path outFoxml, List<String> datastreams, boolean processRdf) throws IOException, ParserConfigurationException, SAXException, TransformerException {
+        Metrics metrics = context.getMetrics();
+        Path input = pack.getKrameriusExportPath();
+
+        if (context.isStreamingRewrite()) {
             try {
-                f.removeFedoraURIFromRoot();
-                f.processDatastream(Foxml.DATASTREAM_BIBLIO_MODS);
-                f.processDatastream(Foxml.DATASTREAM_RELS_EXT);
-                f.processDatastream(Foxml.DATASTREAM_DC);
-                f.save(outFoxml);
-            } catch (IllegalArgumentException e) {
-                reportMissingPart(pack, e.getMessage());
-                return;
-            } catch (TransformerException e) {
-                System.err.println("Cannot save " + pack.uuid + ".xml. Terminating.");
-                e.printStackTrace();
+                long rewriteStart = System.nanoTime();
+
+                FoxmlStreamRewriter rewriter = new FoxmlStreamRewriter(sysno, base, pack.uuid, datastreams, processRdf);
+                rewriter.setContentResolver(context.getContentResolver());
+                rewriter.rewrite(input, outFoxml);
+
+                metrics.record(Metrics.Stage.REWRITE, rewriteStart, Files.size(input));
                 return;
+            } catch (XMLStreamException | RuntimeException e) {
+                System.err.println("Warning: Streaming rewrite of " + pack.uuid + ".xml failed (" + e.getMessage() + "), using DOM processing.");
+                metrics.error(Metrics.ErrorType.STREAMING_REWRITE);
             }
         }
 
-        if (k4Credentials != null && k4address != null) {
-            Utils.requestKrameriusImport(parentUUID, k4address, k4Credentials);
+        long parseStart = System.nanoTime();
+        Document doc = Utils.getDocumentFromFile(input.toFile());
+        metrics.record(Metrics.Stage.PARSE, parseStart, Files.size(input));
+
+        long rewriteStart = System.nanoTime();
+
+        Foxml f = new Foxml(doc, sysno, base, pack.uuid);
+        f.setContentResolver(context.getContentResolver());
+
+        f.removeFedoraURIFromRoot();
+
+        for (String datastream : datastreams) {
+            f.processDatastream(datastream);
+        }
+
+        if (processRdf) {
+            f.processRDF();
         }
 
-        if (alephDirectory != null) {
-            if (!base.equals(UNKNOWN_BASE_NAME)) {
-                Utils.prepareAlephUpdateRecord(parentUUID, sysno, base, alephDirectory);
+        metrics.record(Metrics.Stage.REWRITE, rewriteStart);
+
+        long serializeStart = System.nanoTime();
+        f.save(outFoxml);
+        metrics.record(Metrics.Stage.SERIALIZE, serializeStart, Files.size(outFoxml.resolve(pack.uuid + FILE_K4_SUFFIX)));
+    }
+
+    /**
+     * @param state fingerprints of previous export, null when every page is processed
+     * @param unchanged counter of pages skipped as unchanged
+     * @return journal record and report of transferred image, committed in page order
+     */
+    private PageScheduler.Commit copyPageImage(ExportPack pack, Path imsDirectory, ChecksumManifest manifest, PageState state, AtomicInteger unchanged) throws IOException {
+        String imageName = pack.uuid + FILE_IMAGE_SUFFIX;
+        Path imagePath = imsDirectory.resolve(imageName);
+        Path input = pack.getImageExportPath();
+        ProcessingJournal journal = context.getJournal();
+
+        //touched images are compared by checksum below, so they are read only once
+        PageState.Fingerprint untouched = state != null ? state.getUntouched(imageName, input) : null;
+
+        if (untouched != null && Files.exists(imagePath) && Objects.equals(untouched.checksum, manifest.get(imageName))) {
+            unchanged.incrementAndGet();
+            return null;
+        }
+
+        long inputSize = Files.size(input);
+        long inputModified = Files.getLastModifiedTime(input).toMillis();
+        String inputFingerprint = inputSize + ":" + inputModified;
+
+        //journaled image is trusted only while its input is the same and transferred image is complete
+        if (journal != null && Files.exists(imagePath) && journal.isImageTransferred(parentUUID, pack.uuid, inputFingerprint) && Files.size(imagePath) == inputSize) {
+            String journaled = journal.getImageChecksum(parentUUID, pack.uuid);
+
+            manifest.put(imageName, journaled != null ? journaled : hashImage(imagePath));
+
+            return null;
+        }
+
+        if (Files.exists(imagePath)) {
+            if (isSameImage(pack.getImageExportPath(), imagePath, manifest)) {
+                String checksum = manifest.get(imageName);
+
+                if (state != null) state.put(imageName, new PageState.Fingerprint(inputSize, inputModified, checksum));
+
+                return () -> {
+                    System.out.println("Warning: Image: " + imagePath.getFileName() + " already exists at target destination: " + pack.getImageExportPath() + " Checksum matches, skipping.");
+
+                    if (journal != null) journal.imageTransferred(parentUUID, pack.uuid, checksum, inputFingerprint);
+                };
             }
+
+            System.err.println("Warning: Image: " + imagePath.getFileName() + " already exists at target destination but differs from " + pack.getImageExportPath() + " Replacing.");
+
+            manifest.remove(imageName);
+            Files.delete(imagePath);
         }
 
-        if (LOUD) System.out.println("Title " + parentUUID + " processed.");
+        Metrics metrics = context.getMetrics();
+
+        long transferStart = System.nanoTime();
+        ImageTransfer.Result transfer = context.getImageTransfer().transfer(pack.getImageExportPath(), imagePath);
+        metrics.record(Metrics.Stage.IMAGE_COPY, transferStart, transfer.bytes);
+
+        //linked or moved image is not read by transfer, it is hashed once unless previous run fingerprinted its input
+        String known = transfer.checksum != null ? transfer.checksum : untouched != null ? untouched.checksum : null;
+        String checksum = known != null ? known : hashImage(transfer.strategy == ImageTransfer.Strategy.MOVE ? imagePath : input);
+
+        manifest.put(imageName, checksum);
+
+        //hardlinked image shares permissions with input image, which must not be changed
+        if (transfer.strategy != ImageTransfer.Strategy.HARDLINK) {
+            long permissionsStart = System.nanoTime();
+            Files.setPosixFilePermissions(
+                    imagePath,
+                    PosixFilePermissions.fromString(
+                            IMAGESERVER_REQUIRED_FILE_PERMS
+                    ));
+            metrics.record(Metrics.Stage.PERMISSIONS, permissionsStart);
+
+            checkPermissions(imagePath, false, false);
+        } else if (!Files.getPosixFilePermissions(imagePath).contains(PosixFilePermission.OTHERS_READ)) {
+            System.err.println("Warning: Hardlinked image " + imagePath.getFileName() + " is not readable by others, permissions of input image are kept.");
+        }
+
+        if (state != null) state.put(imageName, new PageState.Fingerprint(inputSize, inputModified, checksum));
+
+        return () -> {
+            if (LOUD) System.out.println("Image " + imagePath.getFileName() + " transferred: " + transfer);
+
+            if (journal != null) journal.imageTransferred(parentUUID, pack.uuid, checksum, inputFingerprint);
+        };
+    }
+
+    private String hashImage(Path image) throws IOException {
+        long hashStart = System.nanoTime();
+        String checksum = Checksums.sha256(image);
+        context.getMetrics().record(Metrics.Stage.IMAGE_CHECKSUM, hashStart, Files.size(image));
+
+        return checksum;
+    }
+
+    /**
+     * Compares input image with image already present in imageserver
+     *
+     * Checksum recorded in manifest is trusted when sizes match, existing image is read only when it is not recorded.
+     * Matching image is recorded into manifest.
+     */
+    private static boolean isSameImage(Path input, Path existing, ChecksumManifest manifest) throws IOException {
+        if (Files.size(input) != Files.size(existing)) return false;
+
+        String name = existing.getFileName().toString();
+        String recorded = manifest.get(name);
+
+        String inputChecksum = Checksums.sha256(input);
+        String existingChecksum = recorded != null ? recorded : Checksums.sha256(existing);
+
+        if (!inputChecksum.equals(existingChecksum)) return false;
+
+        manifest.put(name, inputChecksum);
+
+        return true;
+    }
+
+    /**
+     * Orders pages as parent FOXML refers to them by hasPage relation, pages it does not refer to follow in UUID order
+     *
+     * @return registry indexes of pages
+     */
+    private int[] orderPages() throws IOException, SAXException {
+        int[] order = new int[packs.getPageCount()];
+        boolean[] ordered = new boolean[packs.size()];
+        int count = 0;
+
+        int parent = packs.indexOf(parentUUID);
+
+        for (String uuid : Utils.getPageReferences(packs.getKrameriusExportPath(parent).toFile())) {
+            int index = packs.indexOf(uuid);
+
+            if (index != -1 && packs.isPage(index) && !ordered[index]) {
+                ordered[index] = true;
+                order[count++] = index;
+            }
+        }
+
+        if (count < order.length && LOUD) {
+            System.out.println("Title " + parentUUID + ": " + (order.length - count) + " pages not referred by hasPage, ordered by UUID.");
+        }
+
+        for (int index : sortByUuid(true)) {
+            if (!ordered[index]) order[count++] = index;
+        }
+
+        return order;
+    }
+
+    /**
+     * @param pages true for pages, false for non page objects
+     * @return registry indexes of selected packs in UUID order
+     */
+    private int[] sortByUuid(boolean pages) {
+        List<Integer> selected = new ArrayList<>();
+
+        for (int i = 0; i < packs.size(); i++) {
+            if (packs.isPage(i) == pages) selected.add(i);
+        }
+
+        selected.sort(packs::compareUuids);
+
+        return selected.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Waits for all submitted page tasks, reports first failed page the same way as serial processing did
+     *
+     * When some page fails, tasks which have not started are skipped and running ones are awaited,
+     * so no page is written after the title is reported as failed.
+     *
+     * @param pageResults page tasks in submission order
+     * @return false when processing of some page was terminated
+     * @throws IOException when some page could not be read or written
+     */
+    private boolean awaitPageResults(PageScheduler scheduler, List<Pair<ExportPack, Future<?>>> pageResults) throws IOException, ParserConfigurationException, SAXException {
+        boolean terminated = false;
+        boolean awaited = false;
+
+        try {
+            for (Pair<ExportPack, Future<?>> result : pageResults) {
+                try {
+                    result.second.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while processing pages of title " + parentUUID, e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+
+                    if (cause instanceof IllegalArgumentException) {
+                        reportMissingPart(result.first, cause.getMessage());
+                        context.getMetrics().error(Metrics.ErrorType.PAGE);
+                        terminated = true;
+                        break;
+                    } else if (cause instanceof TransformerException) {
+                        System.err.println("Cannot save " + result.first.uuid + ".xml. Terminating.");
+                        cause.printStackTrace();
+                        context.getMetrics().error(Metrics.ErrorType.PAGE);
+                        terminated = true;
+                        break;
+                    } else if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof ParserConfigurationException) {
+                        throw (ParserConfigurationException) cause;
+                    } else if (cause instanceof SAXException) {
+                        throw (SAXException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else {
+                        throw new IllegalStateException(cause);
+                    }
+                }
+            }
+
+            awaited = !terminated;
+        } finally {
+            if (!awaited) drainPageResults(scheduler, pageResults);
+        }
+
+        return !terminated;
+    }
+
+    /**
+     * Skips page tasks which have not started yet and waits until running ones finish, their failures are ignored
+     */
+    private static void drainPageResults(PageScheduler scheduler, List<Pair<ExportPack, Future<?>>> pageResults) {
+        scheduler.cancel();
+
+        boolean interrupted = false;
+
+        for (Pair<ExportPack, Future<?>> result : pageResults) {
+            while (true) {
+                try {
+                    result.second.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) Thread.currentThread().interrupt();
     }
 
     /**
@@ -331,6 +778,8 @@ public class Title {
     }
 
     private void checkPermissions(Path path, boolean groupWrite, boolean othersExecute) throws IOException {
+        long start = System.nanoTime();
+
         checkPermission(path, PosixFilePermission.GROUP_EXECUTE);
         if (groupWrite) {
             checkPermission(path, PosixFilePermission.GROUP_WRITE);
@@ -340,6 +789,7 @@ public class Title {
             checkPermission(path, PosixFilePermission.OTHERS_EXECUTE);
         }
 
+        context.getMetrics().record(Metrics.Stage.PERMISSIONS, start);
     }
 
     private void checkPermission(Path path, PosixFilePermission perm) throws IOException {
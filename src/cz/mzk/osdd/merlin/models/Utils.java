@@ -2,6 +2,7 @@ package cz.mzk.osdd.merlin.models;
 
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -10,12 +11,16 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Base64;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.apache.commons.io.FileUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -23,6 +28,8 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+import static java.net.HttpURLConnection.HTTP_CLIENT_TIMEOUT;
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
 
 /**
  * Created by Jakub Kremlacek on 4.4.17.
@@ -33,97 +40,46 @@ public class Utils {
     public static final String[] ALEPH_BASES = {"mzk01", "mzk03"};
     public static final String DOC_NOT_FOUND_EXCEPTION_MSG = "Could not find document with specified signature";
 
+    private static final int KRAMERIUS_TIMEOUT_MS = 30000;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+    private static final String FEDORA_UUID_PREFIX = "info:fedora/uuid:";
+
+    private static final AtomicLong documentParseCount = new AtomicLong();
+    private static final AtomicLong datastreamScanCount = new AtomicLong();
+    private static final AtomicLong datastreamScanMatchCount = new AtomicLong();
+
     public static Document getDocumentFromURL(String url) throws IOException, SAXException, ParserConfigurationException {
         if (url == null) return null;
 
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        DocumentBuilder db = dbf.newDocumentBuilder();
-
-        return db.parse(new URL(url).openStream());
+        try (InputStream is = new URL(url).openStream()) {
+            return XmlFactories.getDocumentBuilder().parse(is);
+        }
     }
 
     /**
-     * request for MARC record from Aleph XServer with retrieval of Sysno and Base
+     * request for MARC record from default Aleph XServer with retrieval of Sysno and Base
      *
      * @param mods
      * @return
      */
     public static Pair<String, String> getSysnoWithBaseFromAleph(Mods mods) throws IOException {
-        String sysno;
-        String base = null;
-
-        if (mods == null) return null;
-
-        List<Document> infoDocs = getResponseFromAleph(mods, RETRY_COUNT);
-
-        if (infoDocs.isEmpty()) {
-            throw new IllegalStateException(DOC_NOT_FOUND_EXCEPTION_MSG);
-        }
-
-        for (Document infoDoc : infoDocs) {
-            String set_number = infoDoc.getElementsByTagName("set_number").item(0).getTextContent();
-            String no_entries = infoDoc.getElementsByTagName("no_entries").item(0).getTextContent();
-
-            int counter = 0;
-
-            Document doc;
-
-            do {
-                try {
-                    doc = getDocumentFromURL("http://aleph.mzk.cz/X?op=present&set_no=" + set_number + "&set_entry=" + no_entries + "&format=marc");
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    return null;
-                }
-
-                counter++;
-            } while (
-                    counter < RETRY_COUNT &&
-                            doc.getElementsByTagName("doc_number").getLength() < 0
-            );
-
-            if (counter == RETRY_COUNT) throw new IOException("Could not get sysno from Aleph.");
-
-            //getById does not work, therefore we have to do it hard way
-            //= doc.getElementById("008").getTextContent();
-
-            String marc008 = null;
-            NodeList fixFields = doc.getElementsByTagName("fixfield");
-
-            for (int i = 0; i < fixFields.getLength(); i++) {
-                Element fixField = (Element) fixFields.item(i);
-
-                String id = fixField.getAttribute("id");
-
-                if (id.equals("008")) {
-                    marc008 = fixField.getTextContent();
-                }
-            }
-
-            //check if year matches due to possible year ambiguity
-            if (marc008 == null || !marc008.contains(mods.getDateIssued())) {
-                System.out.println("Could not load year from document: " + mods.getPhysicalLocation());
-                continue;
-            }
-
-            sysno = doc.getElementsByTagName("doc_number").item(0).getTextContent();
-
-            NodeList field = doc.getElementsByTagName("subfield");
-
-            for (int i = 0; i < field.getLength(); i++) {
-                String label = ((Element) field.item(i)).getAttribute("label");
-
-                if (label.equals("l")) {
-                    base = field.item(i).getTextContent();
-                }
-            }
-
-            if (sysno == null || !base.startsWith("MZK0")) return null;
+        return AlephClient.getDefault().getSysnoWithBase(mods);
+    }
 
-            return Pair.create(sysno, base);
-        }
+    /**
+     * request for sysno and base, records already known by cache are not requested from Aleph again
+     *
+     * @param mods
+     * @param client client of Aleph XServer
+     * @param cache when null, Aleph is always requested
+     * @return sysno with base or null when not found
+     */
+    public static Pair<String, String> getSysnoWithBaseFromAleph(Mods mods, AlephClient client, AlephCache cache) throws IOException {
+        if (cache == null) return client.getSysnoWithBase(mods);
 
-        return null;
+        return cache.resolve(mods, client::getSysnoWithBase);
     }
 
     /**
@@ -168,64 +124,193 @@ public class Utils {
      * @throws SAXException
      */
     public static Document getDocumentFromFile(File file) throws ParserConfigurationException, IOException, SAXException {
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+        documentParseCount.incrementAndGet();
 
-        return dBuilder.parse(file);
+        return XmlFactories.getDocumentBuilder().parse(file);
     }
 
     /**
-     * getElementById is not working because of ID chars
+     * Checks whether FOXML contains datastream with specified ID without loading whole document
      *
-     * @param id to be filtered from document. Note that ID must be unique otherwise Element returned will be the first found.
-     * @return element with specified ID
+     * Reading stops at the first matching datastream element, documents without it are read till the end.
+     *
+     * @param file FOXML file to be scanned
+     * @param datastreamId ID of datastream element, e.g. IMG_FULL
+     * @return true if datastream is present
+     * @throws IOException
+     * @throws SAXException when file is not well-formed XML
      */
-    public static Element filterDatastreamFromDocument(Document doc, String id) {
-        NodeList nl = doc.getElementsByTagName("datastreamVersion");
+    public static boolean containsDatastream(File file, String datastreamId) throws IOException, SAXException {
+        datastreamScanCount.incrementAndGet();
 
-        for (int i = 0; i < nl.getLength(); i++) {
-            if (((Element) nl.item(i)).getAttribute("ID").startsWith(id)) return (Element) nl.item(i);
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+            XMLStreamReader reader = XmlFactories.getInputFactory().createXMLStreamReader(is);
+
+            try {
+                while (reader.hasNext()) {
+                    if (
+                            reader.next() == XMLStreamConstants.START_ELEMENT &&
+                            reader.getLocalName().equals("datastream") &&
+                            (reader.getPrefix() == null || reader.getPrefix().isEmpty()) &&
+                            datastreamId.equals(reader.getAttributeValue(null, "ID")))
+                    {
+                        datastreamScanMatchCount.incrementAndGet();
+                        return true;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new SAXException("Cannot read " + file + ": " + e.getMessage(), e);
         }
 
-        return null;
+        return false;
     }
 
-    private static List<Document> getResponseFromAleph(Mods mods, int retryCount) {
-        List<Document> docs = new LinkedList<>();
+    /**
+     * Scans FOXML for contentLocation references of the first version of selected datastreams,
+     * the same versions are inlined by Foxml and FoxmlStreamRewriter
+     *
+     * @param datastreamVersionPrefixes prefixes of datastreamVersion IDs, e.g. Foxml.DATASTREAM_ALTO
+     * @return REF attribute values in document order
+     */
+    public static List<String> getContentLocations(File file, List<String> datastreamVersionPrefixes) throws IOException, SAXException {
+        List<String> refs = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+            XMLStreamReader reader = XmlFactories.getInputFactory().createXMLStreamReader(is);
+            boolean inSelectedVersion = false;
+
+            try {
+                while (reader.hasNext()) {
+                    int event = reader.next();
+
+                    if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("datastreamVersion")) {
+                        inSelectedVersion = false;
+                    }
+
+                    if (event != XMLStreamConstants.START_ELEMENT || (reader.getPrefix() != null && !reader.getPrefix().isEmpty())) continue;
+
+                    if (reader.getLocalName().equals("datastreamVersion")) {
+                        String id = reader.getAttributeValue(null, "ID");
 
-        for (String alephBase : ALEPH_BASES) {
-            Document doc = getResponseFromAleph(alephBase, mods, retryCount);
+                        for (String prefix : datastreamVersionPrefixes) {
+                            if (id != null && id.startsWith(prefix)) inSelectedVersion = seen.add(prefix);
+                        }
+                    } else if (inSelectedVersion && reader.getLocalName().equals("contentLocation")) {
+                        String ref = reader.getAttributeValue(null, "REF");
 
-            if (doc != null) {
-                docs.add(doc);
+                        if (ref != null) refs.add(ref);
+                    }
+                }
+            } finally {
+                reader.close();
             }
+        } catch (XMLStreamException e) {
+            throw new SAXException("Cannot read " + file + ": " + e.getMessage(), e);
         }
 
-        return docs;
+        return refs;
     }
 
-    private static Document getResponseFromAleph(String base, Mods mods,  int retryCount) {
-        int counter = 0;
-        Document doc;
+    /**
+     * Scans RELS-EXT of FOXML for pages the object refers to by hasPage relation, reading stops at the end of RELS-EXT
+     *
+     * @return UUIDs of referred pages in document order, without uuid: prefix
+     */
+    public static List<String> getPageReferences(File file) throws IOException, SAXException {
+        List<String> pages = new ArrayList<>();
+
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+            XMLStreamReader reader = XmlFactories.getInputFactory().createXMLStreamReader(is);
+            boolean inRelsExt = false;
 
-        do {
             try {
-                doc = getDocumentFromURL("http://aleph.mzk.cz/X?base=" + base + "&op=find&request=sig=" + mods.getPhysicalLocation());
-            } catch (Exception e) {
-                e.printStackTrace();
-                return null;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+
+                    if (event == XMLStreamConstants.END_ELEMENT && inRelsExt && reader.getLocalName().equals("datastreamVersion")) break;
+
+                    if (event != XMLStreamConstants.START_ELEMENT) continue;
+
+                    if (reader.getLocalName().equals("datastreamVersion") && (reader.getPrefix() == null || reader.getPrefix().isEmpty())) {
+                        String id = reader.getAttributeValue(null, "ID");
+
+                        inRelsExt = id != null && id.startsWith(Foxml.DATASTREAM_RELS_EXT);
+                    } else if (inRelsExt && reader.getLocalName().equals("hasPage") && FoxmlStreamRewriter.KRAMERIUS4_NAMESPACE.equals(reader.getNamespaceURI())) {
+                        String resource = reader.getAttributeValue(RDF_NS, "resource");
+
+                        if (resource != null && resource.startsWith(FEDORA_UUID_PREFIX)) {
+                            pages.add(resource.substring(FEDORA_UUID_PREFIX.length()));
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
             }
+        } catch (XMLStreamException e) {
+            throw new SAXException("Cannot read " + file + ": " + e.getMessage(), e);
+        }
 
-            counter++;
-        } while (
-            counter < retryCount &&
-                doc.getElementsByTagName("set_number").getLength() < 1 &&
-                doc.getElementsByTagName("no_entries").getLength() < 1
-        );
+        return pages;
+    }
+
+    /**
+     * @return count of FOXML files loaded into DOM by getDocumentFromFile
+     */
+    public static long getDocumentParseCount() {
+        return documentParseCount.get();
+    }
 
-        if (counter == retryCount) return null;
+    /**
+     * @return count of FOXML files scanned by containsDatastream
+     */
+    public static long getDatastreamScanCount() {
+        return datastreamScanCount.get();
+    }
 
-        return doc;
+    /**
+     * @return count of containsDatastream scans stopped at matching datastream
+     */
+    public static long getDatastreamScanMatchCount() {
+        return datastreamScanMatchCount.get();
+    }
+
+    /**
+     * Hash of file name, size and modification time used in fingerprints of inputs,
+     * hashes of files are summed, so fingerprint of directory does not depend on listing order
+     */
+    public static long getFileFingerprint(String name, long size, long modified) {
+        long h = name.hashCode();
+        h = h * 0x9E3779B97F4A7C15L + size;
+        h = h * 0x9E3779B97F4A7C15L + modified;
+
+        //murmur3 finalizer, so similar sizes and times do not cancel out in the sum
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB53FE1A85EC3L;
+        h ^= h >>> 33;
+
+        return h;
+    }
+
+    /**
+     * getElementById is not working because of ID chars
+     *
+     * @param id to be filtered from document. Note that ID must be unique otherwise Element returned will be the first found.
+     * @return element with specified ID
+     */
+    public static Element filterDatastreamFromDocument(Document doc, String id) {
+        NodeList nl = doc.getElementsByTagName("datastreamVersion");
+
+        for (int i = 0; i < nl.getLength(); i++) {
+            if (((Element) nl.item(i)).getAttribute("ID").startsWith(id)) return (Element) nl.item(i);
+        }
+
+        return null;
     }
 
     /**
@@ -249,14 +334,28 @@ public class Utils {
      * Note that Kramerius must have ProArc export accessible at
      * /opt/app-root/src/.kramerius4/import/ProArc/
      *
-     * If request fails, IllegalStateException is thrown.
-     *
      * @param parentUUID file name / uuid of export
      * @param k4address http adress of Kramerius client
      * @param k4credentials login credentials of Kramerius client
-     * @throws IOException
+     * @throws IOException when Kramerius cannot be reached or fails temporarily
+     * @throws IllegalArgumentException when Kramerius rejects the request
      */
     public static void requestKrameriusImport(String parentUUID, String k4address, String k4credentials) throws IOException {
+        String result = requestKrameriusImport(parentUUID, k4address, k4credentials, KRAMERIUS_TIMEOUT_MS);
+
+        System.out.println("Kramerius response:");
+        System.out.println(result);
+    }
+
+    /**
+     * Sends HTTP request to kramerius for starting import of specified uuid
+     *
+     * @param timeoutMillis connect and read timeout
+     * @return response of Kramerius
+     * @throws IOException when Kramerius cannot be reached, responds with server error, 408 or 429
+     * @throws IllegalArgumentException when Kramerius rejects the request
+     */
+    public static String requestKrameriusImport(String parentUUID, String k4address, String k4credentials, int timeoutMillis) throws IOException {
         String query = k4address + "/search/api/v4.6/processes/?def=parametrizedimport";
         String json =
                 "{" +
@@ -268,53 +367,66 @@ public class Utils {
                         "}" +
                         "}";
 
-        URL url = new URL(query);
+        HttpURLConnection conn = openKrameriusConnection(new URL(query), k4credentials, timeoutMillis);
+        conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+
+        try (OutputStream os = conn.getOutputStream()) {
+            os.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+
+        return readKrameriusResponse(conn, "Requesting Kramerius import failed");
+    }
+
+    /**
+     * Requests description of Kramerius process, e.g. import started by requestKrameriusImport
+     *
+     * @param processUuid uuid of process returned when process was planned
+     * @return JSON description of process
+     * @throws IOException when Kramerius cannot be reached, responds with server error, 408 or 429
+     * @throws IllegalArgumentException when Kramerius rejects the request, e.g. process does not exist
+     */
+    public static String getKrameriusProcess(String processUuid, String k4address, String k4credentials, int timeoutMillis) throws IOException {
+        HttpURLConnection conn = openKrameriusConnection(new URL(k4address + "/search/api/v4.6/processes/" + processUuid), k4credentials, timeoutMillis);
+
+        return readKrameriusResponse(conn, "Requesting Kramerius process " + processUuid + " failed");
+    }
+
+    private static HttpURLConnection openKrameriusConnection(URL url, String k4credentials, int timeoutMillis) throws IOException {
         HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setConnectTimeout(5000);
+        conn.setConnectTimeout(timeoutMillis);
+        conn.setReadTimeout(timeoutMillis);
         String encoded = Base64.getEncoder().encodeToString((k4credentials).getBytes(StandardCharsets.UTF_8));
         conn.setRequestProperty("Authorization", "Basic "+encoded);
-        conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-        conn.setDoOutput(true);
         conn.setDoInput(true);
-        conn.setRequestMethod("POST");
 
-        OutputStream os = conn.getOutputStream();
-        os.write(json.getBytes("UTF-8"));
-        os.close();
+        return conn;
+    }
 
+    /**
+     * @throws IOException on server error, 408 or 429, which may succeed when repeated
+     * @throws IllegalArgumentException on other error status
+     */
+    private static String readKrameriusResponse(HttpURLConnection conn, String errorMessage) throws IOException {
         int status = conn.getResponseCode();
-        InputStream in;
-
-        if (status < HTTP_BAD_REQUEST) {
-            // read the response
-            in = new BufferedInputStream(conn.getInputStream());
-            String result = org.apache.commons.io.IOUtils.toString(in, "UTF-8");
-            System.out.println("Kramerius response:");
-            System.out.println(result);
-
-            in.close();
-            conn.disconnect();
-        } else {
-            // read the response
-            in = new BufferedInputStream(conn.getErrorStream());
-            String result = org.apache.commons.io.IOUtils.toString(in, "UTF-8");
-
-            in.close();
-            conn.disconnect();
-
-            throw new IllegalArgumentException("Requesting Kramerius import failed, server response was : " + result);
+        InputStream stream = status < HTTP_BAD_REQUEST ? conn.getInputStream() : conn.getErrorStream();
+        String result = "";
+
+        //response is read whole and only once, so the connection can be reused by next request
+        if (stream != null) {
+            try (InputStream in = new BufferedInputStream(stream)) {
+                result = org.apache.commons.io.IOUtils.toString(in, StandardCharsets.UTF_8);
+            }
         }
 
-        try {
-            String result = org.apache.commons.io.IOUtils.toString(in, "UTF-8");
-            System.out.println("Kramerius response:");
-            System.out.println(result);
-        } catch (Exception ignored) {
-            //response does not have to be processed in any way
+        if (status < HTTP_BAD_REQUEST) return result;
+
+        if (status >= HTTP_INTERNAL_ERROR || status == HTTP_CLIENT_TIMEOUT || status == HTTP_TOO_MANY_REQUESTS) {
+            throw new IOException(errorMessage + " with status " + status + ", server response was : " + result);
         }
 
-        in.close();
-        conn.disconnect();
+        throw new IllegalArgumentException(errorMessage + ", server response was : " + result);
     }
 
     /**
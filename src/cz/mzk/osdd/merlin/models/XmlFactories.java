@@ -0,0 +1,102 @@
+package cz.mzk.osdd.merlin.models;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+/**
+ * Shared XML parsers and serializers
+ *
+ * Factory lookup is performed only once per JVM. JAXP factories and their products are not thread-safe,
+ * therefore DocumentBuilder, Transformer and StAX factories are kept per thread and reset before each use.
+ * Returned instances must not be passed to other threads.
+ */
+public class XmlFactories {
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+    private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+
+    private static final String REPORT_CDATA_PROPERTY = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private static final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<>();
+    private static final ThreadLocal<Transformer> transformers = new ThreadLocal<>();
+
+    private static final ThreadLocal<XMLInputFactory> inputFactories = ThreadLocal.withInitial(XMLInputFactory::newInstance);
+    private static final ThreadLocal<XMLInputFactory> cdataInputFactories = ThreadLocal.withInitial(XmlFactories::createCDataInputFactory);
+    private static final ThreadLocal<XMLOutputFactory> outputFactories = ThreadLocal.withInitial(XMLOutputFactory::newInstance);
+    private static final ThreadLocal<XMLEventFactory> eventFactories = ThreadLocal.withInitial(XMLEventFactory::newInstance);
+
+    private XmlFactories() {}
+
+    /**
+     * @return DocumentBuilder of current thread in its initial state
+     */
+    public static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = documentBuilders.get();
+
+        if (builder == null) {
+            synchronized (DOCUMENT_BUILDER_FACTORY) {
+                builder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            }
+
+            documentBuilders.set(builder);
+        } else {
+            builder.reset();
+        }
+
+        return builder;
+    }
+
+    /**
+     * @return identity Transformer of current thread in its initial state
+     */
+    public static Transformer getTransformer() throws TransformerConfigurationException {
+        Transformer transformer = transformers.get();
+
+        if (transformer == null) {
+            synchronized (TRANSFORMER_FACTORY) {
+                transformer = TRANSFORMER_FACTORY.newTransformer();
+            }
+
+            transformers.set(transformer);
+        } else {
+            transformer.reset();
+        }
+
+        return transformer;
+    }
+
+    public static XMLInputFactory getInputFactory() {
+        return inputFactories.get();
+    }
+
+    /**
+     * @return input factory of current thread reporting CDATA sections as CDATA events instead of characters, when supported
+     */
+    public static XMLInputFactory getCDataInputFactory() {
+        return cdataInputFactories.get();
+    }
+
+    private static XMLInputFactory createCDataInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+
+        if (factory.isPropertySupported(REPORT_CDATA_PROPERTY)) {
+            factory.setProperty(REPORT_CDATA_PROPERTY, true);
+        }
+
+        return factory;
+    }
+
+    public static XMLOutputFactory getOutputFactory() {
+        return outputFactories.get();
+    }
+
+    public static XMLEventFactory getEventFactory() {
+        return eventFactories.get();
+    }
+}
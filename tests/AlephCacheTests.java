@@ -0,0 +1,102 @@
+import cz.mzk.osdd.merlin.models.AlephCache;
+import cz.mzk.osdd.merlin.models.Mods;
+import cz.mzk.osdd.merlin.models.Pair;
+import cz.mzk.osdd.merlin.models.Utils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AlephCacheTests {
+
+    private static final Mods MODS = new Mods("1920", "ABC-123.456");
+    private static final Pair<String, String> RECORD = Pair.create("000123456", "mzk01");
+
+    private File cacheFile;
+    private AtomicInteger lookups;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        cacheFile = Files.createTempFile("aleph", ".cache").toFile();
+        cacheFile.delete();
+        lookups = new AtomicInteger();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        cacheFile.delete();
+    }
+
+    @Test
+    public void cachedRecordTest() throws IOException {
+        AlephCache cache = new AlephCache(cacheFile, 1, 1);
+
+        assertEquals(RECORD, cache.resolve(MODS, this::found));
+        assertEquals(RECORD, cache.resolve(MODS, this::found));
+
+        assertEquals(1, lookups.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void notFoundCachedTest() throws IOException {
+        AlephCache cache = new AlephCache(cacheFile, 1, 1);
+
+        assertNull(cache.resolve(MODS, this::notFound));
+        assertNull(cache.resolve(MODS, this::notFound));
+
+        assertEquals(1, lookups.get());
+        assertEquals(1, cache.getNegativeHitCount());
+    }
+
+    @Test
+    public void expiredRecordTest() throws IOException, InterruptedException {
+        AlephCache cache = new AlephCache(cacheFile, 0, 0);
+
+        cache.resolve(MODS, this::found);
+        Thread.sleep(5);
+        cache.resolve(MODS, this::found);
+
+        assertEquals(2, lookups.get());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void failedLookupNotCachedTest() throws IOException {
+        AlephCache cache = new AlephCache(cacheFile, 1, 1);
+
+        assertThrows(IOException.class, () -> cache.resolve(MODS, mods -> { throw new IOException("Aleph unavailable"); }));
+        assertEquals(RECORD, cache.resolve(MODS, this::found));
+
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void persistedCacheTest() throws IOException {
+        new AlephCache(cacheFile, 1, 1).resolve(MODS, this::found);
+
+        AlephCache reloaded = new AlephCache(cacheFile, 1, 1);
+
+        assertEquals(RECORD, reloaded.resolve(MODS, this::found));
+        assertEquals(1, lookups.get());
+        assertEquals(1, reloaded.getHitCount());
+    }
+
+    private Pair<String, String> found(Mods mods) {
+        lookups.incrementAndGet();
+        return RECORD;
+    }
+
+    private Pair<String, String> notFound(Mods mods) {
+        lookups.incrementAndGet();
+        throw new IllegalStateException(Utils.DOC_NOT_FOUND_EXCEPTION_MSG);
+    }
+}
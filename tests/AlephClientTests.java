@@ -0,0 +1,145 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import cz.mzk.osdd.merlin.models.AlephClient;
+import cz.mzk.osdd.merlin.models.Mods;
+import cz.mzk.osdd.merlin.models.Pair;
+import cz.mzk.osdd.merlin.models.Utils;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Runs AlephClient against local stub of Aleph X-Server
+ *
+ * Stub contains signature "MZK03-SIG" in base mzk03 only, each find request takes FIND_DELAY_MS.
+ */
+public class AlephClientTests {
+
+    private static final int FIND_DELAY_MS = 300;
+
+    private static final String FIND_FOUND =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?><find><set_number>000042</set_number><no_records>000000001</no_records><no_entries>000000001</no_entries></find>";
+    private static final String FIND_EMPTY =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?><find><error>empty set</error></find>";
+    private static final String PRESENT =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?><present><record><doc_number>001260566</doc_number><metadata><oai_marc>" +
+            "<fixfield id=\"008\">920101s1892    xr            000 0 cze  </fixfield>" +
+            "<varfield id=\"910\"><subfield label=\"l\">MZK03</subfield></varfield>" +
+            "</oai_marc></metadata></record></present>";
+
+    private HttpServer server;
+    private AlephClient client;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile boolean failing = false;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/X", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        client = createClient(4);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void foundInSecondBaseTest() throws IOException {
+        assertEquals(Pair.create("001260566", "MZK03"), client.getSysnoWithBase(new Mods("1892", "MZK03-SIG")));
+    }
+
+    @Test
+    public void basesRequestedConcurrentlyTest() throws IOException {
+        client.getSysnoWithBase(new Mods("1892", "MZK03-SIG"));
+
+        assertEquals(Utils.ALEPH_BASES.length, maxInFlight.get(), "find requests were sent one after another");
+    }
+
+    @Test
+    public void requestCapTest() throws IOException {
+        createClient(1).getSysnoWithBase(new Mods("1892", "MZK03-SIG"));
+
+        assertEquals(1, maxInFlight.get());
+    }
+
+    @Test
+    public void notFoundTest() {
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> client.getSysnoWithBase(new Mods("1892", "UNKNOWN")));
+
+        assertEquals(Utils.DOC_NOT_FOUND_EXCEPTION_MSG, e.getMessage());
+    }
+
+    @Test
+    public void yearMismatchTest() throws IOException {
+        assertNull(client.getSysnoWithBase(new Mods("1900", "MZK03-SIG")));
+    }
+
+    @Test
+    public void unavailableServerTest() {
+        failing = true;
+
+        assertThrows(IOException.class, () -> client.getSysnoWithBase(new Mods("1892", "MZK03-SIG")));
+    }
+
+    private AlephClient createClient(int maxRequests) {
+        return new AlephClient("http://127.0.0.1:" + server.getAddress().getPort() + "/X", maxRequests, 5);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+
+        String query = exchange.getRequestURI().getQuery();
+        int status = 200;
+        String body;
+
+        try {
+            if (failing) {
+                status = 503;
+                body = "unavailable";
+            } else if (query.contains("op=find")) {
+                Thread.sleep(FIND_DELAY_MS);
+
+                boolean found = query.contains("base=mzk03") && query.contains("sig=MZK03-SIG");
+
+                body = found ? FIND_FOUND : FIND_EMPTY;
+            } else {
+                body = PRESENT;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            //request is finished before response is sent, so client can start another one right after reading it
+            inFlight.decrementAndGet();
+        }
+
+        respond(exchange, status, body);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
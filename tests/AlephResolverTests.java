@@ -0,0 +1,106 @@
+import cz.mzk.osdd.merlin.models.AlephResolver;
+import cz.mzk.osdd.merlin.models.Mods;
+import cz.mzk.osdd.merlin.models.Pair;
+import cz.mzk.osdd.merlin.models.Utils;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AlephResolverTests {
+
+    private static final Pair<String, String> RECORD = Pair.create("000123456", "MZK01");
+
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    @Test
+    public void sharedSignatureTest() throws Exception {
+        try (AlephResolver resolver = new AlephResolver(this::found, 2, 0)) {
+            CompletableFuture<Pair<String, String>> first = resolver.resolve(new Mods("1920", "ABC-1"));
+            CompletableFuture<Pair<String, String>> second = resolver.resolve(new Mods("1920", "ABC-1"));
+
+            assertSame(first, second);
+            assertEquals(RECORD, second.get());
+            assertEquals(1, lookups.get());
+            assertEquals(1, resolver.getDeduplicatedCount());
+        }
+    }
+
+    @Test
+    public void notFoundTest() throws Exception {
+        try (AlephResolver resolver = new AlephResolver(mods -> { throw new IllegalStateException(Utils.DOC_NOT_FOUND_EXCEPTION_MSG); }, 1, 0)) {
+            assertNull(resolver.resolve(new Mods("1920", "ABC-1")).get());
+            assertNull(resolver.resolve(null).get());
+        }
+    }
+
+    @Test
+    public void failedLookupTest() {
+        try (AlephResolver resolver = new AlephResolver(mods -> { throw new IOException("Aleph unavailable"); }, 1, 0)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> resolver.resolve(new Mods("1920", "ABC-1")).get());
+
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void failedLookupRetriedTest() throws Exception {
+        AtomicInteger failures = new AtomicInteger(1);
+
+        try (AlephResolver resolver = new AlephResolver(mods -> {
+            if (failures.getAndDecrement() > 0) throw new IOException("Aleph unavailable");
+
+            return found(mods);
+        }, 1, 0)) {
+            CompletableFuture<Pair<String, String>> failed = resolver.resolve(new Mods("1920", "ABC-1"));
+
+            assertThrows(ExecutionException.class, failed::get);
+            assertEquals(RECORD, resolver.resolve(new Mods("1920", "ABC-1")).get());
+            assertEquals(2, resolver.getLookupCount());
+        }
+    }
+
+    @Test
+    public void clearCompletedTest() throws Exception {
+        try (AlephResolver resolver = new AlephResolver(this::found, 1, 0)) {
+            assertEquals(RECORD, resolver.resolve(new Mods("1920", "ABC-1")).get());
+
+            resolver.clearCompleted();
+
+            assertEquals(RECORD, resolver.resolve(new Mods("1920", "ABC-1")).get());
+            assertEquals(2, lookups.get());
+            assertEquals(0, resolver.getDeduplicatedCount());
+        }
+    }
+
+    @Test
+    public void rateLimitTest() throws Exception {
+        try (AlephResolver resolver = new AlephResolver(this::found, 4, 20)) {
+            long start = System.nanoTime();
+
+            CompletableFuture<?>[] results = new CompletableFuture<?>[5];
+
+            for (int i = 0; i < results.length; i++) {
+                results[i] = resolver.resolve(new Mods("1920", "ABC-" + i));
+            }
+
+            CompletableFuture.allOf(results).get();
+
+            //5 lookups at 20 per second cannot finish sooner than 4 intervals of 50 ms
+            assertTrue((System.nanoTime() - start) / 1_000_000 >= 190);
+            assertEquals(5, lookups.get());
+        }
+    }
+
+    private Pair<String, String> found(Mods mods) {
+        lookups.incrementAndGet();
+        return RECORD;
+    }
+}
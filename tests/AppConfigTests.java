@@ -1,8 +1,11 @@
 import cz.mzk.osdd.merlin.AppConfig;
+import cz.mzk.osdd.merlin.ExportProcessor;
+import cz.mzk.osdd.merlin.models.ProcessingContext;
 import java.io.File;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -76,4 +79,52 @@ public class AppConfigTests {
 
         assertThrows(IllegalArgumentException.class, () -> new AppConfig(argsWithoutKramerius));
     }
+
+    @Test
+    public void titleThreadsTest() {
+        String[] args = {"-iI", "./", "-iK", "tests", "-o", "tests", "-t", "4"};
+
+        assertEquals(4, new AppConfig(args).getTitleThreads());
+    }
+
+    @Test
+    public void invalidTitleThreadsTest() {
+        String[] argsZero = {"-iI", "./", "-iK", "tests", "-o", "tests", "-t", "0"};
+        assertThrows(IllegalArgumentException.class, () -> new AppConfig(argsZero));
+
+        String[] argsNotNumber = {"-iI", "./", "-iK", "tests", "-o", "tests", "-t", "four"};
+        assertThrows(IllegalArgumentException.class, () -> new AppConfig(argsNotNumber));
+    }
+
+    @Test
+    public void batchArgsTest() {
+        String[] args = {"tests/input", "tests", "-t", "4"};
+
+        AppConfig ac = new AppConfig(args);
+
+        assertEquals("tests/input", ac.getBatchDirectory().toString());
+        assertEquals("tests", ac.getOutput().toString());
+        assertNull(ac.getInputImage());
+
+        String[] argsWithoutOutput = {"tests/input"};
+
+        assertEquals("tests/input", new AppConfig(argsWithoutOutput).getOutput().toString());
+
+        String[] argsMissingInput = {"tests/missing", "tests"};
+        assertThrows(IllegalArgumentException.class, () -> new AppConfig(argsMissingInput));
+
+        String[] argsDirectOutput = {"tests/input", "-oD", "-oK", "tests", "-oI", "tests"};
+        assertThrows(IllegalArgumentException.class, () -> new AppConfig(argsDirectOutput));
+    }
+
+    @Test
+    public void batchTitleThreadsTest() {
+        String[] args = {"tests/input", "tests", "-t", "4"};
+
+        ExportProcessor processor = ExportProcessor.createBatchProcessor(new AppConfig(args));
+
+        try (ProcessingContext context = processor.getContext()) {
+            assertEquals(4, context.getTitleThreads());
+        }
+    }
 }
@@ -0,0 +1,53 @@
+import cz.mzk.osdd.merlin.models.ChecksumManifest;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ChecksumManifestTests {
+
+    private Path dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("manifest");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void missingManifestTest() throws IOException {
+        assertNull(ChecksumManifest.load(dir).get("page.jp2"));
+    }
+
+    @Test
+    public void saveAndLoadTest() throws IOException {
+        ChecksumManifest manifest = ChecksumManifest.load(dir);
+        manifest.put("b.jp2", "bb");
+        manifest.put("a.jp2", "aa");
+        manifest.put("c.jp2", "cc");
+        manifest.remove("c.jp2");
+        manifest.save();
+
+        //sha256sum compatible format
+        assertEquals(
+                "aa  a.jp2\nbb  b.jp2\n",
+                new String(Files.readAllBytes(dir.resolve(ChecksumManifest.FILE_NAME)), StandardCharsets.UTF_8));
+
+        ChecksumManifest loaded = ChecksumManifest.load(dir);
+
+        assertEquals("aa", loaded.get("a.jp2"));
+        assertEquals("bb", loaded.get("b.jp2"));
+        assertNull(loaded.get("c.jp2"));
+    }
+}
@@ -0,0 +1,201 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import cz.mzk.osdd.merlin.models.ContentFetcher;
+import cz.mzk.osdd.merlin.models.Foxml;
+import cz.mzk.osdd.merlin.models.FoxmlStreamRewriter;
+import cz.mzk.osdd.merlin.models.Utils;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Runs ContentFetcher against local stub of ProArc content API
+ *
+ * Stub serves ALTO of page named by the last path segment, responds with 503 while failures are left
+ * and with 404 to page "missing".
+ */
+public class ContentFetcherTests {
+
+    private static final String ALTO_DATASTREAM =
+            "    <datastream ID=\"ALTO\" CONTROL_GROUP=\"E\" STATE=\"A\" VERSIONABLE=\"false\">\n" +
+            "        <datastreamVersion ID=\"ALTO.0\" LABEL=\"ALTO\" MIMETYPE=\"text/xml\" SIZE=\"10\">\n" +
+            "            <contentLocation TYPE=\"INTERNAL_ID\" REF=\"%s\"/>\n" +
+            "        </datastreamVersion>\n" +
+            "        <datastreamVersion ID=\"ALTO.1\" LABEL=\"ALTO\" MIMETYPE=\"text/xml\" SIZE=\"10\">\n" +
+            "            <contentLocation TYPE=\"INTERNAL_ID\" REF=\"%s/old\"/>\n" +
+            "        </datastreamVersion>\n" +
+            "    </datastream>\n";
+
+    private HttpServer server;
+    private String address;
+    private Path dir;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/alto/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        address = "http://127.0.0.1:" + server.getAddress().getPort() + "/alto/";
+        dir = Files.createTempDirectory("content");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        server.stop(0);
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void contentLocationsTest() throws Exception {
+        Path foxml = createFoxml(address + "page");
+
+        List<String> refs = Utils.getContentLocations(foxml.toFile(), ContentFetcher.OCR_DATASTREAMS);
+
+        assertEquals(Collections.singletonList(address + "page"), refs);
+    }
+
+    @Test
+    public void prefetchedContentDownloadedOnceTest() throws Exception {
+        Path foxml = createFoxml(address + "page");
+
+        try (ContentFetcher fetcher = new ContentFetcher(null, 2, 5)) {
+            fetcher.prefetch(foxml);
+
+            assertEquals("<alto>page</alto>", read(fetcher, address + "page"));
+            assertEquals(1, fetcher.getDownloadCount());
+        }
+
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void cacheReusedByNextRunTest() throws Exception {
+        Path cache = dir.resolve("cache");
+
+        try (ContentFetcher fetcher = new ContentFetcher(cache, 2, 5)) {
+            assertEquals("<alto>page</alto>", read(fetcher, address + "page"));
+        }
+
+        try (ContentFetcher fetcher = new ContentFetcher(cache, 2, 5)) {
+            assertEquals("<alto>page</alto>", read(fetcher, address + "page"));
+
+            assertEquals(0, fetcher.getDownloadCount());
+            assertEquals(1, fetcher.getCacheHitCount());
+        }
+
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void temporaryFailureRetriedTest() throws Exception {
+        failures.set(Utils.RETRY_COUNT - 1);
+
+        try (ContentFetcher fetcher = new ContentFetcher(null, 2, 5)) {
+            assertEquals("<alto>page</alto>", read(fetcher, address + "page"));
+            assertEquals(Utils.RETRY_COUNT - 1, fetcher.getRetryCount());
+        }
+    }
+
+    @Test
+    public void missingContentNotRetriedTest() throws Exception {
+        try (ContentFetcher fetcher = new ContentFetcher(null, 2, 5)) {
+            assertThrows(IOException.class, () -> fetcher.open(address + "missing"));
+        }
+
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void streamingAndDomInliningTest() throws Exception {
+        Path foxml = createFoxml(address + "page");
+        Path out = Files.createDirectories(dir.resolve("out"));
+        String expected = Base64.getEncoder().encodeToString("<alto>page</alto>".getBytes(StandardCharsets.UTF_8));
+
+        try (ContentFetcher fetcher = new ContentFetcher(dir.resolve("cache"), 2, 5)) {
+            FoxmlStreamRewriter rewriter = new FoxmlStreamRewriter(
+                    FoxmlTests.TESTING_IMAGE_LOCATION,
+                    FoxmlTests.TESTING_FOXML_BASE,
+                    FoxmlTests.TESTING_FOXML_UUID,
+                    Foxml.PAGE_DATASTREAMS,
+                    true);
+            rewriter.setContentResolver(fetcher);
+            rewriter.rewrite(foxml, out);
+
+            assertEquals(expected, getAltoContent(Utils.getDocumentFromFile(out.resolve(FoxmlTests.TESTING_FOXML_UUID + ".xml").toFile())));
+
+            Document dom = Utils.getDocumentFromFile(foxml.toFile());
+            Foxml f = new Foxml(dom, FoxmlTests.TESTING_IMAGE_LOCATION, FoxmlTests.TESTING_FOXML_BASE, FoxmlTests.TESTING_FOXML_UUID);
+            f.setContentResolver(fetcher);
+            f.processDatastream(Foxml.DATASTREAM_ALTO);
+
+            assertEquals(expected, getAltoContent(dom));
+        }
+
+        assertEquals(1, requests.get());
+    }
+
+    private Path createFoxml(String ref) throws IOException {
+        String foxml = new String(Files.readAllBytes(new File(FoxmlTests.TESTING_FOXML).toPath()), StandardCharsets.UTF_8);
+        foxml = foxml.replace("</digitalObject>", String.format(ALTO_DATASTREAM, ref, ref) + "</digitalObject>");
+
+        Path file = dir.resolve("page.xml");
+        Files.write(file, foxml.getBytes(StandardCharsets.UTF_8));
+
+        return file;
+    }
+
+    private static String read(ContentFetcher fetcher, String url) throws IOException {
+        try (ContentFetcher.Content content = fetcher.open(url)) {
+            return IOUtils.toString(content.stream, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String getAltoContent(Document doc) {
+        return Utils.filterDatastreamFromDocument(doc, Foxml.DATASTREAM_ALTO).getElementsByTagName("binaryContent").item(0).getTextContent();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+
+        String path = exchange.getRequestURI().getPath();
+        String page = path.substring(path.lastIndexOf('/') + 1);
+
+        if (failures.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+            exchange.sendResponseHeaders(503, -1);
+        } else if (page.equals("missing")) {
+            exchange.sendResponseHeaders(404, -1);
+        } else {
+            byte[] body = ("<alto>" + page + "</alto>").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+
+        exchange.close();
+    }
+}
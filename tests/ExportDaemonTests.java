@@ -0,0 +1,169 @@
+import cz.mzk.osdd.merlin.ExportDaemon;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ExportDaemonTests {
+
+    private static final long SETTLE_MILLIS = 200;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private Path root;
+    private ExecutorService executor;
+
+    private final List<String> processed = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("watch");
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    @Test
+    public void existingExportTest() throws Exception {
+        createExport("a", true);
+
+        ExportDaemon daemon = createDaemon();
+        Future<Integer> result = executor.submit(daemon::run);
+
+        awaitProcessed(1);
+
+        daemon.stop();
+
+        assertEquals(0, (int) result.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals("a", processed.get(0));
+        assertEquals(1, daemon.getProcessedCount());
+    }
+
+    @Test
+    public void completedExportTest() throws Exception {
+        ExportDaemon daemon = createDaemon();
+        Future<Integer> result = executor.submit(daemon::run);
+
+        createExport("b", false);
+
+        //export without status log is incomplete
+        Thread.sleep(SETTLE_MILLIS * 3);
+        assertTrue(processed.isEmpty());
+
+        Files.createFile(root.resolve("k4_b").resolve(ExportDaemon.STATUS_FILE));
+
+        awaitProcessed(1);
+
+        //changes made after processing do not trigger it again
+        Files.createFile(root.resolve("k4_b").resolve("page.xml"));
+        Thread.sleep(SETTLE_MILLIS * 3);
+
+        assertEquals(1, processed.size());
+
+        //rewritten status log means new export
+        Path status = root.resolve("k4_b").resolve(ExportDaemon.STATUS_FILE);
+        Files.setLastModifiedTime(status, FileTime.fromMillis(Files.getLastModifiedTime(status).toMillis() + 60000));
+
+        awaitProcessed(2);
+
+        daemon.stop();
+
+        assertEquals(0, (int) result.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void failedExportTest() throws Exception {
+        createExport("fail", true);
+
+        ExportDaemon daemon = createDaemon();
+        Future<Integer> result = executor.submit(daemon::run);
+
+        awaitProcessed(1);
+
+        daemon.stop();
+
+        assertEquals(1, (int) result.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(1, daemon.getFailedCount());
+    }
+
+    @Test
+    public void reexportDiscardsRecordsTest() throws Exception {
+        List<String> discarded = new CopyOnWriteArrayList<>();
+
+        ExportDaemon daemon = new ExportDaemon(root, SETTLE_MILLIS, 2, new ExportDaemon.TitleHandler() {
+            @Override
+            public boolean process(Path images, Path k4) {
+                processed.add(images.getFileName().toString());
+                return true;
+            }
+
+            @Override
+            public void discard(String title) {
+                discarded.add(title);
+            }
+        });
+
+        createExport("c", true);
+
+        Future<Integer> result = executor.submit(daemon::run);
+
+        awaitProcessed(1);
+        assertTrue(discarded.isEmpty());
+
+        Path status = root.resolve("k4_c").resolve(ExportDaemon.STATUS_FILE);
+        Files.setLastModifiedTime(status, FileTime.fromMillis(Files.getLastModifiedTime(status).toMillis() + 60000));
+
+        awaitProcessed(2);
+
+        daemon.stop();
+
+        assertEquals(0, (int) result.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singletonList("c"), discarded);
+    }
+
+    private ExportDaemon createDaemon() {
+        return new ExportDaemon(root, SETTLE_MILLIS, 2, (images, k4) -> {
+            String title = images.getFileName().toString();
+
+            assertEquals("k4_" + title, k4.getFileName().toString());
+
+            processed.add(title);
+
+            return !title.equals("fail");
+        });
+    }
+
+    private void createExport(String title, boolean finished) throws IOException {
+        Files.createDirectory(root.resolve(title));
+        Files.createDirectory(root.resolve("k4_" + title));
+
+        if (finished) Files.createFile(root.resolve("k4_" + title).resolve(ExportDaemon.STATUS_FILE));
+    }
+
+    private void awaitProcessed(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+        while (processed.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        assertEquals(count, processed.size());
+    }
+}
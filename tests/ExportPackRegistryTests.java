@@ -0,0 +1,102 @@
+import cz.mzk.osdd.merlin.models.ExportPack;
+import cz.mzk.osdd.merlin.models.ExportPackRegistry;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ExportPackRegistryTests {
+
+    private static final Path DIR = Paths.get("input", "title");
+
+    @Test
+    public void foxmlAndImageShareSinglePackTest() {
+        ExportPackRegistry registry = new ExportPackRegistry(".xml", ".jp2");
+        String uuid = "0eaa6730-9068-11dd-97de-000d606f5dc6";
+
+        int foxml = registry.addKrameriusExport(DIR.resolve(uuid + ".xml").toFile());
+        int image = registry.addImageExport(DIR.resolve(uuid + ".jp2").toFile());
+
+        assertEquals(foxml, image);
+        assertEquals(1, registry.size());
+        assertEquals(foxml, registry.indexOf(uuid));
+        assertEquals(uuid, registry.getUuid(foxml));
+        assertEquals(UUID.fromString(uuid).getMostSignificantBits(), registry.getMostSignificantBits(foxml));
+        assertEquals(UUID.fromString(uuid).getLeastSignificantBits(), registry.getLeastSignificantBits(foxml));
+        assertEquals(DIR.resolve(uuid + ".xml"), registry.getKrameriusExportPath(foxml));
+        assertEquals(DIR.resolve(uuid + ".jp2"), registry.getImageExportPath(foxml));
+        assertSame(registry.getKrameriusDirectory(foxml), registry.getImageDirectory(foxml));
+
+        ExportPack pack = registry.getPack(foxml);
+
+        assertEquals(uuid, pack.uuid);
+        assertTrue(pack.isValid());
+        assertEquals(DIR.resolve(uuid + ".xml"), pack.getKrameriusExportPath());
+    }
+
+    @Test
+    public void lookupAfterGrowthTest() {
+        ExportPackRegistry registry = new ExportPackRegistry(".xml", ".jp2");
+        String[] uuids = new String[1000];
+
+        for (int i = 0; i < uuids.length; i++) {
+            uuids[i] = UUID.randomUUID().toString();
+            registry.addKrameriusExport(DIR.resolve(uuids[i] + ".xml").toFile());
+        }
+
+        for (int i = 0; i < uuids.length; i++) {
+            assertEquals(i, registry.indexOf(uuids[i]));
+            assertEquals(uuids[i], registry.getUuid(i));
+            assertFalse(registry.hasImageExport(i));
+            assertNull(registry.getImageExportPath(i));
+        }
+
+        assertEquals(-1, registry.indexOf(UUID.randomUUID().toString()));
+    }
+
+    @Test
+    public void irregularUuidKeptAsStringTest() {
+        ExportPackRegistry registry = new ExportPackRegistry(".xml", ".jp2");
+
+        int upper = registry.addKrameriusExport(DIR.resolve("0EAA6730-9068-11DD-97DE-000D606F5DC6.xml").toFile());
+        int name = registry.addImageExport(DIR.resolve("page-1.jp2").toFile());
+
+        assertEquals(2, registry.size());
+        assertEquals("0EAA6730-9068-11DD-97DE-000D606F5DC6", registry.getUuid(upper));
+        assertEquals(name, registry.indexOf("page-1"));
+        assertEquals(-1, registry.indexOf("0eaa6730-9068-11dd-97de-000d606f5dc6"));
+        assertEquals(DIR.resolve("page-1.jp2"), registry.getImageExportPath(name));
+    }
+
+    @Test
+    public void pageClassificationTest() {
+        ExportPackRegistry registry = new ExportPackRegistry(".xml", ".jp2");
+
+        int page = registry.addKrameriusExport(DIR.resolve(UUID.randomUUID() + ".xml").toFile());
+        int root = registry.addKrameriusExport(DIR.resolve(UUID.randomUUID() + ".xml").toFile());
+
+        registry.setPage(page, true);
+        registry.setPage(root, false);
+        registry.setPage(page, true);
+
+        assertEquals(1, registry.getPageCount());
+        assertTrue(registry.isPage(page));
+        assertTrue(registry.isNonPage(root));
+        assertFalse(registry.isPage(root));
+    }
+
+    @Test
+    public void wrongSuffixRejectedTest() {
+        ExportPackRegistry registry = new ExportPackRegistry(".xml", ".jp2");
+
+        assertThrows(IllegalArgumentException.class, () -> registry.addImageExport(DIR.resolve(UUID.randomUUID() + ".xml").toFile()));
+        assertThrows(IndexOutOfBoundsException.class, () -> registry.getUuid(0));
+    }
+}
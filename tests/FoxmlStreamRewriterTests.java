@@ -0,0 +1,138 @@
+import cz.mzk.osdd.merlin.models.Foxml;
+import cz.mzk.osdd.merlin.models.FoxmlStreamRewriter;
+import cz.mzk.osdd.merlin.models.Utils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that streaming rewrite produces the same document as DOM processing in Foxml
+ */
+public class FoxmlStreamRewriterTests {
+
+    private static final String ALTO_DATASTREAM =
+            "    <datastream ID=\"ALTO\" CONTROL_GROUP=\"E\" STATE=\"A\" VERSIONABLE=\"false\" FEDORA_URI=\"info:fedora/ALTO\">\n" +
+            "        <datastreamVersion ID=\"ALTO.0\" LABEL=\"ALTO\" MIMETYPE=\"text/xml\" SIZE=\"10\">\n" +
+            "            <contentLocation TYPE=\"INTERNAL_ID\" REF=\"%s\"/>\n" +
+            "        </datastreamVersion>\n" +
+            "    </datastream>\n";
+
+    @Test
+    public void pageRewriteTest() throws Exception {
+        byte[] foxml = Files.readAllBytes(new File(FoxmlTests.TESTING_FOXML).toPath());
+
+        assertSameAsDom(foxml, Foxml.PAGE_DATASTREAMS, true);
+    }
+
+    @Test
+    public void nonPageRewriteTest() throws Exception {
+        byte[] foxml = Files.readAllBytes(new File(FoxmlTests.TESTING_FOXML).toPath());
+
+        assertSameAsDom(foxml, Foxml.NON_PAGE_DATASTREAMS, false);
+    }
+
+    @Test
+    public void altoContentLocationRewriteTest() throws Exception {
+        Path alto = Files.createTempFile("alto", ".xml");
+        Files.write(alto, "<alto>text of page</alto>".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            String foxml = new String(Files.readAllBytes(new File(FoxmlTests.TESTING_FOXML).toPath()), StandardCharsets.UTF_8);
+            foxml = foxml.replace("</digitalObject>", String.format(ALTO_DATASTREAM, alto.toUri()) + "</digitalObject>");
+
+            Document streamed = assertSameAsDom(foxml.getBytes(StandardCharsets.UTF_8), Foxml.PAGE_DATASTREAMS, true);
+
+            assertEquals(
+                    Base64.getEncoder().encodeToString(Files.readAllBytes(alto)),
+                    Utils.filterDatastreamFromDocument(streamed, Foxml.DATASTREAM_ALTO).getElementsByTagName("binaryContent").item(0).getTextContent());
+        } finally {
+            Files.delete(alto);
+        }
+    }
+
+    @Test
+    public void serializationTest() throws Exception {
+        String foxml = new String(Files.readAllBytes(new File(FoxmlTests.TESTING_FOXML).toPath()), StandardCharsets.UTF_8);
+
+        foxml = foxml.replaceFirst("\\?>", "?>\n<!-- exported -->\n<?proarc export?>");
+        foxml = foxml.replace("</digitalObject>",
+                "<extension b=\"&quot;&lt;&gt;&amp;&#10;&#13;&#9;\u0085\" a=\"\uD83D\uDE00\" xmlns:x=\"urn:x\"><x:empty></x:empty>" +
+                "text &amp; &gt; \"'\t&#13;\u0085\u007F\u00A0\uD83D\uDE00<![CDATA[<raw>]]><!-- inner --></extension>\n</digitalObject>\n<!-- end -->\n");
+
+        assertSameAsDom(foxml.getBytes(StandardCharsets.UTF_8), Foxml.PAGE_DATASTREAMS, true);
+    }
+
+    @Test
+    public void missingDatastreamTest() throws IOException {
+        byte[] foxml = Files.readAllBytes(new File(FoxmlTests.TESTING_FOXML).toPath());
+        String withoutThumb = new String(foxml, StandardCharsets.UTF_8).replace("IMG_THUMB.0", "IMG_OTHER.0");
+
+        FoxmlStreamRewriter rewriter = createRewriter(Foxml.PAGE_DATASTREAMS, true);
+
+        assertThrows(IllegalStateException.class, () -> rewriter.rewrite(
+                new ByteArrayInputStream(withoutThumb.getBytes(StandardCharsets.UTF_8)),
+                new ByteArrayOutputStream()));
+    }
+
+    private Document assertSameAsDom(byte[] foxml, List<String> datastreams, boolean processRdf) throws IOException, SAXException, ParserConfigurationException, TransformerException, XMLStreamException {
+        Document dom = parse(foxml);
+        Foxml f = new Foxml(dom, FoxmlTests.TESTING_IMAGE_LOCATION, FoxmlTests.TESTING_FOXML_BASE, FoxmlTests.TESTING_FOXML_UUID);
+
+        f.removeFedoraURIFromRoot();
+
+        for (String datastream : datastreams) {
+            f.processDatastream(datastream);
+        }
+
+        if (processRdf) {
+            f.processRDF();
+        }
+
+        ByteArrayOutputStream domOutput = new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(dom), new StreamResult(domOutput));
+
+        ByteArrayOutputStream streamOutput = new ByteArrayOutputStream();
+        createRewriter(datastreams, processRdf).rewrite(new ByteArrayInputStream(foxml), streamOutput);
+
+        assertEquals(
+                new String(domOutput.toByteArray(), StandardCharsets.UTF_8),
+                new String(streamOutput.toByteArray(), StandardCharsets.UTF_8),
+                "streamed document differs from DOM output");
+        assertArrayEquals(domOutput.toByteArray(), streamOutput.toByteArray());
+
+        return parse(streamOutput.toByteArray());
+    }
+
+    private FoxmlStreamRewriter createRewriter(List<String> datastreams, boolean processRdf) {
+        return new FoxmlStreamRewriter(
+                FoxmlTests.TESTING_IMAGE_LOCATION,
+                FoxmlTests.TESTING_FOXML_BASE,
+                FoxmlTests.TESTING_FOXML_UUID,
+                datastreams,
+                processRdf);
+    }
+
+    private Document parse(byte[] xml) throws ParserConfigurationException, IOException, SAXException {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+    }
+}
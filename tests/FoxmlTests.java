@@ -9,6 +9,8 @@ import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
@@ -43,6 +45,23 @@ public class FoxmlTests {
         assertThrows(IllegalArgumentException.class, () -> f.processDatastream(null));
     }
 
+    @Test
+    public void datastreamVersionIndexTest() throws ParserConfigurationException, SAXException, IOException {
+        Document d = getTestingDocument();
+        Foxml f = new Foxml(d, " ", "MZK01", "aaaaaaa1-1111-1111-1111-2f890f11f9d5");
+
+        for (String ds : Foxml.PAGE_DATASTREAMS) {
+            assertSame(Utils.filterDatastreamFromDocument(d, ds), f.getDatastreamVersion(ds));
+        }
+
+        for (String ds : Foxml.NON_PAGE_DATASTREAMS) {
+            assertSame(Utils.filterDatastreamFromDocument(d, ds), f.getDatastreamVersion(ds));
+        }
+
+        assertSame(Utils.filterDatastreamFromDocument(d, "IMG"), f.getDatastreamVersion("IMG"));
+        assertNull(f.getDatastreamVersion("MISSING."));
+    }
+
     @Test
     public void processImgFull() throws ParserConfigurationException, SAXException, IOException {
         processDatastream(Foxml.DATASTREAM_IMG_FULL, Foxml.DATASTREAM_FILENAME_IMG_FULL);
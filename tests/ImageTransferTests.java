@@ -0,0 +1,172 @@
+import cz.mzk.osdd.merlin.models.Checksums;
+import cz.mzk.osdd.merlin.models.ImageTransfer;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ImageTransferTests {
+
+    private Path dir;
+    private Path source;
+    private byte[] content;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("transfer");
+        source = dir.resolve("page.jp2");
+        content = new byte[3 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(content);
+
+        Files.write(source, content);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void copyTest() throws IOException {
+        Path target = dir.resolve("copy.jp2");
+
+        ImageTransfer.Result result = new ImageTransfer(ImageTransfer.Mode.COPY).transfer(source, target);
+
+        assertEquals(ImageTransfer.Strategy.COPY, result.strategy);
+        assertEquals(content.length, result.bytes);
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertFalse(Files.isSameFile(source, target));
+    }
+
+    @Test
+    public void hardlinkTest() throws IOException {
+        Path target = dir.resolve("link.jp2");
+
+        ImageTransfer.Result result = new ImageTransfer(ImageTransfer.Mode.HARDLINK).transfer(source, target);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+
+        if (result.strategy == ImageTransfer.Strategy.HARDLINK) {
+            assertTrue(Files.isSameFile(source, target));
+        } else {
+            assertEquals(ImageTransfer.Strategy.COPY, result.strategy);
+        }
+    }
+
+    @Test
+    public void autoKeepsSourceTest() throws IOException {
+        Path target = dir.resolve("auto.jp2");
+
+        ImageTransfer transfer = new ImageTransfer(ImageTransfer.Mode.AUTO);
+        ImageTransfer.Result result = transfer.transfer(source, target);
+
+        //hardlink would share permissions with input, therefore it is never created in auto mode
+        assertNotEquals(ImageTransfer.Strategy.HARDLINK, result.strategy);
+        assertFalse(Files.isSameFile(source, target));
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertArrayEquals(content, Files.readAllBytes(source));
+        assertEquals(1, transfer.getCount(result.strategy));
+    }
+
+    @Test
+    public void moveTest() throws IOException {
+        Path target = dir.resolve("moved.jp2");
+
+        ImageTransfer.Result result = new ImageTransfer(ImageTransfer.Mode.MOVE).transfer(source, target);
+
+        assertEquals(ImageTransfer.Strategy.MOVE, result.strategy);
+        assertFalse(Files.exists(source));
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void existingTargetTest() throws IOException {
+        Path target = dir.resolve("existing.jp2");
+        Files.write(target, new byte[] {1});
+
+        for (ImageTransfer.Mode mode : ImageTransfer.Mode.values()) {
+            assertThrows(FileAlreadyExistsException.class, () -> new ImageTransfer(mode).transfer(source, target));
+        }
+
+        assertArrayEquals(new byte[] {1}, Files.readAllBytes(target));
+        assertTrue(Files.exists(source));
+    }
+
+    @Test
+    public void checksumTest() throws Exception {
+        StringBuilder expected = new StringBuilder();
+
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+            expected.append(String.format("%02x", b));
+        }
+
+        Path target = dir.resolve("copy.jp2");
+
+        assertEquals(expected.toString(), new ImageTransfer(ImageTransfer.Mode.COPY).transfer(source, target).checksum);
+        assertEquals(expected.toString(), Checksums.sha256(target));
+    }
+
+    @Test
+    public void linkedImageNotReadTest() throws IOException {
+        Path target = dir.resolve("link.jp2");
+
+        ImageTransfer.Result result = new ImageTransfer(ImageTransfer.Mode.HARDLINK).transfer(source, target);
+
+        //checksum is computed only while content is copied
+        if (result.strategy == ImageTransfer.Strategy.HARDLINK) {
+            assertNull(result.checksum);
+        } else {
+            assertEquals(Checksums.sha256(source), result.checksum);
+        }
+    }
+
+    @Test
+    public void smallImageCopiedTest() throws IOException {
+        Path small = dir.resolve("small.jp2");
+        Files.write(small, new byte[] {1, 2, 3});
+
+        ImageTransfer.Result result = new ImageTransfer(ImageTransfer.Mode.REFLINK).transfer(small, dir.resolve("copy.jp2"));
+
+        //cloning small image costs more than copying it
+        assertEquals(ImageTransfer.Strategy.COPY, result.strategy);
+        assertEquals(Checksums.sha256(small), result.checksum);
+    }
+
+    @Test
+    public void reflinkManyTest() throws IOException {
+        try (ImageTransfer transfer = new ImageTransfer(ImageTransfer.Mode.REFLINK)) {
+            for (int i = 0; i < 5; i++) {
+                Path target = dir.resolve("clone" + i + ".jp2");
+
+                ImageTransfer.Result result = transfer.transfer(source, target);
+
+                //filesystem without reflink support is recognized and images are copied
+                assertNotEquals(ImageTransfer.Strategy.HARDLINK, result.strategy);
+                assertFalse(Files.isSameFile(source, target));
+                assertArrayEquals(content, Files.readAllBytes(target));
+            }
+
+            assertEquals(5, transfer.getCount(ImageTransfer.Strategy.REFLINK) + transfer.getCount(ImageTransfer.Strategy.COPY));
+        }
+    }
+
+    @Test
+    public void parseModeTest() {
+        assertEquals(ImageTransfer.Mode.REFLINK, ImageTransfer.Mode.parse(" Reflink"));
+        assertThrows(IllegalArgumentException.class, () -> ImageTransfer.Mode.parse("symlink"));
+    }
+}
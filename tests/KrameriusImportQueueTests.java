@@ -0,0 +1,203 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import cz.mzk.osdd.merlin.models.KrameriusImportQueue;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs KrameriusImportQueue against local stub of Kramerius process API
+ *
+ * Stub responds with 503 while failures are left, import of uuid "rejected" is answered by 400.
+ */
+public class KrameriusImportQueueTests {
+
+    private static final int REQUEST_DELAY_MS = 100;
+
+    private HttpServer server;
+    private String address;
+    private Path dir;
+
+    private final List<String> imported = new CopyOnWriteArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/search/api/v4.6/processes/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        address = "http://127.0.0.1:" + server.getAddress().getPort();
+        dir = Files.createTempDirectory("imports");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        server.stop(0);
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void requestCapTest() throws Exception {
+        try (KrameriusImportQueue queue = createQueue(2, 0)) {
+            for (int i = 0; i < 6; i++) {
+                queue.submit("uuid-" + i);
+            }
+
+            queue.awaitCompletion();
+
+            assertEquals(6, queue.getRequestedCount());
+        }
+
+        assertEquals(2, maxInFlight.get());
+        assertEquals(6, imported.size());
+    }
+
+    @Test
+    public void retryTest() throws Exception {
+        failures.set(2);
+
+        try (KrameriusImportQueue queue = createQueue(1, 0)) {
+            queue.submit("uuid");
+            queue.awaitCompletion();
+
+            assertEquals(2, queue.getRetryCount());
+            assertEquals(0, queue.getFailedCount());
+        }
+
+        assertEquals(Collections.singletonList("uuid"), imported);
+        assertEquals("", new String(Files.readAllBytes(dir.resolve("pending.txt")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void rejectedTest() throws Exception {
+        try (KrameriusImportQueue queue = createQueue(1, 0)) {
+            queue.submit("rejected");
+            queue.awaitCompletion();
+
+            assertEquals(1, queue.getFailedCount());
+            assertEquals(0, queue.getRetryCount());
+        }
+
+        //rejected request is not repeated in next run
+        assertEquals("", new String(Files.readAllBytes(dir.resolve("pending.txt")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void pendingAfterRestartTest() throws Exception {
+        failures.set(Integer.MAX_VALUE);
+
+        try (KrameriusImportQueue queue = createQueue(1, 0)) {
+            queue.submit("uuid");
+            queue.awaitCompletion();
+
+            assertEquals(1, queue.getFailedCount());
+        }
+
+        assertEquals("uuid\n", new String(Files.readAllBytes(dir.resolve("pending.txt")), StandardCharsets.UTF_8));
+
+        failures.set(0);
+
+        try (KrameriusImportQueue queue = createQueue(1, 0)) {
+            queue.awaitCompletion();
+
+            assertEquals(1, queue.getRequestedCount());
+        }
+
+        assertEquals(Collections.singletonList("uuid"), imported);
+    }
+
+    @Test
+    public void coalescingWindowTest() throws Exception {
+        try (KrameriusImportQueue queue = createQueue(2, 60000)) {
+            queue.submit("a");
+            queue.submit("b");
+            queue.submit("a");
+
+            //nothing is sent before window ends
+            Thread.sleep(REQUEST_DELAY_MS * 2);
+            assertTrue(imported.isEmpty());
+
+            queue.awaitCompletion();
+
+            assertEquals(1, queue.getCoalescedCount());
+        }
+
+        assertEquals(Arrays.asList("a", "b"), sorted(imported));
+    }
+
+    private static List<String> sorted(List<String> list) {
+        List<String> copy = new ArrayList<>(list);
+        Collections.sort(copy);
+
+        return copy;
+    }
+
+    private KrameriusImportQueue createQueue(int maxRequests, long windowMillis) throws IOException {
+        KrameriusImportQueue queue = new KrameriusImportQueue(address, "user:password", dir.resolve("pending.txt"), maxRequests, 5, windowMillis);
+        queue.setRetryPolicy(10, 40, 3);
+
+        return queue;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body;
+
+        try (InputStream in = exchange.getRequestBody()) {
+            body = IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+
+        String uuid = body.substring(body.indexOf("/ProArc/") + "/ProArc/".length(), body.indexOf("\",\"startIndexer\""));
+
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+
+        try {
+            Thread.sleep(REQUEST_DELAY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        int status;
+
+        if (failures.getAndUpdate(f -> f > 0 ? f - 1 : 0) > 0) {
+            status = 503;
+        } else if (uuid.equals("rejected")) {
+            status = 400;
+        } else {
+            status = 200;
+            imported.add(uuid);
+        }
+
+        inFlight.decrementAndGet();
+
+        byte[] response = ("{\"uuid\":\"" + uuid + "\"}").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, response.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+}
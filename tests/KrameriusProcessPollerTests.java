@@ -0,0 +1,154 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import cz.mzk.osdd.merlin.models.KrameriusImportQueue;
+import cz.mzk.osdd.merlin.models.KrameriusProcessPoller;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs KrameriusProcessPoller against local stub of Kramerius process API
+ *
+ * Each planned import goes through STATES, one state per poll. Import of title "failing" fails once it runs.
+ */
+public class KrameriusProcessPollerTests {
+
+    private static final String[] STATES = {
+            "{\"uuid\":\"%s\",\"state\":\"PLANNED\",\"batchState\":\"NO_BATCH\"}",
+            "{\"uuid\":\"%s\",\"state\":\"RUNNING\",\"batchState\":\"BATCH_STARTED\"}",
+            "{\"uuid\":\"%s\",\"state\":\"FINISHED\",\"batchState\":\"BATCH_STARTED\"}",
+            "{\"uuid\":\"%s\",\"state\":\"FINISHED\",\"batchState\":\"BATCH_FINISHED\"}"
+    };
+
+    private HttpServer server;
+    private String address;
+
+    private final Map<String, AtomicInteger> polls = new ConcurrentHashMap<>();
+    private final AtomicInteger unfinished = new AtomicInteger();
+    private final AtomicInteger maxUnfinished = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/search/api/v4.6/processes/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        address = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void responseParsingTest() {
+        assertEquals("p-1", KrameriusProcessPoller.getProcessUuid("{\"uuid\" : \"p-1\", \"state\":\"PLANNED\"}"));
+        assertEquals("PLANNED", KrameriusProcessPoller.getState("{\"uuid\":\"p-1\",\"state\":\"PLANNED\",\"batchState\":\"NO_BATCH\"}"));
+        assertEquals("BATCH_STARTED", KrameriusProcessPoller.getState("{\"state\":\"FINISHED\",\"batchState\":\"BATCH_STARTED\"}"));
+        assertNull(KrameriusProcessPoller.getProcessUuid("<html/>"));
+    }
+
+    @Test
+    public void trackedImportsTest() throws Exception {
+        KrameriusProcessPoller poller = createPoller(1);
+
+        try (KrameriusImportQueue queue = new KrameriusImportQueue(address, "user:password", null, 2, 5, 0)) {
+            queue.setProcessPoller(poller);
+
+            queue.submit("a");
+            queue.submit("failing");
+            queue.submit("c");
+
+            queue.awaitCompletion();
+            poller.awaitCompletion();
+        }
+
+        List<KrameriusProcessPoller.Result> results = poller.getResults();
+
+        assertEquals(3, results.size());
+
+        for (KrameriusProcessPoller.Result result : results) {
+            assertEquals("p-" + result.title, result.processUuid);
+            assertEquals(result.title.equals("failing") ? "FAILED" : "BATCH_FINISHED", result.state);
+            assertTrue(result.getLatencyMillis() > 0);
+        }
+
+        //new import waits until the previous one finishes
+        assertEquals(1, maxUnfinished.get());
+        assertTrue(poller.getSummary().startsWith("2 finished, 1 failed"));
+    }
+
+    @Test
+    public void adaptiveIntervalTest() throws Exception {
+        KrameriusProcessPoller poller = createPoller(4);
+
+        poller.reserve();
+        poller.track("a", "p-a", System.currentTimeMillis());
+        poller.awaitCompletion();
+
+        //each poll observed a new state, so none was repeated
+        assertEquals(STATES.length, polls.get("p-a").get());
+    }
+
+    private KrameriusProcessPoller createPoller(int maxRunning) {
+        KrameriusProcessPoller poller = new KrameriusProcessPoller(address, "user:password", 5, maxRunning);
+        poller.setPollIntervals(10, 80);
+
+        return poller;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String response;
+
+        if (exchange.getRequestMethod().equals("POST")) {
+            String body;
+
+            try (InputStream in = exchange.getRequestBody()) {
+                body = IOUtils.toString(in, StandardCharsets.UTF_8);
+            }
+
+            String title = body.substring(body.indexOf("/ProArc/") + "/ProArc/".length(), body.indexOf("\",\"startIndexer\""));
+
+            maxUnfinished.accumulateAndGet(unfinished.incrementAndGet(), Math::max);
+            response = String.format(STATES[0], "p-" + title);
+        } else {
+            String path = exchange.getRequestURI().getPath();
+            String process = path.substring(path.lastIndexOf('/') + 1);
+            int poll = polls.computeIfAbsent(process, p -> new AtomicInteger()).incrementAndGet();
+
+            if (process.equals("p-failing") && poll > 1) {
+                response = "{\"uuid\":\"p-failing\",\"state\":\"FAILED\",\"batchState\":\"NO_BATCH\"}";
+            } else {
+                response = String.format(STATES[Math.min(poll, STATES.length) - 1], process);
+            }
+
+            if (KrameriusProcessPoller.getState(response).equals("FAILED") || KrameriusProcessPoller.getState(response).equals("BATCH_FINISHED")) {
+                unfinished.decrementAndGet();
+            }
+        }
+
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
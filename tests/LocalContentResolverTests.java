@@ -0,0 +1,101 @@
+import cz.mzk.osdd.merlin.models.ContentFetcher;
+import cz.mzk.osdd.merlin.models.ContentResolver;
+import cz.mzk.osdd.merlin.models.LocalContentResolver;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Resolves content mapped into local directory, remote content is served from file URLs
+ */
+public class LocalContentResolverTests {
+
+    private Path dir;
+    private Path local;
+    private String remotePrefix;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("local-content");
+        local = Files.createDirectories(dir.resolve("local"));
+
+        Path remote = Files.createDirectories(dir.resolve("remote"));
+        remotePrefix = remote.toUri().toString();
+
+        Files.createDirectories(local.resolve("uuid:1"));
+        Files.write(local.resolve("uuid:1").resolve("ALTO"), "<alto>local</alto>".getBytes(StandardCharsets.UTF_8));
+
+        Files.createDirectories(remote.resolve("uuid:2"));
+        Files.write(remote.resolve("uuid:2").resolve("ALTO"), "<alto>remote</alto>".getBytes(StandardCharsets.UTF_8));
+
+        Files.write(dir.resolve("secret"), "secret".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void localAndRemoteContentTest() throws Exception {
+        try (ContentFetcher fetcher = new ContentFetcher(null, 1, 5)) {
+            LocalContentResolver resolver = new LocalContentResolver(mapping(remotePrefix, local), fetcher);
+
+            assertEquals("<alto>local</alto>", read(resolver, remotePrefix + "uuid%3A1/ALTO"));
+            assertEquals("<alto>remote</alto>", read(resolver, remotePrefix + "uuid:2/ALTO"));
+
+            assertEquals(1, resolver.getLocalCount());
+            assertEquals(18, resolver.getLocalBytes());
+            assertEquals(1, resolver.getRemoteCount());
+            assertEquals(1, fetcher.getDownloadCount());
+        }
+    }
+
+    @Test
+    public void longestPrefixTest() throws Exception {
+        Map<String, Path> mappings = mapping("http://proarc/", dir.resolve("remote"));
+        mappings.put("http://proarc/objects/", local);
+
+        try (ContentFetcher fetcher = new ContentFetcher(null, 1, 5)) {
+            LocalContentResolver resolver = new LocalContentResolver(mappings, fetcher);
+
+            assertEquals(local.resolve("uuid:1").resolve("ALTO"), resolver.resolve("http://proarc/objects/uuid:1/ALTO"));
+            assertEquals(dir.resolve("remote").resolve("uuid:2").resolve("ALTO"), resolver.resolve("http://proarc/uuid:2/ALTO"));
+        }
+    }
+
+    @Test
+    public void escapingUrlNotResolvedTest() throws Exception {
+        try (ContentFetcher fetcher = new ContentFetcher(null, 1, 5)) {
+            LocalContentResolver resolver = new LocalContentResolver(mapping("http://proarc/", local), fetcher);
+
+            assertNull(resolver.resolve("http://proarc/../secret"));
+            assertNull(resolver.resolve("http://proarc/%2E%2E/secret"));
+            assertNull(resolver.resolve("http://other/uuid:1/ALTO"));
+        }
+    }
+
+    private static Map<String, Path> mapping(String prefix, Path directory) {
+        Map<String, Path> mappings = new LinkedHashMap<>();
+        mappings.put(prefix, directory);
+
+        return mappings;
+    }
+
+    private static String read(ContentResolver resolver, String url) throws IOException {
+        try (ContentResolver.Content content = resolver.open(url)) {
+            return IOUtils.toString(content.stream, StandardCharsets.UTF_8);
+        }
+    }
+}
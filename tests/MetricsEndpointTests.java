@@ -0,0 +1,78 @@
+import cz.mzk.osdd.merlin.models.Metrics;
+import cz.mzk.osdd.merlin.models.MetricsEndpoint;
+import cz.mzk.osdd.merlin.models.ProcessingContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetricsEndpointTests {
+
+    private ProcessingContext context;
+    private MetricsEndpoint endpoint;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        context = new ProcessingContext();
+        endpoint = new MetricsEndpoint(new InetSocketAddress("127.0.0.1", 0), context);
+        context.setMetricsEndpoint(endpoint);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void servesPrometheusTextTest() throws IOException {
+        Metrics metrics = context.getMetrics();
+
+        metrics.titleStarted();
+        metrics.pageStarted();
+        metrics.pageStopped();
+        metrics.pageProcessed();
+        metrics.titleFinished(false);
+        metrics.error(Metrics.ErrorType.ALEPH_LOOKUP);
+        metrics.record(Metrics.Stage.IMAGE_COPY, System.nanoTime(), 4096);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + endpoint.getPort() + MetricsEndpoint.PATH).openConnection();
+
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+
+        String body;
+
+        try (InputStream is = connection.getInputStream()) {
+            body = IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+
+        assertTrue(body.contains("# TYPE merlin_titles_in_flight gauge\n"));
+        assertTrue(body.contains("merlin_titles_in_flight 1\n"));
+        assertTrue(body.contains("merlin_titles_completed_total{result=\"failed\"} 1\n"));
+        assertTrue(body.contains("merlin_pages_in_flight 0\n"));
+        assertTrue(body.contains("merlin_pages_completed_total 1\n"));
+        assertTrue(body.contains("merlin_queue_depth{queue=\"kramerius\"} 0\n"));
+        assertTrue(body.contains("merlin_stage_bytes_total{stage=\"imageCopy\"} 4096\n"));
+        assertTrue(body.contains("merlin_stage_duration_seconds_count{stage=\"imageCopy\"} 1\n"));
+        assertTrue(body.contains("merlin_stage_duration_seconds{stage=\"alephLookup\",quantile=\"0.99\"} 0\n"));
+        assertTrue(body.contains("merlin_errors_total{type=\"alephLookup\"} 1\n"));
+        assertTrue(body.contains("merlin_errors_total{type=\"krameriusImport\"} 0\n"));
+    }
+
+    @Test
+    public void rejectsOtherMethodsTest() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + endpoint.getPort() + MetricsEndpoint.PATH).openConnection();
+        connection.setRequestMethod("POST");
+
+        assertEquals(405, connection.getResponseCode());
+    }
+}
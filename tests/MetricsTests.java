@@ -0,0 +1,96 @@
+import cz.mzk.osdd.merlin.models.Metrics;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetricsTests {
+
+    private Path dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("metrics");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void percentilesTest() {
+        Metrics.Timer timer = new Metrics.Timer();
+
+        for (long i = 1; i <= 1000; i++) {
+            timer.record(i * 1000, 10);
+        }
+
+        assertEquals(1000, timer.getCount());
+        assertEquals(10000, timer.getBytes());
+        assertEquals(1_000_000, timer.getMaxNanos());
+
+        assertWithin(500_000, timer.getPercentileNanos(0.5));
+        assertWithin(990_000, timer.getPercentileNanos(0.99));
+        assertEquals(1_000_000, timer.getPercentileNanos(1));
+        assertEquals(0, new Metrics.Timer().getPercentileNanos(0.5));
+    }
+
+    @Test
+    public void summaryWrittenOnCloseTest() throws IOException {
+        Path file = dir.resolve("metrics.json");
+
+        Metrics metrics = new Metrics();
+        metrics.report(file, 0);
+
+        metrics.record(Metrics.Stage.IMAGE_COPY, System.nanoTime(), 4096);
+        metrics.pageProcessed();
+        metrics.titleFinished(true);
+        metrics.titleFinished(false);
+
+        metrics.close();
+
+        String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+
+        assertTrue(json.contains("\"complete\": true"));
+        assertTrue(json.contains("\"titles\": {\"succeeded\": 1, \"failed\": 1}"));
+        assertTrue(json.contains("\"pages\": 1,"));
+        assertTrue(json.contains("\"imageCopy\": {\"count\": 1,"));
+        assertTrue(json.contains("\"bytes\": 4096"));
+
+        for (Metrics.Stage stage : Metrics.Stage.values()) {
+            assertTrue(json.contains("\"" + stage.getName() + "\": {"));
+        }
+    }
+
+    @Test
+    public void periodicSnapshotTest() throws Exception {
+        Path file = dir.resolve("metrics.json");
+
+        try (Metrics metrics = new Metrics()) {
+            metrics.report(file, 1);
+
+            for (int i = 0; i < 50 && !Files.exists(file); i++) {
+                Thread.sleep(100);
+            }
+
+            assertTrue(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).contains("\"complete\": false"));
+        }
+
+        assertTrue(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).contains("\"complete\": true"));
+    }
+
+    /**
+     * Percentiles are upper bounds of histogram buckets, which are at most 12.5 % wide
+     */
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected * 1.125, "expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,205 @@
+import cz.mzk.osdd.merlin.models.PagePipeline;
+import cz.mzk.osdd.merlin.models.PageScheduler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PageSchedulerTests {
+
+    private PagePipeline pipeline;
+
+    @BeforeEach
+    public void setUp() {
+        pipeline = new PagePipeline(4, 4);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pipeline.close();
+    }
+
+    @Test
+    public void commitsInPageOrderTest() throws Exception {
+        int pages = 20;
+        PageScheduler scheduler = new PageScheduler(pipeline, pages);
+        List<String> committed = Collections.synchronizedList(new ArrayList<>());
+        List<Future<Void>> results = new ArrayList<>();
+
+        //the first page finishes last, so every other page waits for it
+        CountDownLatch othersFinished = new CountDownLatch(pages * 2 - 2);
+
+        for (int i = 0; i < pages; i++) {
+            int page = i;
+
+            results.add(scheduler.submitFoxml(page, () -> {
+                if (page == 0) {
+                    othersFinished.await(10, TimeUnit.SECONDS);
+                } else {
+                    othersFinished.countDown();
+                }
+
+                return () -> committed.add("foxml " + page);
+            }));
+
+            results.add(scheduler.submitImage(page, () -> {
+                if (page > 0) othersFinished.countDown();
+
+                return () -> committed.add("image " + page);
+            }));
+        }
+
+        for (Future<Void> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+
+        List<String> expected = new ArrayList<>();
+
+        for (int i = 0; i < pages; i++) {
+            expected.add("foxml " + i);
+            expected.add("image " + i);
+        }
+
+        assertEquals(expected, committed);
+        assertEquals(pages, scheduler.getCommittedCount());
+    }
+
+    @Test
+    public void failedPageStopsCommitsTest() throws Exception {
+        PageScheduler scheduler = new PageScheduler(pipeline, 3);
+        List<Integer> committed = Collections.synchronizedList(new ArrayList<>());
+        List<Future<Void>> results = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            int page = i;
+
+            results.add(scheduler.submitFoxml(page, () -> {
+                if (page == 1) throw new IOException("page 1 cannot be read");
+
+                return () -> committed.add(page);
+            }));
+            results.add(scheduler.submitImage(page, () -> null));
+        }
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> results.get(2).get(10, TimeUnit.SECONDS));
+        assertTrue(failure.getCause() instanceof IOException);
+
+        for (int i = 0; i < results.size(); i++) {
+            if (i != 2) results.get(i).get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(Collections.singletonList(0), committed);
+        assertEquals(1, scheduler.getCommittedCount());
+    }
+
+    @Test
+    public void commitDoesNotBlockFinishingWorkersTest() throws Exception {
+        PageScheduler scheduler = new PageScheduler(pipeline, 2);
+        List<Integer> committed = Collections.synchronizedList(new ArrayList<>());
+        List<Future<Void>> results = new ArrayList<>();
+        AtomicBoolean finishedDuringCommit = new AtomicBoolean(false);
+
+        //commit of the first page lasts until tasks of the second page finish
+        CountDownLatch secondSubmitted = new CountDownLatch(1);
+
+        results.add(scheduler.submitFoxml(0, () -> () -> {
+            finishedDuringCommit.set(awaitDone(secondSubmitted, results));
+            committed.add(0);
+        }));
+        results.add(scheduler.submitImage(0, () -> null));
+        results.add(scheduler.submitFoxml(1, () -> () -> committed.add(1)));
+        results.add(scheduler.submitImage(1, () -> null));
+        secondSubmitted.countDown();
+
+        for (Future<Void> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+
+        assertTrue(finishedDuringCommit.get());
+        assertEquals(Arrays.asList(0, 1), committed);
+        assertEquals(2, scheduler.getCommittedCount());
+    }
+
+    @Test
+    public void cancelSkipsTasksNotStartedTest() throws Exception {
+        PagePipeline single = new PagePipeline(1, 1);
+        List<Integer> run = Collections.synchronizedList(new ArrayList<>());
+        List<Future<Void>> results = new ArrayList<>();
+        CountDownLatch firstStarted = new CountDownLatch(2);
+        CountDownLatch cancelled = new CountDownLatch(1);
+
+        try {
+            PageScheduler scheduler = new PageScheduler(single, 3);
+
+            for (int i = 0; i < 3; i++) {
+                int page = i;
+
+                results.add(scheduler.submitFoxml(page, () -> {
+                    if (page == 0) {
+                        firstStarted.countDown();
+                        cancelled.await(10, TimeUnit.SECONDS);
+                    }
+
+                    run.add(page);
+                    return null;
+                }));
+                results.add(scheduler.submitImage(page, () -> {
+                    if (page == 0) {
+                        firstStarted.countDown();
+                        cancelled.await(10, TimeUnit.SECONDS);
+                    }
+
+                    return null;
+                }));
+            }
+
+            firstStarted.await(10, TimeUnit.SECONDS);
+            scheduler.cancel();
+            cancelled.countDown();
+
+            for (Future<Void> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+
+            //running tasks finish, queued ones are skipped
+            assertEquals(Collections.singletonList(0), run);
+            assertEquals(1, scheduler.getCommittedCount());
+        } finally {
+            single.close();
+        }
+    }
+
+    /**
+     * @return whether tasks of the second page finished within timeout
+     */
+    private static boolean awaitDone(CountDownLatch submitted, List<Future<Void>> results) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        List<Future<Void>> second;
+
+        try {
+            submitted.await(10, TimeUnit.SECONDS);
+            second = results.subList(2, 4);
+
+            while (!second.stream().allMatch(Future::isDone) && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+
+        return second.stream().allMatch(Future::isDone);
+    }
+}
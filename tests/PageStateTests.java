@@ -0,0 +1,92 @@
+import cz.mzk.osdd.merlin.models.Checksums;
+import cz.mzk.osdd.merlin.models.PageState;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class PageStateTests {
+
+    private Path dir;
+    private Path input;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("state");
+        input = dir.resolve("page.xml");
+        Files.write(input, "<page/>".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void unrecordedInputTest() throws IOException {
+        assertNull(PageState.load(dir).getUnchanged("page.xml", input));
+    }
+
+    @Test
+    public void saveAndLoadTest() throws IOException {
+        PageState state = PageState.load(dir);
+        state.put("page.xml", PageState.Fingerprint.of(input, null));
+        state.save();
+
+        PageState.Fingerprint loaded = PageState.load(dir).getUntouched("page.xml", input);
+
+        assertNotNull(loaded);
+        assertEquals(Checksums.sha256(input), loaded.checksum);
+    }
+
+    @Test
+    public void touchedInputTest() throws IOException {
+        PageState state = PageState.load(dir);
+        state.put("page.xml", PageState.Fingerprint.of(input, null));
+
+        Files.setLastModifiedTime(input, FileTime.fromMillis(Files.getLastModifiedTime(input).toMillis() + 60000));
+
+        assertNull(state.getUntouched("page.xml", input));
+        assertNotNull(state.getUnchanged("page.xml", input));
+
+        //touched input with matching content is recorded with its new modification time
+        assertNotNull(state.getUntouched("page.xml", input));
+    }
+
+    @Test
+    public void changedInputTest() throws IOException {
+        PageState state = PageState.load(dir);
+        state.put("page.xml", PageState.Fingerprint.of(input, null));
+
+        FileTime modified = Files.getLastModifiedTime(input);
+        Files.write(input, "<PAGE/>".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(input, FileTime.fromMillis(modified.toMillis() + 60000));
+
+        assertNull(state.getUnchanged("page.xml", input));
+    }
+
+    @Test
+    public void unreadInputTest() throws IOException {
+        PageState state = PageState.load(dir);
+        state.put("page.xml", new PageState.Fingerprint(Files.size(input), Files.getLastModifiedTime(input).toMillis(), null));
+        state.save();
+
+        state = PageState.load(dir);
+        assertNotNull(state.getUntouched("page.xml", input));
+        assertNull(state.getUntouched("page.xml", input).checksum);
+
+        //touched input cannot be compared with unknown checksum
+        Files.setLastModifiedTime(input, FileTime.fromMillis(Files.getLastModifiedTime(input).toMillis() + 60000));
+
+        assertNull(state.getUnchanged("page.xml", input));
+    }
+}
@@ -0,0 +1,213 @@
+import cz.mzk.osdd.merlin.models.Pair;
+import cz.mzk.osdd.merlin.models.ProcessingJournal;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ProcessingJournalTests {
+
+    private static final String TITLE = "00000010-0000-0000-0000-000000000007";
+    private static final String PAGE = "00000010-0000-0000-0000-0000000003e8";
+    private static final String LINKED_PAGE = "00000010-0000-0000-0000-0000000003e9";
+    private static final String INPUT = "5f3a";
+    private static final String IMAGE_INPUT = "1048576:1600000000000";
+
+    private Path file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        file = Files.createTempFile("merlin", ".journal");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void resumeUnfinishedRunTest() throws IOException {
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            journal.startRun("proarcExport_1", INPUT);
+            journal.startTitle(TITLE, "001564911", "mzk01", INPUT);
+            journal.foxmlSaved(TITLE, PAGE);
+            journal.imageTransferred(TITLE, PAGE, "abc", IMAGE_INPUT);
+            journal.imageTransferred(TITLE, LINKED_PAGE, null, IMAGE_INPUT);
+        }
+
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            assertEquals("proarcExport_1", journal.getUnfinishedRunPackPath());
+            assertEquals(Pair.create("001564911", "mzk01"), journal.getTitleRecord(TITLE, INPUT));
+            assertTrue(journal.isFoxmlSaved(TITLE, PAGE));
+            assertEquals("abc", journal.getImageChecksum(TITLE, PAGE));
+            assertTrue(journal.isImageTransferred(TITLE, LINKED_PAGE, IMAGE_INPUT));
+            assertNull(journal.getImageChecksum(TITLE, LINKED_PAGE));
+            assertFalse(journal.isTitleFinished(TITLE, INPUT));
+            assertFalse(journal.isImportRequested(TITLE));
+        }
+    }
+
+    @Test
+    public void finishedRunNotResumedTest() throws IOException {
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            journal.startRun("proarcExport_1", INPUT);
+            journal.startTitle(TITLE, "001564911", "mzk01", INPUT);
+            journal.finishTitle(TITLE, INPUT);
+            journal.finishRun();
+        }
+
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            assertNull(journal.getUnfinishedRunPackPath());
+
+            journal.startRun("proarcExport_2", INPUT);
+
+            assertFalse(journal.isTitleFinished(TITLE, INPUT));
+            assertNull(journal.getTitleRecord(TITLE, INPUT));
+        }
+    }
+
+    @Test
+    public void interruptedRecordTest() throws IOException {
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            journal.startRun("proarcExport_1", INPUT);
+            journal.foxmlSaved(TITLE, PAGE);
+        }
+
+        Files.write(file, "IMAGE\tpartial".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            journal.finishTitle(TITLE, INPUT);
+        }
+
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            assertTrue(journal.isFoxmlSaved(TITLE, PAGE));
+            assertTrue(journal.isTitleFinished(TITLE, INPUT));
+        }
+
+        assertFalse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).contains("partial"));
+    }
+
+    @Test
+    public void changedTitleNotReusedTest() throws IOException {
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            journal.startRun("proarcExport_1", INPUT);
+            journal.startTitle(TITLE, "001564911", "mzk01", INPUT);
+            journal.foxmlSaved(TITLE, PAGE);
+            journal.imageTransferred(TITLE, PAGE, "abc", IMAGE_INPUT);
+            journal.finishTitle(TITLE, INPUT);
+        }
+
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            assertFalse(journal.isTitleFinished(TITLE, "6e4b"));
+            assertNull(journal.getTitleRecord(TITLE, "6e4b"));
+            assertFalse(journal.isImageTransferred(TITLE, PAGE, "1048577:1600000000000"));
+
+            //title exported again discards records of previous export
+            journal.startTitle(TITLE, "001564911", "mzk01", "6e4b");
+
+            assertFalse(journal.isFoxmlSaved(TITLE, PAGE));
+            assertFalse(journal.isImageTransferred(TITLE, PAGE, IMAGE_INPUT));
+            assertFalse(journal.isTitleFinished(TITLE, INPUT));
+        }
+
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            assertFalse(journal.isFoxmlSaved(TITLE, PAGE));
+            assertEquals(Pair.create("001564911", "mzk01"), journal.getTitleRecord(TITLE, "6e4b"));
+        }
+    }
+
+    @Test
+    public void changedRunInputNotResumedTest() throws IOException {
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            journal.startRun("proarcExport_1", INPUT);
+            journal.startTitle(TITLE, "001564911", "mzk01", INPUT);
+            journal.finishTitle(TITLE, INPUT);
+        }
+
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            assertTrue(journal.isRunResumable(INPUT));
+            assertTrue(journal.isRunResumable(null));
+            assertFalse(journal.isRunResumable("6e4b"));
+
+            journal.startRun("proarcExport_1", "6e4b");
+
+            assertFalse(journal.isTitleFinished(TITLE, INPUT));
+        }
+    }
+
+    @Test
+    public void discardedTitleTest() throws IOException {
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            journal.startRun("proarcExport_1", null);
+            journal.startTitle(TITLE, "001564911", "mzk01", INPUT);
+            journal.foxmlSaved(TITLE, PAGE);
+            journal.finishTitle(TITLE, INPUT);
+            journal.discardTitle(TITLE);
+        }
+
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            assertFalse(journal.isTitleFinished(TITLE, INPUT));
+            assertFalse(journal.isFoxmlSaved(TITLE, PAGE));
+            assertNull(journal.getTitleRecord(TITLE, INPUT));
+        }
+    }
+
+    @Test
+    public void finishedRunTruncatesJournalTest() throws IOException {
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            journal.startRun("proarcExport_1", INPUT);
+            journal.startTitle(TITLE, "000123", "mzk01", INPUT);
+            journal.finishTitle(TITLE, INPUT);
+            journal.finishRun();
+        }
+
+        assertEquals(0, Files.size(file));
+
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            assertNull(journal.getUnfinishedRunPackPath());
+
+            journal.startRun("proarcExport_1", INPUT);
+            journal.foxmlSaved(TITLE, PAGE);
+            journal.startRun("proarcExport_2", INPUT);
+        }
+
+        assertEquals("RUN\tproarcExport_2\t" + INPUT + "\n", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void compactedOnOpenTest() throws IOException {
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            journal.startRun("proarcExport_1", null);
+
+            for (int i = 0; i < 10; i++) {
+                journal.startTitle(TITLE, "000123", "mzk01", INPUT);
+                journal.foxmlSaved(TITLE, PAGE);
+                journal.imageTransferred(TITLE, PAGE, "ab12", IMAGE_INPUT);
+                journal.finishTitle(TITLE, INPUT);
+                journal.discardTitle(TITLE);
+            }
+
+            journal.startTitle(TITLE, "000123", "mzk01", INPUT);
+            journal.foxmlSaved(TITLE, PAGE);
+        }
+
+        try (ProcessingJournal journal = ProcessingJournal.open(file)) {
+            assertEquals("proarcExport_1", journal.getUnfinishedRunPackPath());
+            assertEquals(Pair.create("000123", "mzk01"), journal.getTitleRecord(TITLE, INPUT));
+            assertTrue(journal.isFoxmlSaved(TITLE, PAGE));
+            assertFalse(journal.isImageTransferred(TITLE, PAGE, IMAGE_INPUT));
+            assertFalse(journal.isTitleFinished(TITLE, INPUT));
+        }
+
+        assertEquals(3, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+}
@@ -1,14 +1,20 @@
 import cz.mzk.osdd.merlin.models.Mods;
 import cz.mzk.osdd.merlin.models.Pair;
 import cz.mzk.osdd.merlin.models.Utils;
+import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
 import javax.xml.parsers.ParserConfigurationException;
 import org.junit.jupiter.api.Test;
 import org.xml.sax.SAXException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Created by Jakub Kremlacek on 4.4.17.
@@ -50,4 +56,38 @@ public class UtilsTests {
     public void getSysnoWithBaseFromAlephNullTest() throws IOException {
         assertEquals(null, Utils.getSysnoWithBaseFromAleph(null));
     }
+
+    @Test
+    public void containsDatastreamTest() throws IOException, SAXException {
+        File foxml = new File(FoxmlTests.TESTING_FOXML);
+
+        assertTrue(Utils.containsDatastream(foxml, "IMG_FULL"));
+        assertFalse(Utils.containsDatastream(foxml, "ALTO"));
+    }
+
+    @Test
+    public void getPageReferencesTest() throws IOException, SAXException {
+        File foxml = File.createTempFile("merlin-rels", ".xml");
+
+        try {
+            Files.write(foxml.toPath(), (
+                    "<digitalObject xmlns=\"info:fedora/fedora-system:def/foxml#\" PID=\"uuid:root\">" +
+                    "<datastream ID=\"RELS-EXT\"><datastreamVersion ID=\"RELS-EXT.0\"><xmlContent>" +
+                    "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns:kramerius=\"http://www.nsdl.org/ontologies/relationships#\">" +
+                    "<rdf:Description rdf:about=\"info:fedora/uuid:root\">" +
+                    "<kramerius:hasIntCompPart rdf:resource=\"info:fedora/uuid:part\"/>" +
+                    "<kramerius:hasPage rdf:resource=\"info:fedora/uuid:second\"/>" +
+                    "<kramerius:hasPage rdf:resource=\"info:fedora/uuid:first\"/>" +
+                    "</rdf:Description></rdf:RDF>" +
+                    "</xmlContent></datastreamVersion></datastream>" +
+                    "<datastream ID=\"OTHER\"><datastreamVersion ID=\"OTHER.0\"><xmlContent>" +
+                    "<kramerius:hasPage xmlns:kramerius=\"http://www.nsdl.org/ontologies/relationships#\" rdf:resource=\"info:fedora/uuid:ignored\" xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"/>" +
+                    "</xmlContent></datastreamVersion></datastream>" +
+                    "</digitalObject>").getBytes(StandardCharsets.UTF_8));
+
+            assertEquals(Arrays.asList("second", "first"), Utils.getPageReferences(foxml));
+        } finally {
+            foxml.delete();
+        }
+    }
 }
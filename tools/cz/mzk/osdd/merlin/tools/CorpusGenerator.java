@@ -0,0 +1,268 @@
+package cz.mzk.osdd.merlin.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates synthetic ProArc export for load testing of Merlin
+ *
+ * Each title consists of kramerius directory k4_uuid containing root FOXML, FOXMLs of internal parts, page FOXMLs
+ * and proarc_export_status.log, and of image directory containing jp2 of each page. Image directory is named
+ * uuid.NDK_USER in batch layout, which is processed by running Merlin with the output directory, and uuid
+ * in single layout, which is processed by -iK k4_uuid -iI uuid or watched by -w.
+ */
+public class CorpusGenerator {
+
+    public enum Layout {
+        BATCH,
+        SINGLE;
+
+        public static Layout parse(String value) {
+            for (Layout layout : values()) {
+                if (layout.name().equalsIgnoreCase(value)) return layout;
+            }
+
+            throw new IllegalArgumentException("Unknown layout: " + value);
+        }
+    }
+
+    public static final String USAGE =
+            '\n' +
+            "Generates synthetic ProArc export" + '\n' +
+            '\n' +
+            "  -o  path  : output directory                                  (mandatory)" + '\n' +
+            "  -n  count : titles                                            (default 1)" + '\n' +
+            "  -p  count : pages of each title                               (default 10)" + '\n' +
+            "  -nP count : internal parts (non page FOXMLs) of each title    (default 0)" + '\n' +
+            "  -l  mode  : layout: batch or single                           (default batch)" + '\n' +
+            "  -sI bytes : inlined IMG_FULL, IMG_PREVIEW and IMG_THUMB size  (default 1024)" + '\n' +
+            "  -sA bytes : ALTO size                                         (default 65536)" + '\n' +
+            "  -sO bytes : TEXT_OCR size                                     (default 4096)" + '\n' +
+            "  -sM bytes : MODS padding of non page FOXMLs                   (default 1024)" + '\n' +
+            "  -sJ bytes : jp2 size                                          (default 1048576)" + '\n' +
+            "  -sparse   : create jp2 as sparse files" + '\n' +
+            "  -seed n   : seed of generated UUIDs and content               (default 0)" + '\n' +
+            '\n';
+
+    public static final String STATUS_FILE = "proarc_export_status.log";
+
+    private static final String K4_PREFIX = "k4_";
+    private static final String NDK_SUFFIX = ".NDK_USER";
+
+    //JPEG 2000 signature box followed by file type box, so generated images are recognized as jp2
+    private static final byte[] JP2_HEADER = {
+            0x00, 0x00, 0x00, 0x0C, 0x6A, 0x50, 0x20, 0x20, 0x0D, 0x0A, (byte) 0x87, 0x0A,
+            0x00, 0x00, 0x00, 0x14, 0x66, 0x74, 0x79, 0x70, 0x6A, 0x70, 0x32, 0x20,
+            0x00, 0x00, 0x00, 0x00, 0x6A, 0x70, 0x32, 0x20
+    };
+
+    private static final int WRITE_BUFFER = 64 * 1024;
+
+    private Path output = null;
+    private int titles = 1;
+    private int pages = 10;
+    private int parts = 0;
+    private Layout layout = Layout.BATCH;
+    private int imageBytes = 1024;
+    private int altoBytes = 64 * 1024;
+    private int ocrBytes = 4 * 1024;
+    private int modsBytes = 1024;
+    private long jp2Bytes = 1024 * 1024;
+    private boolean sparse = false;
+    private long seed = 0;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.print(USAGE);
+            return;
+        }
+
+        try {
+            CorpusGenerator generator = new CorpusGenerator(args);
+            long start = System.nanoTime();
+
+            generator.generate();
+
+            System.out.println("Generated " + generator.titles + " titles with " + generator.pages + " pages each into " + generator.output +
+                    " in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.out.print(USAGE);
+            System.exit(-1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public CorpusGenerator(String[] args) {
+        int pos = 0;
+
+        while (pos < args.length) {
+            switch (args[pos]) {
+                case "-o":
+                    output = Paths.get(value(args, pos));
+                    pos += 2;
+                    break;
+                case "-n":
+                    titles = parseCount(args, pos, 1);
+                    pos += 2;
+                    break;
+                case "-p":
+                    pages = parseCount(args, pos, 1);
+                    pos += 2;
+                    break;
+                case "-nP":
+                    parts = parseCount(args, pos, 0);
+                    pos += 2;
+                    break;
+                case "-l":
+                    layout = Layout.parse(value(args, pos));
+                    pos += 2;
+                    break;
+                case "-sI":
+                    imageBytes = parseCount(args, pos, 0);
+                    pos += 2;
+                    break;
+                case "-sA":
+                    altoBytes = parseCount(args, pos, 0);
+                    pos += 2;
+                    break;
+                case "-sO":
+                    ocrBytes = parseCount(args, pos, 0);
+                    pos += 2;
+                    break;
+                case "-sM":
+                    modsBytes = parseCount(args, pos, 0);
+                    pos += 2;
+                    break;
+                case "-sJ":
+                    jp2Bytes = parseSize(args, pos);
+                    pos += 2;
+                    break;
+                case "-sparse":
+                    sparse = true;
+                    pos++;
+                    break;
+                case "-seed":
+                    seed = parseSize(args, pos);
+                    pos += 2;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid argument type: " + args[pos]);
+            }
+        }
+
+        if (output == null) throw new IllegalArgumentException("Output directory is not set");
+        if (jp2Bytes < JP2_HEADER.length) throw new IllegalArgumentException("jp2 size must be at least " + JP2_HEADER.length + " bytes");
+    }
+
+    /**
+     * Writes all titles into output directory
+     *
+     * @return UUIDs of generated titles
+     */
+    public List<String> generate() throws IOException {
+        Files.createDirectories(output);
+
+        FoxmlCorpus corpus = new FoxmlCorpus(seed, imageBytes, altoBytes, ocrBytes);
+        Random random = new Random(seed);
+        List<String> generated = new ArrayList<>();
+
+        for (int t = 0; t < titles; t++) {
+            String titleUuid = uuid(random);
+
+            Path k4 = Files.createDirectories(output.resolve(K4_PREFIX + titleUuid));
+            Path images = Files.createDirectories(output.resolve(layout == Layout.BATCH ? titleUuid + NDK_SUFFIX : titleUuid));
+
+            List<String> pageUuids = new ArrayList<>();
+            List<String> partUuids = new ArrayList<>();
+
+            for (int p = 1; p <= pages; p++) {
+                String pageUuid = uuid(random);
+
+                corpus.writePage(k4, pageUuid, p);
+                writeJp2(images.resolve(pageUuid + ".jp2"), random);
+
+                pageUuids.add(pageUuid);
+            }
+
+            for (int p = 0; p < parts; p++) {
+                String partUuid = uuid(random);
+
+                corpus.writeNonPage(k4, partUuid, "internalpart", Collections.emptyList(), Collections.emptyList(), modsBytes);
+                partUuids.add(partUuid);
+            }
+
+            corpus.writeNonPage(k4, titleUuid, "monograph", pageUuids, partUuids, modsBytes);
+
+            //status log is written last, as ProArc does, so watching Merlin sees complete export
+            Files.write(k4.resolve(STATUS_FILE), ("Export of uuid:" + titleUuid + " finished.\n").getBytes(StandardCharsets.UTF_8));
+
+            generated.add(titleUuid);
+        }
+
+        return generated;
+    }
+
+    private void writeJp2(Path file, Random random) throws IOException {
+        if (sparse) {
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.write(JP2_HEADER);
+                raf.setLength(jp2Bytes);
+            }
+
+            return;
+        }
+
+        byte[] buffer = new byte[WRITE_BUFFER];
+
+        try (OutputStream os = Files.newOutputStream(file)) {
+            os.write(JP2_HEADER);
+
+            for (long left = jp2Bytes - JP2_HEADER.length; left > 0; left -= buffer.length) {
+                random.nextBytes(buffer);
+                os.write(buffer, 0, (int) Math.min(left, buffer.length));
+            }
+        }
+    }
+
+    private static String uuid(Random random) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+
+        return UUID.nameUUIDFromBytes(bytes).toString();
+    }
+
+    private static String value(String[] args, int pos) {
+        if (pos + 1 >= args.length) throw new IllegalArgumentException("Missing value of " + args[pos]);
+
+        return args[pos + 1];
+    }
+
+    private static int parseCount(String[] args, int pos, int min) {
+        long count = parseSize(args, pos);
+
+        if (count < min || count > Integer.MAX_VALUE) throw new IllegalArgumentException("Invalid value of " + args[pos] + ": " + args[pos + 1]);
+
+        return (int) count;
+    }
+
+    private static long parseSize(String[] args, int pos) {
+        try {
+            return Long.parseLong(value(args, pos));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of " + args[pos] + ": " + args[pos + 1]);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package cz.mzk.osdd.merlin.tools;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes FOXMLs shaped as ProArc export of page and non page objects
+ *
+ * Page contains RELS-EXT, BIBLIO_MODS, DC, IMG_FULL, IMG_PREVIEW, IMG_THUMB with inlined binary content and ALTO
+ * with TEXT_OCR inlined as well, so processing does not download anything. Root object refers to its pages
+ * and internal parts and its MODS contains signature and date issued required by Aleph lookup.
+ * Content is generated from seed, so the same seed produces the same FOXMLs.
+ */
+public class FoxmlCorpus {
+    private final Random random;
+    private final int imageBytes;
+    private final int altoBytes;
+    private final int ocrBytes;
+
+    /**
+     * @param imageBytes size of each inlined IMG_FULL, IMG_PREVIEW and IMG_THUMB content before base64 encoding
+     * @param altoBytes size of ALTO content before base64 encoding
+     * @param ocrBytes size of TEXT_OCR content before base64 encoding
+     */
+    public FoxmlCorpus(long seed, int imageBytes, int altoBytes, int ocrBytes) {
+        if (imageBytes < 0 || altoBytes < 0 || ocrBytes < 0) throw new IllegalArgumentException("Datastream size cannot be negative");
+
+        this.random = new Random(seed);
+        this.imageBytes = imageBytes;
+        this.altoBytes = altoBytes;
+        this.ocrBytes = ocrBytes;
+    }
+
+    /**
+     * @param index position of page within title, starting by 1
+     * @return written file
+     */
+    public Path writePage(Path dir, String uuid, int index) throws IOException {
+        Path file = dir.resolve(uuid + ".xml");
+
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writeHeader(w, uuid, "[" + index + "], Page");
+
+            w.write(xmlDatastream("RELS-EXT", "RDF Statements about this object", rels(uuid, "page", Collections.emptyList(), Collections.emptyList(), uuid + ".tif")));
+            w.write(xmlDatastream("BIBLIO_MODS", "Metadata Object Description", pageMods(uuid, index)));
+            w.write(xmlDatastream("DC", "Dublin Core Record for this object", dc(uuid, "[" + index + "]", "model:page")));
+            w.write(binaryDatastream("IMG_FULL", "image/jpeg", imageBytes));
+            w.write(binaryDatastream("IMG_PREVIEW", "image/jpeg", imageBytes));
+            w.write(binaryDatastream("IMG_THUMB", "image/jpeg", imageBytes));
+            w.write(binaryDatastream("ALTO", "text/xml", altoBytes));
+            w.write(binaryDatastream("TEXT_OCR", "text/plain", ocrBytes));
+
+            w.write("</digitalObject>\n");
+        }
+
+        return file;
+    }
+
+    /**
+     * @param model Kramerius model of object, e.g. monograph or internalpart
+     * @param pages UUIDs of pages referred by hasPage relation
+     * @param parts UUIDs of internal parts referred by hasIntCompPart relation
+     * @param modsBytes size of MODS padding
+     * @return written file
+     */
+    public Path writeNonPage(Path dir, String uuid, String model, List<String> pages, List<String> parts, int modsBytes) throws IOException {
+        Path file = dir.resolve(uuid + ".xml");
+
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writeHeader(w, uuid, "Generated " + model);
+
+            w.write(xmlDatastream("RELS-EXT", "RDF Statements about this object", rels(uuid, model, pages, parts, null)));
+            w.write(xmlDatastream("BIBLIO_MODS", "Metadata Object Description", mods(uuid, model, modsBytes)));
+            w.write(xmlDatastream("DC", "Dublin Core Record for this object", dc(uuid, "Generated " + model, "model:" + model)));
+
+            w.write("</digitalObject>\n");
+        }
+
+        return file;
+    }
+
+    private static void writeHeader(Writer w, String uuid, String label) throws IOException {
+        w.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        w.write("<digitalObject xmlns=\"info:fedora/fedora-system:def/foxml#\" VERSION=\"1.1\" PID=\"uuid:" + uuid + "\">\n");
+        w.write("<objectProperties>\n");
+        w.write("<property NAME=\"info:fedora/fedora-system:def/model#state\" VALUE=\"Active\"/>\n");
+        w.write("<property NAME=\"info:fedora/fedora-system:def/model#label\" VALUE=\"" + label + "\"/>\n");
+        w.write("</objectProperties>\n");
+    }
+
+    private static String xmlDatastream(String id, String label, String content) {
+        return "<datastream ID=\"" + id + "\" CONTROL_GROUP=\"X\" STATE=\"A\" VERSIONABLE=\"false\">\n" +
+                "<datastreamVersion ID=\"" + id + ".0\" LABEL=\"" + label + "\" MIMETYPE=\"text/xml\">\n" +
+                "<xmlContent>\n" + content + "\n</xmlContent>\n" +
+                "</datastreamVersion>\n" +
+                "</datastream>\n";
+    }
+
+    private String binaryDatastream(String id, String mimetype, int bytes) {
+        byte[] content = new byte[bytes];
+        random.nextBytes(content);
+
+        return "<datastream ID=\"" + id + "\" CONTROL_GROUP=\"M\" STATE=\"A\" VERSIONABLE=\"false\">\n" +
+                "<datastreamVersion ID=\"" + id + ".0\" LABEL=\"" + id + "\" MIMETYPE=\"" + mimetype + "\" SIZE=\"" + bytes + "\">\n" +
+                "<binaryContent>" + Base64.getEncoder().encodeToString(content) + "</binaryContent>\n" +
+                "</datastreamVersion>\n" +
+                "</datastream>\n";
+    }
+
+    private static String rels(String uuid, String model, List<String> pages, List<String> parts, String file) {
+        StringBuilder rels = new StringBuilder()
+                .append("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns:fedora-model=\"info:fedora/fedora-system:def/model#\" xmlns:kramerius=\"http://www.nsdl.org/ontologies/relationships#\">\n")
+                .append("<rdf:Description rdf:about=\"info:fedora/uuid:").append(uuid).append("\">\n")
+                .append("<fedora-model:hasModel rdf:resource=\"info:fedora/model:").append(model).append("\"/>\n");
+
+        for (String part : parts) {
+            rels.append("<kramerius:hasIntCompPart rdf:resource=\"info:fedora/uuid:").append(part).append("\"/>\n");
+        }
+
+        for (String page : pages) {
+            rels.append("<kramerius:hasPage rdf:resource=\"info:fedora/uuid:").append(page).append("\"/>\n");
+        }
+
+        if (file != null) {
+            rels.append("<kramerius:file>").append(file).append("</kramerius:file>\n");
+        }
+
+        return rels.append("<kramerius:policy>policy:private</kramerius:policy>\n")
+                .append("</rdf:Description>\n")
+                .append("</rdf:RDF>")
+                .toString();
+    }
+
+    private static String pageMods(String uuid, int index) {
+        return "<mods:modsCollection xmlns:mods=\"http://www.loc.gov/mods/v3\">\n" +
+                "<mods:mods version=\"3.5\">\n" +
+                "<mods:identifier type=\"uuid\">" + uuid + "</mods:identifier>\n" +
+                "<mods:part type=\"NormalPage\">\n" +
+                "<mods:detail type=\"pageIndex\"><mods:number>" + index + "</mods:number></mods:detail>\n" +
+                "<mods:detail type=\"pageNumber\"><mods:number>[" + index + "]</mods:number></mods:detail>\n" +
+                "</mods:part>\n" +
+                "</mods:mods>\n" +
+                "</mods:modsCollection>";
+    }
+
+    private static String mods(String uuid, String model, int paddingBytes) {
+        StringBuilder mods = new StringBuilder()
+                .append("<mods:modsCollection xmlns:mods=\"http://www.loc.gov/mods/v3\">\n")
+                .append("<mods:mods version=\"3.5\">\n")
+                .append("<mods:identifier type=\"uuid\">").append(uuid).append("</mods:identifier>\n")
+                .append("<mods:titleInfo><mods:title>Generated ").append(model).append("</mods:title></mods:titleInfo>\n")
+                .append("<mods:originInfo><mods:dateIssued>2017</mods:dateIssued></mods:originInfo>\n")
+                .append("<mods:location><mods:shelfLocator>GEN-").append(uuid, 0, 8).append("</mods:shelfLocator></mods:location>\n");
+
+        for (int i = 0; i * 64 < paddingBytes; i++) {
+            mods.append("<mods:note>").append(String.format("%048d", i)).append("</mods:note>\n");
+        }
+
+        return mods.append("</mods:mods>\n").append("</mods:modsCollection>").toString();
+    }
+
+    private static String dc(String uuid, String title, String model) {
+        return "<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n" +
+                "<dc:title>" + title + "</dc:title>\n" +
+                "<dc:type>" + model + "</dc:type>\n" +
+                "<dc:identifier>uuid:" + uuid + "</dc:identifier>\n" +
+                "</oai_dc:dc>";
+    }
+}